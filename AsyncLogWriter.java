@@ -0,0 +1,319 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.IllegalFormatException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Which logs are written, each level includes the ones before it.
+ */
+enum LogLevel
+{
+	Off,
+	Error,
+	Info
+}
+
+/**
+ * What happens to a log when the log writer has fallen too far behind to hold it.
+ */
+enum LogOverflowPolicy
+{
+	/**
+	 * The log is dropped and counted, so logging never waits.
+	 */
+	Drop,
+	
+	/**
+	 * The logging thread waits for space, so no logs are lost.
+	 */
+	Block
+}
+
+/**
+ * Writes logs to the console on a thread of its own, so threads relaying messages never wait on the console.
+ * Logs are handed over through a fixed-size ring of reusable entries, which producers claim by compare-and-set, so logging never locks or allocates an entry.
+ * Logs are only formatted on the writing thread, and timestamps are only formatted once per second.
+ */
+class AsyncLogWriter
+{
+	/**
+	 * A slot in the ring, reused for every log which passes through it.
+	 */
+	private static final class Entry
+	{
+		/**
+		 * Which lap of the ring the entry is on, it's ready to be claimed when this equals the producers' index, and ready to be written when it's one more.
+		 */
+		volatile long Sequence;
+		long Time;
+		String Colour;
+		String Format;
+		Object[] Args;
+	}
+	
+	private static final DateTimeFormatter TimeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+	
+	/**
+	 * How long the writing thread sleeps when there's nothing to write, in case a producer's wake up is missed.
+	 */
+	private static final long IdleParkTime = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	/**
+	 * How long a blocked producer sleeps before checking for space again.
+	 */
+	private static final long FullParkTime = TimeUnit.MICROSECONDS.toNanos(50);
+	
+	/**
+	 * Gathered logs are written once they reach this many characters, even if more are ready.
+	 */
+	private static final int MaxBatchLength = 16 * 1024;
+	
+	private final Entry[] Entries;
+	private final int Mask;
+	private final AtomicLong ProducerIndex = new AtomicLong();
+	private final AtomicLong DroppedLogCount = new AtomicLong();
+	private final PrintStream Out;
+	private final Thread Thread;
+	
+	/**
+	 * The index of the next entry to write, and how many entries have actually reached the stream, only changed by the writing thread.
+	 */
+	private volatile long ConsumerIndex = 0;
+	private volatile long WrittenIndex = 0;
+	private volatile boolean WriterParked = false;
+	private volatile LogOverflowPolicy OverflowPolicy = LogOverflowPolicy.Drop;
+	
+	/**
+	 * Only accessed by the writing thread.
+	 */
+	private final StringBuilder Batch = new StringBuilder();
+	private long CachedSecond = -1;
+	private String CachedTime = null;
+	
+	/**
+	 * Constructs a new AsyncLogWriter, and starts its writing thread.
+	 *
+	 * @param capacity The most logs which can be waiting to be written, rounded up to a power of 2.
+	 * @param out The stream to write logs to.
+	 */
+	public AsyncLogWriter(int capacity, PrintStream out)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		Entries = new Entry[size];
+		Mask = size - 1;
+		for (int i = 0; i < size; i++)
+		{
+			Entries[i] = new Entry();
+			Entries[i].Sequence = i;
+		}
+		Out = out;
+		
+		Thread = new Thread(this::Run, "Log Writer Thread");
+		
+		// Logs still waiting when the program exits are written by Flush, there's no need to keep the program alive for this thread
+		Thread.setDaemon(true);
+		Thread.start();
+	}
+	
+	/**
+	 * Sets what happens to logs when the writer has fallen too far behind to hold them.
+	 *
+	 * @param overflowPolicy What to do with logs which don't fit.
+	 */
+	public void SetOverflowPolicy(LogOverflowPolicy overflowPolicy)
+	{
+		OverflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Hands a log to the writing thread.
+	 *
+	 * @param colour The ANSI colour to write the log in, null to leave it uncoloured.
+	 * @param format A format string.
+	 * @param args Arguments referenced in the format string.
+	 */
+	public void Write(String colour, String format, Object[] args)
+	{
+		long time = System.currentTimeMillis();
+		while (true)
+		{
+			long index = ProducerIndex.get();
+			Entry entry = Entries[(int)(index & Mask)];
+			long sequence = entry.Sequence;
+			
+			if (sequence == index)
+			{
+				if (ProducerIndex.compareAndSet(index, index + 1))
+				{
+					entry.Time = time;
+					entry.Colour = colour;
+					entry.Format = format;
+					entry.Args = args;
+					
+					// Publishing the entry to the writing thread
+					entry.Sequence = index + 1;
+					if (WriterParked)
+					{
+						LockSupport.unpark(Thread);
+					}
+					return;
+				}
+			}
+			else if (sequence < index)
+			{
+				// Ring is full
+				if (OverflowPolicy == LogOverflowPolicy.Drop || java.lang.Thread.currentThread() == Thread)
+				{
+					DroppedLogCount.incrementAndGet();
+					return;
+				}
+				
+				LockSupport.unpark(Thread);
+				LockSupport.parkNanos(FullParkTime);
+			}
+		}
+	}
+	
+	/**
+	 * Waits for every log handed over so far to be written, e.g. before the program exits.
+	 *
+	 * @param timeout The longest to wait, in milliseconds.
+	 */
+	public void Flush(long timeout)
+	{
+		long target = ProducerIndex.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (WrittenIndex < target && System.nanoTime() < deadline)
+		{
+			LockSupport.unpark(Thread);
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+	}
+	
+	/**
+	 * Gets the number of logs dropped because the writer had fallen too far behind.
+	 *
+	 * @return The number of dropped logs.
+	 */
+	public long GetDroppedLogCount()
+	{
+		return DroppedLogCount.get();
+	}
+	
+	/**
+	 * Writes logs as they're handed over, every log ready at once is written together.
+	 */
+	private void Run()
+	{
+		long reportedDroppedLogCount = 0;
+		while (true)
+		{
+			long index = ConsumerIndex;
+			Entry entry = Entries[(int)(index & Mask)];
+			
+			// Nothing to write, writing what's been gathered then waiting for more
+			if (entry.Sequence != index + 1)
+			{
+				long droppedLogCount = DroppedLogCount.get();
+				if (droppedLogCount != reportedDroppedLogCount)
+				{
+					AppendLog(System.currentTimeMillis(), ConsoleIO.TextColourRed, String.format("%d log(s) dropped, logs are being written more slowly than they're made.", droppedLogCount - reportedDroppedLogCount));
+					reportedDroppedLogCount = droppedLogCount;
+				}
+				
+				WriteBatch();
+				
+				WriterParked = true;
+				if (entry.Sequence != index + 1)
+				{
+					LockSupport.parkNanos(this, IdleParkTime);
+				}
+				WriterParked = false;
+				continue;
+			}
+			
+			long time = entry.Time;
+			String colour = entry.Colour;
+			String format = entry.Format;
+			Object[] args = entry.Args;
+			
+			// Letting go of the arguments, then handing the entry back to the producers for the next lap
+			entry.Format = null;
+			entry.Args = null;
+			entry.Sequence = index + Entries.length;
+			ConsumerIndex = index + 1;
+			
+			try
+			{
+				AppendLog(time, colour, args != null && args.length > 0 ? String.format(format, args) : format);
+			}
+			catch (NullPointerException | IllegalFormatException e)
+			{
+				e.printStackTrace();
+			}
+			
+			if (Batch.length() >= MaxBatchLength)
+			{
+				WriteBatch();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the logs gathered so far to the stream.
+	 */
+	private void WriteBatch()
+	{
+		if (Batch.length() > 0)
+		{
+			Out.print(Batch);
+			Out.flush();
+			Batch.setLength(0);
+		}
+		WrittenIndex = ConsumerIndex;
+	}
+	
+	/**
+	 * Adds a formatted log to the batch being written, '[HH:mm:ss] [message]'.
+	 *
+	 * @param time When the log was made, in milliseconds since the epoch.
+	 * @param colour The ANSI colour to write the log in, null to leave it uncoloured.
+	 * @param message The formatted log.
+	 */
+	private void AppendLog(long time, String colour, String message)
+	{
+		Batch.append('[').append(FormatTime(time)).append("] ");
+		if (colour != null)
+		{
+			Batch.append(colour).append(message).append(ConsoleIO.TextColourReset);
+		}
+		else
+		{
+			Batch.append(message);
+		}
+		Batch.append(System.lineSeparator());
+	}
+	
+	/**
+	 * Formats the time a log was made, only actually formatting it when the second changes.
+	 *
+	 * @param time When the log was made, in milliseconds since the epoch.
+	 * @return The time as 'HH:mm:ss'.
+	 */
+	private String FormatTime(long time)
+	{
+		long second = time / 1000;
+		if (second != CachedSecond)
+		{
+			CachedSecond = second;
+			CachedTime = TimeFormatter.format(LocalTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+		}
+		
+		return CachedTime;
+	}
+}
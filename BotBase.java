@@ -10,26 +10,114 @@ public abstract class BotBase extends Client
 	private final Pattern DisplayNamePattern = Pattern.compile("^<.*>\\s*");
 	
 	/**
-	 * Pattern for recognising if the message was intended for this bot.
+	 * The prefix messages intended for this bot start with, e.g. "!cb".
 	 */
-	private final Pattern PrefixPattern;
+	private final String CommandPrefix;
 	
 	/**
 	 * A collection of ANSI escape codes we excpect to receive from the server.
 	 */
 	private String[] ANSIEscapeCodes = { "\u001B[0m", "\u001B[31m", "\u001B[33m", "\u001B[32m" };
 	
+	/**
+	 * Reused for every message received as a text line, only ever used by the listening thread.
+	 */
+	private final ParsedMessage ReceivedLine;
+	
 	/**
 	 * Extends the Client constructor, adding the prefix this bot expects before messages.
+	 * Bots asked to use frames (see SetUseFrames) receive messages with their sender, kind and body already separated.
+	 * They also register their prefix, so the server only sends them chat messages addressed to them.
 	 *
 	 * @param remoteAddress The address of the server.
 	 * @param remotePort    The port to connect to. (Server needs to be actively listening for connections on this port)
-	 * @param prefixPattern The prefix which should be used when communicating with this bot.
+	 * @param commandPrefix The prefix which should be used when communicating with this bot.
 	 */
-	public BotBase(InetAddress remoteAddress, int remotePort, Pattern prefixPattern)
+	public BotBase(InetAddress remoteAddress, int remotePort, String commandPrefix)
 	{
 		super(remoteAddress, remotePort);
-		PrefixPattern = prefixPattern;
+		CommandPrefix = commandPrefix;
+		ReceivedLine = new ParsedMessage(commandPrefix);
+		AddCommandPrefix(commandPrefix);
+	}
+	
+	/**
+	 * Creates the first response sent to the server, only adding options to it when the bot asks for frames (e.g. ChatClient's -bin).
+	 * Servers which don't support any options only recognise a bot's type when it's the whole first response, e.g. 'DoDBot',
+	 * and would otherwise treat it as a regular chatter (broadcasting its private replies).
+	 * Servers hosting the bot in the same process always use frames, so always get every option.
+	 *
+	 * @return The first response.
+	 */
+	@Override
+	protected String CreateHandshake()
+	{
+		return UsesFrames() ? super.CreateHandshake() : GetFirstResponse();
+	}
+	
+	/**
+	 * Logic for when we receive a message.
+	 *
+	 * @param senderName The display name of the sender.
+	 * @param kind The kind of message.
+	 * @param body The body of the message, without any display name / colours.
+	 */
+	public abstract void OnMessageReceived(String senderName, MessageKind kind, String body);
+	
+	/**
+	 * Passes messages received as frames straight to OnMessageReceived, every field is already separated so nothing needs parsing.
+	 *
+	 * @param frame The frame received.
+	 */
+	@Override
+	public void OnFrameReceived(MessageFrame frame)
+	{
+		if (frame.Type != FrameType.Message)
+		{
+			super.OnFrameReceived(frame);
+			return;
+		}
+		
+		String senderName = GetSenderName(frame.SenderId);
+		MessageKind kind = MessageKind.FromCode(frame.Flags);
+		ConsoleIO.Log("<%s> %s", senderName, kind.FormatAsText(frame.Payload));
+		OnMessageReceived(senderName, kind, frame.Payload);
+	}
+	
+	/**
+	 * Separates messages received as text lines (from servers which don't support frames) in a single pass, then passes them to OnMessageReceived.
+	 * Lines aren't logged until a bot decides to handle them, see OnMessageReceived(ParsedMessage).
+	 *
+	 * @param message The message received.
+	 */
+	@Override
+	public void OnMessageReceived(String message)
+	{
+		OnMessageReceived(ReceivedLine.Parse(message));
+	}
+	
+	/**
+	 * Logic for when we receive a message as a text line, already separated into its parts.
+	 * Logs the line, then copies the sender / body out of it and passes them to OnMessageReceived.
+	 * Bots can override this to ignore messages without logging / copying anything.
+	 *
+	 * @param message The message received, only valid until the next message is received.
+	 */
+	public void OnMessageReceived(ParsedMessage message)
+	{
+		ConsoleIO.Log("%s", message.GetLine());
+		OnMessageReceived(message.GetSenderName(), message.GetKind(), message.GetBody());
+	}
+	
+	/**
+	 * Determines whether more than one of this kind of bot can be hosted in the same process, see Server.TryHostBot.
+	 * Bots keeping their state in statics shared by the whole process should override this, since a second one would overwrite the first's state.
+	 *
+	 * @return Whether another bot of this class can be hosted alongside this one.
+	 */
+	public boolean CanBeHostedTwice()
+	{
+		return true;
 	}
 	
 	/**
@@ -71,35 +159,45 @@ public abstract class BotBase extends Client
 		return null;
 	}
 	
+	/**
+	 * Determines whether a message is intended for this bot, i.e. it starts with the prefix followed by whitespace / nothing.
+	 * Only compares characters, so messages which aren't intended for this bot are rejected almost immediately.
+	 *
+	 * @param body The body of the message.
+	 * @return Whether the message starts with the prefix.
+	 */
+	public boolean IsAddressedToBot(String body)
+	{
+		int prefixLength = CommandPrefix.length();
+		return body.startsWith(CommandPrefix) && (body.length() == prefixLength || Character.isWhitespace(body.charAt(prefixLength)));
+	}
+	
 	/**
 	 * Removes the prefix from a given string, if it is present.
 	 *
 	 * @param contents String to remove the prefix from.
-	 * @return A copy of contents without the prefix at the start.
+	 * @return A copy of contents without the prefix / any whitespace following it at the start.
 	 */
 	public String RemoveChatPrefix(String contents)
 	{
-		Matcher prefixMatcher = PrefixPattern.matcher(contents);
-		
 		// Only removing prefix if it appears at the beginning of the string
-		if (prefixMatcher.find())
+		if (IsAddressedToBot(contents))
 		{
-			contents = prefixMatcher.replaceFirst("");
+			contents = contents.substring(CommandPrefix.length()).stripLeading();
 		}
 		
 		return contents;
 	}
 	
 	/**
-	 * Checks if a given string matches the prefix pattern.
+	 * Checks if a given string is the prefix.
 	 *
 	 * @param str The string to check.
 	 * @return Whether the given string is the prefix.
 	 */
 	public boolean IsPrefix(String str)
 	{
-		Matcher prefixMatcher = PrefixPattern.matcher(str);
-		return prefixMatcher.matches();
+		return str.equals(CommandPrefix);
 	}
 	
 	/**
@@ -0,0 +1,99 @@
+import java.util.Locale;
+
+/**
+ * A named chat room. Messages sent by a member are only relayed to the other members, so relaying costs grow with the channel's size rather than the server's.
+ * Every client is a member of exactly one channel at a time.
+ */
+class Channel
+{
+	/**
+	 * Clients pick the channel they start in by following their first response with a space, this token, then the channel's name, e.g. "DoDBot CHANNEL:dungeon".
+	 */
+	public static final String HandshakeToken = "CHANNEL:";
+	
+	/**
+	 * The channel clients start in if they don't pick one, this channel always exists.
+	 */
+	public static final String DefaultName = "general";
+	
+	/**
+	 * Channel names longer than this are rejected.
+	 */
+	public static final int MaxNameLength = 32;
+	
+	public final String Name;
+	
+	/**
+	 * The clients currently in the channel.
+	 */
+	public final ClientRegistry Members = new ClientRegistry();
+	
+	/**
+	 * The command prefixes registered by bots in the channel, bots only receive commands sent in their own channel.
+	 */
+	public final CommandRouter CommandRoutes = new CommandRouter();
+	
+	public Channel(String name)
+	{
+		Name = name;
+	}
+	
+	/**
+	 * Adds a client to the channel, routing commands to it if it registered any prefixes.
+	 *
+	 * @param clientData The client joining the channel.
+	 */
+	public void Add(ClientData clientData)
+	{
+		Members.Add(clientData);
+		for (String commandPrefix : clientData.GetCommandPrefixes())
+		{
+			CommandRoutes.Add(commandPrefix, clientData);
+		}
+	}
+	
+	/**
+	 * Removes a client from the channel.
+	 *
+	 * @param clientData The client leaving the channel.
+	 */
+	public void Remove(ClientData clientData)
+	{
+		Members.Remove(clientData);
+		CommandRoutes.Remove(clientData);
+	}
+	
+	/**
+	 * Determines whether the channel can be discarded, i.e. it's empty and isn't the default channel.
+	 *
+	 * @return Whether the channel can be discarded.
+	 */
+	public boolean CanBeDiscarded()
+	{
+		return Members.Size() == 0 && !Name.equals(DefaultName);
+	}
+	
+	/**
+	 * Checks a channel name given by a client, names are case-insensitive.
+	 *
+	 * @param name The name given by the client.
+	 * @return The name in lower case, null if it's empty, too long, or contains whitespace.
+	 */
+	public static String NormaliseName(String name)
+	{
+		if (name == null || name.isEmpty() || name.length() > MaxNameLength)
+		{
+			return null;
+		}
+		
+		for (int i = 0; i < name.length(); i++)
+		{
+			if (Character.isWhitespace(name.charAt(i)))
+			{
+				return null;
+			}
+		}
+		
+		return name.toLowerCase(Locale.ROOT);
+	}
+}
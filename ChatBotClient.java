@@ -1,218 +1,475 @@
+import java.io.IOException;
+import java.io.Writer;
 import java.net.InetAddress;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
 import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 public class ChatBotClient extends BotBase
 {
+	/**
+	 * The file the bot loads what it knows from, unless it's given another.
+	 */
+	public static final String DefaultIntentsPath = "chatbot_intents.txt";
+	
+	/**
+	 * How long to wait after the intents file changes before reloading it, so a file written in several steps is only read once it's complete.
+	 */
+	private static final int ReloadDelay = 200;
+	
+	/**
+	 * The number of responses cached, unless the bot's given another.
+	 */
+	public static final int DefaultCacheCapacity = 1024;
+	
 	private final Random RNG = new Random();
+	private final Path IntentsPath;
+	
+	/**
+	 * What the bot knows, replaced as a whole when it's reloaded so each message is answered entirely from one version of it.
+	 */
+	private volatile IntentTable Intents = IntentTable.Empty;
+	private volatile Thread IntentWatchingThread = null;
 	
-	private final String[] GreetingTokens = new String[] { "hi", "hey", "hello" };
-	private final String[] StatementResponses = new String[] { "ok", "no way!", "uh huh", "mhm", "sure" };
+	/**
+	 * Works out responses off the thread receiving messages, created when the first message addressed to the bot arrives.
+	 * Off by default, today's responses are quicker to work out than to hand to another thread.
+	 */
+	private int WorkerCount = 0;
+	private volatile ResponsePipeline Pipeline = null;
+	
+	/**
+	 * Responses which are always the same for the same message, replaced by an empty cache whenever the intents are reloaded. Null if caching is turned off.
+	 */
+	private int CacheCapacity = DefaultCacheCapacity;
+	private volatile ResponseCache Cache = null;
+	private Thread StatsLoggingThread = null;
+	
+	/**
+	 * Held while reloading the intents, so the cache always matches the intents it's replaced alongside.
+	 */
+	private final Object ReloadLock = new Object();
+	
+	/**
+	 * Held while starting / stopping the intents watcher, pipeline and stats logging.
+	 * Kept apart from the lock on the bot itself, which Client holds while writing to the server, so a slow write never holds up disconnecting / starting the pipeline.
+	 */
+	private final Object LifecycleLock = new Object();
 	
-	private final HashMap<String, String> WhoResponses = new HashMap<>()
+	/**
+	 * Constructs a new ChatBotClient, which knows what's in the default intents file.
+	 *
+	 * @param remoteAddress The address of the server.
+	 * @param remotePort    The port to connect to. (Server needs to be actively listening for connections on this port)
+	 */
+	public ChatBotClient(InetAddress remoteAddress, int remotePort)
 	{
-		{
-			put("you", "I'm a chat bot. Fairly obvious");
-			put(" i", "I'm going to take a wild guess and say...Chris?");
-			put(null, "I'm not answering that");
-		}
-	};
+		this(remoteAddress, remotePort, DefaultIntentsPath);
+	}
 	
-	private final HashMap<String, String> WhatResponses = new HashMap<>()
+	/**
+	 * Constructs a new ChatBotClient.
+	 * What it knows is loaded from a file, which is reloaded whenever it changes while the bot is connected, without it disconnecting.
+	 *
+	 * @param remoteAddress The address of the server.
+	 * @param remotePort    The port to connect to. (Server needs to be actively listening for connections on this port)
+	 * @param intentsPath   The path of the file to load what the bot knows from, see IntentTable for its format.
+	 */
+	public ChatBotClient(InetAddress remoteAddress, int remotePort, String intentsPath)
 	{
+		super(remoteAddress, remotePort, "!cb");
+		
+		SetFirstResponse("ChatBot");
+		
+		IntentsPath = Paths.get(intentsPath);
+		TryReloadIntents();
+	}
+	
+	/**
+	 * Connects to the server, then starts watching the intents file for changes, see Client.TryConnect.
+	 *
+	 * @return Whether we successfully connected to the server.
+	 */
+	@Override
+	public boolean TryConnect()
+	{
+		if (!super.TryConnect())
 		{
-			put("name", "java.exe  |  PID 16079");
-			put(" i", "someone testing out this sick chatbot");
-			put("time", "<-- It's right there");
-			put("you", "I'm a chat bot. Fairly obvious.");
-			put("up", "the sky");
-			put("weather", "can't complain, CPU's currently sitting at a comfortable 38.2°C");
-			put("balamory", "wouldn't *you* like to know?");
-			put("life", "42");
-			put(null, "...I don't know");
+			return false;
 		}
-	};
+		
+		StartWatchingIntents();
+		return true;
+	}
 	
-	private final HashMap<String, String> WhenResponses = new HashMap<>()
+	/**
+	 * Connects to a server hosting the bot in the same process, then starts watching the intents file for changes, see Client.TryConnectInProcess.
+	 *
+	 * @param serverOut Where the server reads the lines sent by the bot from.
+	 * @return Whether we connected to the server.
+	 */
+	@Override
+	boolean TryConnectInProcess(Writer serverOut)
 	{
+		if (!super.TryConnectInProcess(serverOut))
 		{
-			put("you", "now");
-			put(null, "when ever you want it to be");
+			return false;
 		}
-	};
+		
+		StartWatchingIntents();
+		return true;
+	}
 	
-	private final HashMap<String, String> WhereResponses = new HashMap<>()
+	/**
+	 * Loads what the bot knows from its intents file again, swapping it in once it's completely loaded.
+	 * Messages are answered from what it knew before until then, and it keeps what it knew before if the file isn't valid.
+	 *
+	 * @return Whether the file was loaded.
+	 */
+	public boolean TryReloadIntents()
 	{
+		long startTime = System.nanoTime();
+		IntentTable intents;
+		try
+		{
+			intents = IntentTable.Load(IntentsPath);
+		}
+		catch (IOException e)
+		{
+			ConsoleIO.LogError("Cannot load intents from %s (%s), keeping the %d already known.", IntentsPath, e.getMessage(), Intents.GetIntentCount());
+			return false;
+		}
+		
+		// Replacing the intents before the cache, see CreateResponse
+		synchronized (ReloadLock)
 		{
-			put("you", "umm... one of the linux.bath servers by the looks of it");
-			put(" i", "all I can say is you're not where you're not");
-			put(null, "that's classified, sorry");
+			Intents = intents;
+			Cache = CacheCapacity > 0 ? new ResponseCache(CacheCapacity) : null;
 		}
-	};
+		ConsoleIO.Log("Loaded %d intents from %s in %.1fms", intents.GetIntentCount(), IntentsPath, (System.nanoTime() - startTime) / 1e6);
+		return true;
+	}
 	
-	private final HashMap<String, String> WhyResponses = new HashMap<>()
+	/**
+	 * Starts reloading the intents file whenever it changes.
+	 * Calling this multiple times has no effect.
+	 */
+	public void StartWatchingIntents()
 	{
+		synchronized (LifecycleLock)
 		{
-			put("here", "because everyone knows to come here for a good time");
-			put(null, "...do I really need to explain it to you? Don't bother answering, I'll just ignore it and move on");
+			if (IntentWatchingThread != null)
+			{
+				return;
+			}
+			
+			// Watching the file's directory, editors often replace files rather than writing to them
+			Path directory = IntentsPath.toAbsolutePath().getParent();
+			WatchService watcher;
+			try
+			{
+				watcher = directory.getFileSystem().newWatchService();
+				directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			catch (IOException e)
+			{
+				ConsoleIO.LogError("Cannot watch %s for changes, intents will not be reloaded.", directory);
+				return;
+			}
+			
+			IntentWatchingThread = new Thread(() -> WatchIntents(watcher), "Intent Watching Thread");
+			IntentWatchingThread.setDaemon(true);
+			IntentWatchingThread.start();
 		}
-	};
+	}
 	
-	private final HashMap<String, String> HowResponses = new HashMap<>()
+	/**
+	 * Reloads the intents file each time it changes, until the thread is interrupted.
+	 *
+	 * @param watcher Watches the directory the file is in.
+	 */
+	private void WatchIntents(WatchService watcher)
 	{
+		Path fileName = IntentsPath.getFileName();
+		try (watcher)
+		{
+			while (!Thread.interrupted())
+			{
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				for (WatchEvent<?> event : key.pollEvents())
+				{
+					changed |= fileName.equals(event.context());
+				}
+				key.reset();
+				
+				if (!changed)
+				{
+					continue;
+				}
+				
+				// Waiting for the file to finish being written, changes made meanwhile are covered by this reload
+				Thread.sleep(ReloadDelay);
+				WatchKey pendingKey;
+				while ((pendingKey = watcher.poll()) != null)
+				{
+					pendingKey.pollEvents();
+					pendingKey.reset();
+				}
+				TryReloadIntents();
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// Bot is disconnecting
+		}
+		catch (IOException e)
 		{
-			put("weather", "can't complain, CPU's currently sitting at a comfortable 38.2°C");
-			put("you", "I'm doing well thanks!");
-			put("going", "I'm doing well thanks!");
-			put(null, "jesus christ how would I know that?");
+			e.printStackTrace();
 		}
-	};
+	}
 	
-	private final HashMap<String, String> DoResponses = new HashMap<>()
+	/**
+	 * Stops reloading the intents file when it changes.
+	 * Calling this multiple times has no effect.
+	 */
+	public void StopWatchingIntents()
 	{
+		synchronized (LifecycleLock)
 		{
-			put(null, "pass");
+			if (IntentWatchingThread != null)
+			{
+				IntentWatchingThread.interrupt();
+				IntentWatchingThread = null;
+			}
 		}
-	};
+	}
 	
-	private final HashMap<String, String> AreResponses = new HashMap<>()
+	/**
+	 * Disconnects from the server, and stops watching the intents file / working out responses / logging stats.
+	 */
+	@Override
+	public void Disconnect()
 	{
+		StopWatchingIntents();
+		StopPipeline();
+		SetStatsInterval(0);
+		super.Disconnect();
+	}
+	
+	/**
+	 * Logic for when we receive a message.
+	 *
+	 * @param senderName The display name of the sender.
+	 * @param kind The kind of message.
+	 * @param message The body of the message.
+	 */
+	@Override
+	public void OnMessageReceived(String senderName, MessageKind kind, String message)
+	{
+		// Only responding to chat messages starting with the prefix
+		if (kind == MessageKind.Chat && IsAddressedToBot(message))
 		{
-			put(null, "you tell me");
+			Respond(senderName, RemoveChatPrefix(message));
 		}
-	};
+	}
 	
-	private final HashMap<String, HashMap<String, String>> ResponsesByQuestionToken = new HashMap<>()
+	/**
+	 * Ignores messages received as text lines which aren't addressed to the bot before anything is logged / copied out of them.
+	 *
+	 * @param message The message received.
+	 */
+	@Override
+	public void OnMessageReceived(ParsedMessage message)
 	{
+		if (message.GetKind() == MessageKind.Chat && message.IsAddressedToBot())
 		{
-			put("who", WhoResponses);
-			put("what", WhatResponses);
-			put("when", WhenResponses);
-			put("where", WhereResponses);
-			put("why", WhyResponses);
-			put("how", HowResponses);
-			put("do", DoResponses);
-			put("are", AreResponses);
+			ConsoleIO.Log("%s", message.GetLine());
+			Respond(message.GetSenderName(), message.GetCommand());
 		}
-	};
+	}
 	
 	/**
-	 * Constructs a new ChatBotClient.
+	 * Responds to a message addressed to the bot, on the pipeline if there is one.
 	 *
-	 * @param remoteAddress The address of the server.
-	 * @param remotePort    The port to connect to. (Server needs to be actively listening for connections on this port)
+	 * @param senderName The display name of the sender.
+	 * @param message The message, without the prefix.
 	 */
-	public ChatBotClient(InetAddress remoteAddress, int remotePort)
+	private void Respond(String senderName, String message)
 	{
-		super(remoteAddress, remotePort, Pattern.compile("^!cb\\s*"));
+		if (WorkerCount == 0)
+		{
+			SendMessage(CreateResponse(message));
+			return;
+		}
 		
-		SetFirstResponse("ChatBot");
+		GetPipeline().Submit(senderName, message);
 	}
 	
 	/**
-	 * Logic for when we receive a message.
+	 * Sets the number of threads working out responses, each sender's messages are still answered in order.
+	 * Only takes effect the next time the bot connects.
 	 *
-	 * @param message The message received.
+	 * @param workerCount The number of worker threads, 0 works out responses on the thread receiving messages.
 	 */
-	@Override
-	public void OnMessageReceived(String message)
+	public void SetWorkerCount(int workerCount)
 	{
-		super.OnMessageReceived(message);
-		
-		message = RemoveDisplayName(message);
-		String[] messageArray = message.split("\\s+");
-		if (messageArray.length != 0 && IsPrefix(messageArray[0]))
+		synchronized (LifecycleLock)
 		{
-			message = RemoveChatPrefix(message);
-			String response = CreateResponse(message);
-			SendMessage(response);
+			WorkerCount = Math.max(0, workerCount);
 		}
 	}
 	
 	/**
-	 * Takes in a message and creates a response based on predefined key words.
+	 * Gets the pipeline working out responses, starting it if it isn't already running.
+	 * Only locks when starting it.
 	 *
-	 * @param message Message to create a response to.
-	 * @return A response to the given message.
+	 * @return The pipeline.
 	 */
-	private String CreateResponse(String message)
+	private ResponsePipeline GetPipeline()
 	{
-		boolean isGreeting = false;
-		boolean isPersonalQuestion = false;
-		boolean isGeneralQuestion = false;
-		boolean isStatement = false;
-		String foundQuestionToken = null;
-		
-		message = message.toLowerCase();
+		ResponsePipeline pipeline = Pipeline;
+		if (pipeline != null)
+		{
+			return pipeline;
+		}
 		
-		// Checking for greetings
-		for (int i = 0; i < GreetingTokens.length; i++)
+		synchronized (LifecycleLock)
 		{
-			if (message.contains(GreetingTokens[i]))
+			if (Pipeline == null)
 			{
-				isGreeting = true;
-				break;
+				Pipeline = new ResponsePipeline("ChatBot", WorkerCount, this::CreateResponse, this::SendMessages);
 			}
+			
+			return Pipeline;
 		}
-		
-		// Checking for questions
-		for (String questionToken: ResponsesByQuestionToken.keySet())
+	}
+	
+	/**
+	 * Stops the pipeline working out responses, dropping any which haven't been sent.
+	 */
+	private void StopPipeline()
+	{
+		synchronized (LifecycleLock)
 		{
-			if (message.contains(questionToken))
+			if (Pipeline != null)
 			{
-				foundQuestionToken = questionToken;
-				
-				// Determining if it's personal or general
-				isPersonalQuestion = message.contains("you");
-				isGeneralQuestion = !isPersonalQuestion;
-				break;
+				Pipeline.Stop();
+				Pipeline = null;
 			}
 		}
+	}
+	
+	/**
+	 * Takes in a message and creates a response based on what the bot knows, see IntentTable.CreateResponse.
+	 * Package-private so it can be benchmarked without connecting to a server.
+	 *
+	 * @param message Message to create a response to.
+	 * @return A response to the given message.
+	 */
+	String CreateResponse(String message)
+	{
+		// Reading the cache before the intents, they're replaced the other way round, so a cache is never filled from older intents than it was created for
+		ResponseCache cache = Cache;
+		IntentTable intents = Intents;
+		if (cache == null || message.length() > ResponseCache.MaxKeyLength)
+		{
+			return intents.CreateResponse(message, RNG);
+		}
 		
-		// If none of the above, it's a statement
-		isStatement = !isGreeting && !isGeneralQuestion && !isPersonalQuestion;
-		
-		// Creating a response
-		String response = "...";
-		if (isGreeting)
+		String key = ResponseCache.Normalise(message);
+		String response = cache.Get(key);
+		if (response != null)
 		{
-			int index = RNG.nextInt(GreetingTokens.length - 1);
-			response = GreetingTokens[index];
+			return response;
 		}
-		else if (isStatement)
+		
+		// Greetings / statements are picked at random each time, so they're never cached
+		int answer = intents.FindAnswer(message);
+		response = intents.GetResponse(answer, RNG);
+		if (answer == IntentTable.Greeting || answer == IntentTable.Statement)
 		{
-			int index = RNG.nextInt(StatementResponses.length - 1);
-			response = StatementResponses[index];
+			cache.RecordBypass();
 		}
 		else
 		{
-			// Dealing with questions
-			boolean foundResponse = false;
-			HashMap<String, String> responses = ResponsesByQuestionToken.get(foundQuestionToken);
-			if (responses != null)
+			cache.Put(key, response);
+		}
+		return response;
+	}
+	
+	/**
+	 * Sets the number of responses cached, replacing the cache with an empty one.
+	 *
+	 * @param capacity The most responses to cache, 0 turns caching off.
+	 */
+	public void SetCacheCapacity(int capacity)
+	{
+		synchronized (ReloadLock)
+		{
+			CacheCapacity = Math.max(0, capacity);
+			Cache = CacheCapacity > 0 ? new ResponseCache(CacheCapacity) : null;
+		}
+	}
+	
+	/**
+	 * Describes how well the response cache is doing, since the intents were last loaded.
+	 *
+	 * @return A single line of stats.
+	 */
+	public String GetCacheStatsText()
+	{
+		ResponseCache cache = Cache;
+		return cache != null ? cache.GetStatsText() : "Response cache: off";
+	}
+	
+	/**
+	 * Sets how often the response cache's stats are logged, so it can be sized.
+	 *
+	 * @param seconds The interval in seconds, 0 to stop logging them.
+	 */
+	public void SetStatsInterval(int seconds)
+	{
+		synchronized (LifecycleLock)
+		{
+			if (StatsLoggingThread != null)
 			{
-				// Checking for specific key words
-				for (String keyWord : responses.keySet())
+				StatsLoggingThread.interrupt();
+				StatsLoggingThread = null;
+			}
+			
+			if (seconds <= 0)
+			{
+				return;
+			}
+			
+			StatsLoggingThread = new Thread(() ->
+			{
+				try
 				{
-					if (keyWord != null && message.contains(keyWord))
+					while (!Thread.interrupted())
 					{
-						response = responses.get(keyWord);
-						foundResponse = true;
-						break;
+						TimeUnit.SECONDS.sleep(seconds);
+						ConsoleIO.Log("%s", GetCacheStatsText());
 					}
 				}
-				
-				if (!foundResponse)
+				catch (InterruptedException e)
 				{
-					response = responses.get(null);
+					// Interval changed / bot disconnecting
 				}
-			}
+			}, "ChatBot Stats Logging Thread");
+			
+			// Only ever logs, there's no need to keep the program alive for it
+			StatsLoggingThread.setDaemon(true);
+			StatsLoggingThread.start();
 		}
-		
-		return response;
 	}
 }
@@ -13,7 +13,13 @@ public class ChatClient
 	 *             <li>-ccp [int] specifies the port to connect to (defaults to 14001).</li>
 	 *             <li>-cca [IP] specifies the address to connect to (defaults to localhost).</li>
 	 *             <li>-cb specifies this client should join as a chat bot</li>
+	 *             <li>-cbworkers [int] specifies how many threads a chat bot works out responses on, 0 uses the thread receiving messages (defaults to 0)</li>
+	 *             <li>-cbcache [int] specifies how many responses a chat bot caches, 0 turns caching off (defaults to 1024)</li>
+	 *             <li>-cbstatsinterval [int] specifies how many seconds apart a chat bot logs its response cache's hit rate, 0 never logs it (defaults to 0)</li>
+	 *             <li>-intents [path] specifies the file a chat bot loads what it knows from, reloaded whenever it changes (defaults to chatbot_intents.txt)</li>
 	 *             <li>-dod specifies this client should join as a DoD client</li>
+	 *             <li>-bin asks the server for binary frames instead of text lines, bots also only register their command prefix / answer heartbeats with this (leave it off for servers which don't support frames)</li>
+	 *             <li>-channel [name] specifies the channel to start in, e.g. to bind a DoD client's game to a channel (defaults to the server's default channel)</li>
 	 *             </ul>
 	 */
 	public static void main(String[] args)
@@ -22,6 +28,12 @@ public class ChatClient
 		InetAddress serverAddress = null;
 		boolean isChatBotClient = false;
 		boolean isDODClient = false;
+		boolean useFrames = false;
+		String channelName = null;
+		String intentsPath = ChatBotClient.DefaultIntentsPath;
+		int chatBotWorkerCount = 0;
+		int chatBotCacheCapacity = ChatBotClient.DefaultCacheCapacity;
+		int chatBotStatsInterval = 0;
 		
 		try
 		{
@@ -75,11 +87,86 @@ public class ChatClient
 					isChatBotClient = true;
 					break;
 					
+				// Setting how many threads the chat bot responds on
+				case "-cbworkers":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						chatBotWorkerCount = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-cbworkers must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Setting how many responses the chat bot caches
+				case "-cbcache":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						chatBotCacheCapacity = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-cbcache must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Setting how often the chat bot logs its cache's stats
+				case "-cbstatsinterval":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						chatBotStatsInterval = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-cbstatsinterval must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Setting where the chat bot's knowledge is loaded from
+				case "-intents":
+					if (i + 1 < args.length)
+					{
+						intentsPath = args[i + 1];
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-intents must come before a path.");
+						System.exit(1);
+					}
+					break;
+					
 				// Enabling dod
 				case "-dod":
 					isDODClient = true;
 					break;
 					
+				// Asking for binary frames
+				case "-bin":
+					useFrames = true;
+					break;
+					
+				// Setting the channel to start in
+				case "-channel":
+					if (i + 1 < args.length && Channel.NormaliseName(args[i + 1]) != null)
+					{
+						channelName = args[i + 1];
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-channel must come before a channel name of up to %d characters.", Channel.MaxNameLength);
+						System.exit(1);
+					}
+					break;
+				
 				default:
 					ConsoleIO.LogError("%s is an unrecognised argument.", args[i]);
 					System.exit(1);
@@ -94,11 +181,18 @@ public class ChatClient
 			return;
 		}
 		
+		// Incoming messages are shown through the logs, so none are dropped however quickly they arrive
+		ConsoleIO.SetLogOverflowPolicy(LogOverflowPolicy.Block);
+		
 		// Creating client
 		Client client;
 		if (isChatBotClient)
 		{
-			client = new ChatBotClient(serverAddress, serverPort);
+			ChatBotClient chatBotClient = new ChatBotClient(serverAddress, serverPort, intentsPath);
+			chatBotClient.SetWorkerCount(chatBotWorkerCount);
+			chatBotClient.SetCacheCapacity(chatBotCacheCapacity);
+			chatBotClient.SetStatsInterval(chatBotStatsInterval);
+			client = chatBotClient;
 		}
 		else if (isDODClient)
 		{
@@ -109,6 +203,13 @@ public class ChatClient
 			client = new Client(serverAddress, serverPort);
 		}
 		
+		// Bots only register their prefix / answer heartbeats alongside frames, so older servers still recognise them
+		if (useFrames)
+		{
+			client.SetUseFrames(true);
+		}
+		client.SetChannel(channelName);
+		
 		// Connecting client
 		if (client.TryConnect())
 		{
@@ -1,4 +1,9 @@
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
 
 /**
  * Uses a Server to connect to clients and relay their messages to each other.
@@ -10,11 +15,43 @@ public class ChatServer
 	 * @param args Arguments passed in when ran from the command line.
 	 *             <ul>
 	 *             <li>-csp [int] specifies the port used when listening for new connections</li>
+	 *             <li>-engine [threaded|nio] specifies whether clients are handled by a thread each (default), or by a small set of non-blocking IO threads</li>
+	 *             <li>-iothreads [int] specifies the number of IO threads used by the nio engine (defaults to the number of available processors)</li>
+	 *             <li>-threads [platform|virtual] specifies the kind of thread used by the threaded engine (defaults to platform, virtual requires Java 21)</li>
+	 *             <li>-handshakethreads [int] specifies the number of threads the threaded engine uses to wait for new clients' first responses (defaults to 4)</li>
+	 *             <li>-handshaketimeout [int] specifies how many milliseconds new clients have to send their first response, 0 waits forever (defaults to 10000)</li>
+	 *             <li>-queuesize [int] specifies how many messages can be waiting to be written to each client (defaults to 1024)</li>
+	 *             <li>-overflow [dropoldest|dropnewest|disconnect] specifies what happens to messages sent to a client whose queue is full (defaults to disconnect)</li>
+	 *             <li>-writewindow [int] specifies how many microseconds the threaded engine waits for more messages to write to a client alongside the first, 0 only writes what's already queued together (defaults to 0)</li>
+	 *             <li>-ratelimit [all|chatclient|chatbot|dodbot] [messages/sec] [bytes/sec] limits how quickly each client of a type can send messages, 0 for no limit (defaults to no limits, can be given once per type)</li>
+	 *             <li>-throttle [delay|notify] specifies whether messages over a client's rate limit are delayed until they're within it, or dropped with a notice to the sender (defaults to delay)</li>
+	 *             <li>-idletimeout [int] specifies how many milliseconds clients can go without sending anything before they're disconnected, clients which answer heartbeats are sent one after a third of this, 0 never disconnects idle clients (defaults to 0)</li>
+	 *             <li>-loglevel [off|error|info] specifies which logs are written to the console (defaults to info)</li>
+	 *             <li>-logoverflow [drop|block] specifies whether logs made faster than the console can show them are dropped, or make the logging thread wait (defaults to drop)</li>
+	 *             <li>-statsinterval [int] specifies how many seconds apart the server's metrics are logged, 0 never logs them (defaults to 0)</li>
+	 *             <li>-statsport [int] specifies a port to serve the server's metrics on at http://localhost:[port]/stats, for monitoring tools to scrape (defaults to not serving them)</li>
+	 *             <li>-bot [class name][:channel] hosts a bot inside the server's process instead of it connecting through a socket, e.g. 'ChatBotClient' or 'DoDClient:dungeon', any subclass of BotBase can be loaded (can be given more than once, but only one DoDClient can be hosted)</li>
+	 *             <li>-hidecommands specifies that messages routed to a bot by their command prefix (e.g. '!cb') are only shown to the bot and the sender</li>
 	 *             </ul>
 	 */
 	public static void main(String[] args)
 	{
 		int listenPort = 14001;
+		boolean useNioEngine = false;
+		int ioThreadCount = Runtime.getRuntime().availableProcessors();
+		ThreadingMode threadingMode = ThreadingMode.Platform;
+		int handshakeThreadCount = 4;
+		int handshakeTimeout = 10000;
+		int outboundQueueCapacity = 1024;
+		OverflowPolicy overflowPolicy = OverflowPolicy.Disconnect;
+		boolean hideRoutedCommands = false;
+		int writeCoalescingWindow = 0;
+		EnumMap<ClientType, RateLimit> rateLimits = new EnumMap<>(ClientType.class);
+		ThrottlePolicy throttlePolicy = ThrottlePolicy.Delay;
+		int idleTimeout = 0;
+		int statsInterval = 0;
+		int statsPort = 0;
+		ArrayList<String> hostedBots = new ArrayList<>();
 		
 		// Parsing arguments
 		for (int i = 0; i < args.length; i++)
@@ -36,6 +73,288 @@ public class ChatServer
 					}
 					break;
 					
+				// Set how clients are handled
+				case "-engine":
+					if (i + 1 < args.length && args[i + 1].matches("^(threaded|nio)$"))
+					{
+						useNioEngine = args[i + 1].equals("nio");
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-engine must come before either 'threaded' or 'nio'.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set the number of IO threads used by the nio engine
+				case "-iothreads":
+					if (i + 1 < args.length && args[i + 1].matches("^[1-9]\\d*$"))
+					{
+						ioThreadCount = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-iothreads must come before a positive integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set the kind of thread used by the threaded engine
+				case "-threads":
+					if (i + 1 < args.length && args[i + 1].matches("^(platform|virtual)$"))
+					{
+						threadingMode = args[i + 1].equals("virtual") ? ThreadingMode.Virtual : ThreadingMode.Platform;
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-threads must come before either 'platform' or 'virtual'.");
+						System.exit(1);
+					}
+					
+					if (!threadingMode.IsSupported())
+					{
+						ConsoleIO.LogError("Virtual threads are not supported by this version of Java (%s).", System.getProperty("java.version"));
+						System.exit(1);
+					}
+					break;
+					
+				// Set the number of threads waiting for first responses
+				case "-handshakethreads":
+					if (i + 1 < args.length && args[i + 1].matches("^[1-9]\\d*$"))
+					{
+						handshakeThreadCount = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-handshakethreads must come before a positive integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set how long new clients have to send their first response
+				case "-handshaketimeout":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						handshakeTimeout = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-handshaketimeout must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set how many messages can be queued for each client
+				case "-queuesize":
+					if (i + 1 < args.length && args[i + 1].matches("^[1-9]\\d*$"))
+					{
+						outboundQueueCapacity = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-queuesize must come before a positive integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set what happens when a client's queue is full
+				case "-overflow":
+					if (i + 1 < args.length && args[i + 1].matches("^(dropoldest|dropnewest|disconnect)$"))
+					{
+						switch (args[i + 1])
+						{
+							case "dropoldest":
+								overflowPolicy = OverflowPolicy.DropOldest;
+								break;
+								
+							case "dropnewest":
+								overflowPolicy = OverflowPolicy.DropNewest;
+								break;
+								
+							default:
+								overflowPolicy = OverflowPolicy.Disconnect;
+								break;
+						}
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-overflow must come before either 'dropoldest', 'dropnewest' or 'disconnect'.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set how long to wait for more messages to write alongside the first
+				case "-writewindow":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						writeCoalescingWindow = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-writewindow must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Limit how quickly clients of a type can send messages
+				case "-ratelimit":
+					if (i + 3 < args.length && args[i + 1].matches("^(all|chatclient|chatbot|dodbot)$") && args[i + 2].matches("^\\d+(\\.\\d+)?$") && args[i + 3].matches("^\\d+(\\.\\d+)?$"))
+					{
+						RateLimit rateLimit = new RateLimit(Double.parseDouble(args[i + 2]), Double.parseDouble(args[i + 3]));
+						switch (args[i + 1])
+						{
+							case "chatclient":
+								rateLimits.put(ClientType.RegularChatter, rateLimit);
+								break;
+								
+							case "chatbot":
+								rateLimits.put(ClientType.ChatBot, rateLimit);
+								break;
+								
+							case "dodbot":
+								rateLimits.put(ClientType.DoDBot, rateLimit);
+								break;
+								
+							default:
+								for (ClientType type : ClientType.values())
+								{
+									rateLimits.put(type, rateLimit);
+								}
+								break;
+						}
+						i += 3; // Skipping next args
+					}
+					else
+					{
+						ConsoleIO.LogError("-ratelimit must come before either 'all', 'chatclient', 'chatbot' or 'dodbot', then the messages and bytes allowed per second.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set what happens to messages over a client's rate limit
+				case "-throttle":
+					if (i + 1 < args.length && args[i + 1].matches("^(delay|notify)$"))
+					{
+						throttlePolicy = args[i + 1].equals("notify") ? ThrottlePolicy.Notify : ThrottlePolicy.Delay;
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-throttle must come before either 'delay' or 'notify'.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set how long clients can be silent before they're disconnected
+				case "-idletimeout":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						idleTimeout = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-idletimeout must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set which logs are written
+				case "-loglevel":
+					if (i + 1 < args.length && args[i + 1].matches("^(off|error|info)$"))
+					{
+						switch (args[i + 1])
+						{
+							case "off":
+								ConsoleIO.SetLogLevel(LogLevel.Off);
+								break;
+								
+							case "error":
+								ConsoleIO.SetLogLevel(LogLevel.Error);
+								break;
+								
+							default:
+								ConsoleIO.SetLogLevel(LogLevel.Info);
+								break;
+						}
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-loglevel must come before either 'off', 'error' or 'info'.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set what happens to logs made faster than they can be written
+				case "-logoverflow":
+					if (i + 1 < args.length && args[i + 1].matches("^(drop|block)$"))
+					{
+						ConsoleIO.SetLogOverflowPolicy(args[i + 1].equals("block") ? LogOverflowPolicy.Block : LogOverflowPolicy.Drop);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-logoverflow must come before either 'drop' or 'block'.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set how often the server's metrics are logged
+				case "-statsinterval":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						statsInterval = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-statsinterval must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+					
+				// Set the port to serve the server's metrics on
+				case "-statsport":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						statsPort = Integer.parseInt(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-statsport must come before a port number.");
+						System.exit(1);
+					}
+					break;
+					
+				// Host a bot in the server's process
+				case "-bot":
+					if (i + 1 < args.length && args[i + 1].matches("^[\\w.$]+(:\\S+)?$"))
+					{
+						hostedBots.add(args[i + 1]);
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-bot must come before the name of a bot's class, optionally followed by ':' and a channel.");
+						System.exit(1);
+					}
+					break;
+					
+				// Hide bot commands from everyone but the bot / sender
+				case "-hidecommands":
+					hideRoutedCommands = true;
+					break;
+					
 				default:
 					ConsoleIO.LogError("%s is an unrecognised argument.", args[i]);
 					System.exit(1);
@@ -44,8 +363,32 @@ public class ChatServer
 		}
 		
 		// Creating / starting server
-		Server server = new Server(listenPort);
+		Server server = useNioEngine ? new NioServer(listenPort, ioThreadCount) : new Server(listenPort);
+		server.SetThreadingMode(threadingMode);
+		server.SetHandshakeThreadCount(handshakeThreadCount);
+		server.SetHandshakeTimeout(handshakeTimeout);
+		server.SetOutboundQueue(outboundQueueCapacity, overflowPolicy);
+		server.SetHideRoutedCommands(hideRoutedCommands);
+		server.SetWriteCoalescingWindow(writeCoalescingWindow);
+		for (ClientType type : rateLimits.keySet())
+		{
+			server.SetRateLimit(type, rateLimits.get(type).MessagesPerSecond, rateLimits.get(type).BytesPerSecond);
+		}
+		server.SetThrottlePolicy(throttlePolicy);
+		server.SetIdleTimeout(idleTimeout);
+		server.SetStatsInterval(statsInterval);
 		boolean run = server.TryStartListeningForConnections();
+		if (run && statsPort > 0)
+		{
+			server.TryStartStatsEndpoint(statsPort);
+		}
+		
+		// Hosting bots once the server is running, as '[class name]:[channel]'
+		for (int i = 0; run && i < hostedBots.size(); i++)
+		{
+			String[] botTokens = hostedBots.get(i).split(":", 2);
+			server.TryHostBot(botTokens[0], botTokens.length > 1 ? botTokens[1] : null);
+		}
 		
 		// Waiting for, and parsing, commands from the terminal
 		ConsoleIO consoleIO = new ConsoleIO();
@@ -53,17 +396,55 @@ public class ChatServer
 		{
 			try
 			{
-				String input = consoleIO.GetInput().toLowerCase();
+				String input = consoleIO.GetInput();
 				
-				switch (input)
+				// The console's input has ended (e.g. it was redirected from a file), the server keeps running without commands
+				if (input == null)
+				{
+					ConsoleIO.Log("Console input closed, no longer reading commands.");
+					break;
+				}
+				
+				switch (input.toLowerCase())
 				{
 					// Gracefully exit the program.
 					case "exit":
 						server.StopListeningForConnections();
+						server.StopStatsEndpoint();
 						server.DisconnectAllClients();
 						run = false;
 						break;
 					
+					// Log the depth of each client's outbound queue
+					case "queues":
+						server.LogOutboundQueues();
+						break;
+					
+					// Log how many messages are being written to clients per write
+					case "writes":
+						server.LogWriteBatching();
+						break;
+					
+					// Log the rate limits, and how many messages they've held back
+					case "throttled":
+						server.LogThrottling();
+						break;
+					
+					// Log connections, throughput and relay latency
+					case "stats":
+						server.LogStats();
+						break;
+					
+					// Log every channel and how many clients are in each
+					case "channels":
+						server.LogChannels();
+						break;
+					
+					// Log memory used per connection, to compare threading modes
+					case "memory":
+						LogMemoryUsage(server);
+						break;
+					
 					default:
 						break;
 				}
@@ -74,4 +455,55 @@ public class ChatServer
 			}
 		}
 	}
+	
+	/**
+	 * Logs how much memory the process is using, relative to the number of connected clients.
+	 * Resident memory includes the stacks of platform threads, whereas virtual thread stacks live on the heap.
+	 *
+	 * @param server The server whose clients are counted.
+	 */
+	private static void LogMemoryUsage(Server server)
+	{
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long heapUsed = runtime.totalMemory() - runtime.freeMemory();
+		long residentMemory = GetResidentMemory();
+		int clientCount = server.GetConnectedClientCount();
+		int threadCount = ManagementFactory.getThreadMXBean().getThreadCount();
+		
+		ConsoleIO.Log("%d client(s), %d platform thread(s), heap used: %d KiB, resident: %s", clientCount, threadCount, heapUsed / 1024,
+				residentMemory >= 0 ? String.format("%d KiB", residentMemory / 1024) : "unknown");
+		
+		if (clientCount > 0)
+		{
+			ConsoleIO.Log("Per client, heap used: %d bytes, resident: %s", heapUsed / clientCount,
+					residentMemory >= 0 ? String.format("%d bytes", residentMemory / clientCount) : "unknown");
+		}
+	}
+	
+	/**
+	 * Reads the resident set size of this process, only available on Linux.
+	 *
+	 * @return The resident set size in bytes, -1 if it couldn't be read.
+	 */
+	private static long GetResidentMemory()
+	{
+		try
+		{
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+			{
+				if (line.startsWith("VmRSS:"))
+				{
+					// Formatted as 'VmRSS:     1234 kB'
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		}
+		catch (IOException | NumberFormatException e)
+		{
+			// Not running on Linux
+		}
+		
+		return -1;
+	}
 }
@@ -1,10 +1,19 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -12,6 +21,16 @@ import java.net.SocketException;
  */
 public class Client
 {
+	/**
+	 * Messages sent while handling received messages are flushed once this many are waiting, even if more received messages are waiting to be handled.
+	 */
+	private static final int MaxPendingMessages = 64;
+	
+	/**
+	 * Messages sent while handling received messages are flushed once the first has waited this long, even if more received messages are waiting to be handled.
+	 */
+	private static final long MaxPendingTime = TimeUnit.MILLISECONDS.toNanos(5);
+	
 	private final InetAddress RemoteAddress;
 	private final int RemotePort;
 	private final ConsoleIO ConsoleIO = new ConsoleIO();
@@ -19,10 +38,42 @@ public class Client
 	private Socket Socket = null;
 	private PrintWriter ServerOut = null;
 	private BufferedReader ServerIn = null;
+	private DataInputStream FrameIn = null;
 	private String FirstResponse = "ChatClient";
+	private boolean UseFrames = false;
+	private boolean RequestReceipts = false;
+	private boolean AnswerHeartbeats = true;
+	private final ArrayList<String> CommandPrefixes = new ArrayList<>();
+	private String ChannelName = null;
+	
+	/**
+	 * Whether a server in the same process is hosting this client, instead of it being connected through a socket.
+	 * Only changed while holding the lock on this client.
+	 */
+	private volatile boolean ConnectedInProcess = false;
 	
-	private Thread MessageListeningThread = null;
-	private Thread MessageSendingThread = null;
+	/**
+	 * Display names of senders, by the ids used for them in frames from the server.
+	 * Only accessed by the message listening thread.
+	 */
+	private final HashMap<Integer, String> SenderNames = new HashMap<>();
+	
+	/**
+	 * The number of private messages sent, the server numbers them the same way in receipts.
+	 * Only accessed while holding the lock on this client.
+	 */
+	private long PrivateMessageCount = 0;
+	
+	/**
+	 * Whether messages sent while handling received messages are waiting to be flushed.
+	 * Only accessed while holding the lock on this client.
+	 */
+	private boolean FlushPending = false;
+	private int PendingMessageCount = 0;
+	private long PendingSince = 0;
+	
+	private volatile Thread MessageListeningThread = null;
+	private volatile Thread MessageSendingThread = null;
 	
 	/**
 	 * Constructs a new Client instance.
@@ -43,7 +94,7 @@ public class Client
 	 */
 	public boolean Connected()
 	{
-		return Socket != null && !Socket.isClosed();
+		return ConnectedInProcess || (Socket != null && !Socket.isClosed());
 	}
 	
 	/**
@@ -62,11 +113,18 @@ public class Client
 		try
 		{
 			Socket = new Socket(RemoteAddress, RemotePort);
+			
+			// Messages are already flushed together where possible, so small messages shouldn't wait on the server acknowledging earlier ones
+			Socket.setTcpNoDelay(true);
 			ServerOut = new PrintWriter(Socket.getOutputStream());
-			ServerIn = new BufferedReader(new InputStreamReader(Socket.getInputStream()));
+			
+			// Text lines and frames are both read from the same buffered stream, only one is used once the protocol is agreed on
+			InputStream serverInStream = new BufferedInputStream(Socket.getInputStream());
+			ServerIn = new BufferedReader(new InputStreamReader(serverInStream));
+			FrameIn = new DataInputStream(serverInStream);
 			
 			ConsoleIO.Log("Connected to %s:%d", RemoteAddress, RemotePort);
-			SendMessage(FirstResponse);
+			SendMessage(CreateHandshake());
 			
 		}
 		catch (IOException | IllegalArgumentException | NullPointerException e)
@@ -78,6 +136,30 @@ public class Client
 		return Connected();
 	}
 	
+	/**
+	 * Connects to a server hosting this client in the same process, instead of through a socket, see Server.TryHostClient.
+	 * Lines sent are written straight to the server, which relays them on the sending thread.
+	 * Frames are always used, the server hands them to OnFrameReceived without them being written anywhere, so there's nothing to listen to.
+	 *
+	 * @param serverOut Where the server reads the lines sent by this client from, closing it disconnects this client.
+	 * @return Whether we connected to the server. Returns false if already connected.
+	 */
+	synchronized boolean TryConnectInProcess(Writer serverOut)
+	{
+		if (Connected())
+		{
+			return false;
+		}
+		
+		UseFrames = true;
+		ServerOut = new PrintWriter(serverOut);
+		ConnectedInProcess = true;
+		
+		ConsoleIO.Log("Connected to a server in this process");
+		SendMessage(CreateHandshake());
+		return true;
+	}
+	
 	/**
 	 * Disconnects from the currently connected server, disposes of any resources used.
 	 * Can reconnect to a new server once disconnected.
@@ -98,6 +180,12 @@ public class Client
 	 */
 	private void CloseConnection()
 	{
+		if (ConnectedInProcess)
+		{
+			CloseInProcessConnection();
+			return;
+		}
+		
 		if (Socket == null)
 		{
 			return;
@@ -121,6 +209,23 @@ public class Client
 		ConsoleIO.LogError("Closed connection with server.");
 	}
 	
+	/**
+	 * Closes connection with a server hosting this client in the same process, which disconnects us from it.
+	 * Calling this multiple times has no effect.
+	 */
+	private synchronized void CloseInProcessConnection()
+	{
+		if (!ConnectedInProcess)
+		{
+			return;
+		}
+		
+		ConnectedInProcess = false;
+		ServerOut.close();
+		ServerOut = null;
+		ConsoleIO.LogError("Closed connection with server.");
+	}
+	
 	/**
 	 * Starts listening for messages from the server.
 	 * Calling this does not block the thread it is called from.
@@ -128,8 +233,8 @@ public class Client
 	 */
 	public void StartListeningForMessages()
 	{
-		// Already listening for messages / not connected
-		if (!Connected() || MessageListeningThread != null)
+		// Already listening for messages / not connected / hosted by a server which hands us messages itself
+		if (!Connected() || ConnectedInProcess || MessageListeningThread != null)
 		{
 			return;
 		}
@@ -139,26 +244,65 @@ public class Client
 		{
 			try
 			{
+				boolean receivingFrames = UseFrames && TryAgreeOnFrames();
+				FlushPendingMessages();
+				
 				while (!Thread.interrupted() && Connected())
 				{
-					String message = ServerIn.readLine();
-					
-					if (message != null)
+					if (receivingFrames)
 					{
-						OnMessageReceived(message);
+						MessageFrame frame = MessageFrame.Read(FrameIn);
+						
+						if (frame != null)
+						{
+							OnFrameReceived(frame);
+							if (FrameIn.available() == 0)
+							{
+								FlushPendingMessages();
+							}
+							else
+							{
+								FlushOverduePendingMessages();
+							}
+							continue;
+						}
 					}
 					else
 					{
-						// Server has disconnected us
-						ConsoleIO.LogError("Disconnected by server (it could be shutting down).");
-						break;
+						String message = ServerIn.readLine();
+						
+						if (message != null)
+						{
+							// Heartbeats are answered here, they're never shown / passed on
+							if (AnswerHeartbeats && message.equals(MessageFrame.HeartbeatHandshakeToken))
+							{
+								SendMessage(MessageFrame.HeartbeatReply);
+							}
+							else
+							{
+								OnMessageReceived(message);
+							}
+							if (!ServerIn.ready())
+							{
+								FlushPendingMessages();
+							}
+							else
+							{
+								FlushOverduePendingMessages();
+							}
+							continue;
+						}
 					}
+					
+					// Server has disconnected us
+					ConsoleIO.LogError("Disconnected by server (it could be shutting down).");
+					break;
 				}
 			}
 			catch (Exception e)
 			{
 				// Socket / Stream was closed
-				if (e.getClass() == SocketException.class || e.getClass() == IOException.class)
+				if (e.getClass() == SocketException.class || e.getClass() == IOException.class || e.getClass() == EOFException.class)
 				{
 					ConsoleIO.LogError("Unexpected disconnect from server.");
 				}
@@ -178,6 +322,64 @@ public class Client
 		ConsoleIO.Log("Started listening for messages from server.");
 	}
 	
+	/**
+	 * Creates the first response sent to the server, '[firstResponse] BIN1 RECEIPTS HEARTBEAT PREFIX:[prefix]... CHANNEL:[name]'.
+	 * Options are only added if used, servers ignore any they don't support.
+	 *
+	 * @return The first response.
+	 */
+	protected String CreateHandshake()
+	{
+		StringBuilder handshake = new StringBuilder(FirstResponse);
+		if (UseFrames)
+		{
+			handshake.append(' ').append(MessageFrame.HandshakeToken);
+			if (RequestReceipts)
+			{
+				handshake.append(' ').append(MessageFrame.ReceiptsHandshakeToken);
+			}
+		}
+		if (AnswerHeartbeats)
+		{
+			handshake.append(' ').append(MessageFrame.HeartbeatHandshakeToken);
+		}
+		for (String commandPrefix : CommandPrefixes)
+		{
+			handshake.append(' ').append(CommandRouter.HandshakeToken).append(commandPrefix);
+		}
+		if (ChannelName != null)
+		{
+			handshake.append(' ').append(Channel.HandshakeToken).append(ChannelName);
+		}
+		
+		return handshake.toString();
+	}
+	
+	/**
+	 * Reads the server's reply to asking for frames.
+	 * Servers which don't support frames send text lines as usual, in which case the line read is handled as a message.
+	 *
+	 * @return Whether the server agreed to send frames.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private boolean TryAgreeOnFrames() throws IOException
+	{
+		byte[] reply = MessageFrame.ReadLineBytes(FrameIn);
+		if (reply == null)
+		{
+			return false;
+		}
+		
+		String replyString = new String(reply);
+		if (replyString.equals(MessageFrame.HandshakeToken))
+		{
+			return true;
+		}
+		
+		OnMessageReceived(replyString);
+		return false;
+	}
+	
 	/**
 	 * Logic for when we receive a message.
 	 *
@@ -188,24 +390,83 @@ public class Client
 		ConsoleIO.Log(message);
 	}
 	
+	/**
+	 * Logic for when we receive a frame, only called if the server agreed to send frames.
+	 * By default messages are formatted the same way as text lines, '&lt;[senderName]&gt; [message]' coloured by their kind, then handled by OnMessageReceived.
+	 *
+	 * @param frame The frame received.
+	 */
+	public void OnFrameReceived(MessageFrame frame)
+	{
+		// Ignoring frames from newer servers we don't understand
+		if (frame.Type == null)
+		{
+			return;
+		}
+		
+		switch (frame.Type)
+		{
+			case Identity:
+				SenderNames.put(frame.SenderId, frame.Payload);
+				break;
+			
+			case Message:
+				OnMessageReceived(String.format("<%s> %s", GetSenderName(frame.SenderId), MessageKind.FromCode(frame.Flags).FormatAsText(frame.Payload)));
+				break;
+			
+			case Receipt:
+				OnReceiptReceived(Long.parseLong(frame.Payload), GetSenderName(frame.SenderId), frame.Flags != 0);
+				break;
+			
+			case Heartbeat:
+				SendMessage(MessageFrame.HeartbeatReply);
+				break;
+		}
+	}
+	
+	/**
+	 * Logic for when the server confirms whether a private message was delivered, only called if receipts were requested.
+	 * Receipts arrive in the order the messages were sent, so nothing needs to wait for one before sending the next message.
+	 *
+	 * @param messageNumber The number returned by SendPrivateMessage when the message was sent.
+	 * @param recipientName The display name of the recipient, null if there wasn't one.
+	 * @param delivered Whether the message was queued for the recipient, the server also sends a notice explaining why if it wasn't.
+	 */
+	public void OnReceiptReceived(long messageNumber, String recipientName, boolean delivered)
+	{
+	}
+	
+	/**
+	 * Gets the display name of a sender introduced by the server.
+	 *
+	 * @param senderId The id used for the sender in frames.
+	 * @return The sender's display name, null if the server hasn't introduced them.
+	 */
+	public String GetSenderName(int senderId)
+	{
+		return SenderNames.get(senderId);
+	}
+	
 	/**
 	 * Stops listening for messages from the connected server.
 	 * Calling this multiple times has no effect.
 	 */
 	public void StopListeningForMessages()
 	{
-		if (MessageListeningThread == null || MessageListeningThread.isInterrupted())
+		// Copying the thread, since it may clear the field itself while disconnecting
+		Thread listeningThread = MessageListeningThread;
+		if (listeningThread == null || listeningThread.isInterrupted())
 		{
 			return;
 		}
 		
 		// Since the thread is requesting it's self be disposed, we can skip this and let it end naturally
-		if (Thread.currentThread() != MessageListeningThread)
+		if (Thread.currentThread() != listeningThread)
 		{
-			MessageListeningThread.interrupt();
+			listeningThread.interrupt();
 			try
 			{
-				MessageListeningThread.join();
+				listeningThread.join();
 			}
 			catch (InterruptedException e)
 			{
@@ -232,12 +493,22 @@ public class Client
 		// Creating a new thread for sending messages to the server
 		MessageSendingThread = new Thread(() ->
 		{
+			boolean inputEnded = false;
+			
 			try
 			{
 				// Wait for input from user, then send it
 				while (!Thread.interrupted() && Connected())
 				{
 					String message = ConsoleIO.GetInput();
+					
+					// Nothing more to send once the console's input has ended, but messages can still be received
+					if (message == null)
+					{
+						inputEnded = true;
+						break;
+					}
+					
 					SendMessage(message);
 				}
 			}
@@ -261,7 +532,10 @@ public class Client
 			finally
 			{
 				// Stop sending messages so the program can exit gracefully
-				Disconnect();
+				if (!inputEnded)
+				{
+					Disconnect();
+				}
 			}
 			
 			
@@ -272,40 +546,127 @@ public class Client
 	}
 	
 	/**
-	 * Sends a message to the server.s
+	 * Sends a message to the server.
+	 * Messages starting with '@' are private messages, which are numbered the same way the server numbers them.
+	 * Messages sent while handling a received message aren't flushed until every message already received has been handled,
+	 * so responses to a burst of messages (or a response spanning several lines) go out together.
 	 *
 	 * @param message The message to send.
 	 */
-	public void SendMessage(String message)
+	public synchronized void SendMessage(String message)
 	{
 		if (!Connected())
 		{
 			return;
 		}
 		
+		if (message.startsWith("@"))
+		{
+			PrivateMessageCount++;
+		}
+		
 		ServerOut.println(message);
+		if (Thread.currentThread() == MessageListeningThread)
+		{
+			if (!FlushPending)
+			{
+				FlushPending = true;
+				PendingSince = System.nanoTime();
+			}
+			
+			if (++PendingMessageCount >= MaxPendingMessages)
+			{
+				FlushPendingMessages();
+			}
+		}
+		else
+		{
+			ServerOut.flush();
+		}
+	}
+	
+	/**
+	 * Sends several messages to the server, flushing them together once they've all been written.
+	 *
+	 * @param messages The messages to send, in order.
+	 */
+	public synchronized void SendMessages(List<String> messages)
+	{
+		if (!Connected())
+		{
+			return;
+		}
+		
+		for (String message : messages)
+		{
+			if (message.startsWith("@"))
+			{
+				PrivateMessageCount++;
+			}
+			
+			ServerOut.println(message);
+		}
 		ServerOut.flush();
 	}
 	
+	/**
+	 * Flushes messages sent while handling received messages, once there are no more received messages waiting to be handled.
+	 */
+	private synchronized void FlushPendingMessages()
+	{
+		if (FlushPending && ServerOut != null)
+		{
+			ServerOut.flush();
+		}
+		FlushPending = false;
+		PendingMessageCount = 0;
+	}
+	
+	/**
+	 * Flushes messages sent while handling received messages if the first has waited too long, so they're never held back indefinitely while received messages keep arriving.
+	 */
+	private synchronized void FlushOverduePendingMessages()
+	{
+		if (FlushPending && System.nanoTime() - PendingSince >= MaxPendingTime)
+		{
+			FlushPendingMessages();
+		}
+	}
+	
+	/**
+	 * Sends a message privately to another client, '@[recipientName] [message]'.
+	 *
+	 * @param recipientName The display name of the recipient, which is case-insensitive.
+	 * @param message The message to send.
+	 * @return The message's number, which identifies it in OnReceiptReceived.
+	 */
+	public synchronized long SendPrivateMessage(String recipientName, String message)
+	{
+		SendMessage(String.format("@%s %s", recipientName, message));
+		return PrivateMessageCount;
+	}
+	
 	/**
 	 * Stops sending terminal inputs as messages to the server.
 	 * Calling this multiple times has no effect.
 	 */
 	public void StopSendingMessages()
 	{
-		if (MessageSendingThread == null || MessageSendingThread.isInterrupted())
+		// Copying the thread, since it may clear the field itself while disconnecting
+		Thread sendingThread = MessageSendingThread;
+		if (sendingThread == null || sendingThread.isInterrupted())
 		{
 			return;
 		}
 		
 		// Since the thread is requesting it's self be disposed, we can skip this and let it end naturally
-		if (Thread.currentThread() != MessageSendingThread)
+		if (Thread.currentThread() != sendingThread)
 		{
 			ConsoleIO.StopInputs();
-			MessageSendingThread.interrupt();
+			sendingThread.interrupt();
 			try
 			{
-				MessageSendingThread.join();
+				sendingThread.join();
 			}
 			catch (InterruptedException e)
 			{
@@ -327,6 +688,82 @@ public class Client
 		FirstResponse = firstResponse;
 	}
 	
+	/**
+	 * Gets the first response sent to the server when connecting, without any options added to it.
+	 *
+	 * @return The first response.
+	 */
+	public String GetFirstResponse()
+	{
+		return FirstResponse;
+	}
+	
+	/**
+	 * Sets whether to ask the server for binary frames instead of text lines when connecting.
+	 * Servers which don't support frames will carry on sending text lines.
+	 *
+	 * @param useFrames Whether to ask for frames.
+	 */
+	public void SetUseFrames(boolean useFrames)
+	{
+		UseFrames = useFrames;
+	}
+	
+	/**
+	 * Gets whether the server is asked for binary frames when connecting, which is always the case for a server in the same process.
+	 *
+	 * @return Whether frames are asked for.
+	 */
+	public boolean UsesFrames()
+	{
+		return UseFrames;
+	}
+	
+	/**
+	 * Sets whether to ask the server for a receipt after each private message, only used alongside frames.
+	 * Servers which don't support receipts will carry on without sending them.
+	 *
+	 * @param requestReceipts Whether to ask for receipts.
+	 */
+	public void SetRequestReceipts(boolean requestReceipts)
+	{
+		RequestReceipts = requestReceipts;
+	}
+	
+	/**
+	 * Sets whether to tell the server this client answers heartbeats when connecting, which it does by default.
+	 * Servers with an idle timeout send heartbeats to clients which have been quiet for a while, and disconnect clients which don't answer.
+	 *
+	 * @param answerHeartbeats Whether to answer heartbeats.
+	 */
+	public void SetAnswerHeartbeats(boolean answerHeartbeats)
+	{
+		AnswerHeartbeats = answerHeartbeats;
+	}
+	
+	/**
+	 * Registers a command prefix with the server when connecting, e.g. "!cb".
+	 * The server will then only send this client chat messages starting with one of its prefixes, instead of every message.
+	 * Servers which don't support command prefixes will carry on sending every message.
+	 *
+	 * @param commandPrefix The prefix, which can't contain whitespace.
+	 */
+	public void AddCommandPrefix(String commandPrefix)
+	{
+		CommandPrefixes.add(commandPrefix);
+	}
+	
+	/**
+	 * Sets the channel to start in when connecting, instead of the server's default channel.
+	 * Once connected, channels can be changed by sending '/join [channel]'.
+	 *
+	 * @param channelName The name of the channel, which can't contain whitespace.
+	 */
+	public void SetChannel(String channelName)
+	{
+		ChannelName = channelName;
+	}
+	
 	/**
 	 * Gets the server out stream.
 	 *
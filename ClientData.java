@@ -1,7 +1,14 @@
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Connection status of a client.
@@ -24,6 +31,25 @@ enum ClientType
 	DoDBot
 }
 
+/**
+ * What happens when a message is sent to a client whose outbound queue is full.
+ */
+enum OverflowPolicy
+{
+	DropOldest,
+	DropNewest,
+	Disconnect
+}
+
+/**
+ * What happens when a client sends messages faster than its rate limit allows.
+ */
+enum ThrottlePolicy
+{
+	Delay,
+	Notify
+}
+
 /**
  * Stores data on a connected client.
  */
@@ -31,24 +57,74 @@ class ClientData
 {
 	public final Socket Socket;
 	public Thread MessageRelayingThread;
+	public Thread MessageWritingThread;
+	public NioConnection Connection;
+	public HostedClient Hosted;
 	public final String DisplayName;
 	
+	/**
+	 * Identifies the client in binary frames, unique for the lifetime of the process.
+	 * 0 is reserved for the server.
+	 */
+	private static final AtomicInteger NextId = new AtomicInteger(MessageFrame.ServerSenderId + 1);
+	public final int Id = NextId.getAndIncrement();
+	
 	private ClientConnectionStatus ConnectionStatus;
 	private ClientType Type;
-	private PrintWriter OutputStream;
-	private BufferedReaderEx InputStream;
+	private volatile boolean UsesFrames = false;
+	private volatile String[] CommandPrefixes = new String[0];
+	private volatile Channel Channel = null;
+	private volatile boolean WantsReceipts = false;
 	
-	public ClientData(Socket socket, Thread messageRelayingThread, String displayName)
+	/**
+	 * The number of private messages the client has sent, only accessed by the thread relaying its messages.
+	 */
+	private long PrivateMessageCount = 0;
+	
+	/**
+	 * Limit how quickly the client can send messages / bytes, null if they aren't limited.
+	 */
+	private TokenBucket MessageRateLimiter = null;
+	private TokenBucket ByteRateLimiter = null;
+	private final AtomicLong ThrottledMessageCount = new AtomicLong();
+	
+	/**
+	 * When the client last sent anything (in System.nanoTime), used to find connections which have silently died.
+	 */
+	private volatile long LastReceivedAt = System.nanoTime();
+	private volatile boolean AnswersHeartbeats = false;
+	
+	private OutputStream OutputStream;
+	private LineReader InputStream;
+	
+	/**
+	 * Encoded messages waiting to be written to the client.
+	 */
+	private final BlockingQueue<ByteBuffer> OutboundQueue;
+	private final AtomicLong DroppedMessageCount = new AtomicLong();
+	
+	/**
+	 * The number of messages which have entered / left the outbound queue (written or dropped to make space), and the sampled messages still waiting to leave it.
+	 */
+	private final AtomicLong QueuedMessageTotal = new AtomicLong();
+	private final AtomicLong RemovedMessageTotal = new AtomicLong();
+	private final ConcurrentLinkedQueue<RelayMarker> RelayMarkers = new ConcurrentLinkedQueue<>();
+	
+	public ClientData(Socket socket, Thread messageRelayingThread, String displayName, int outboundQueueCapacity)
 	{
 		Socket = socket;
 		MessageRelayingThread = messageRelayingThread;
 		DisplayName = displayName;
 		ConnectionStatus = ClientConnectionStatus.Disconnected;
+		OutboundQueue = new ArrayBlockingQueue<>(outboundQueueCapacity);
 		
 		try
 		{
-			OutputStream = new PrintWriter(Socket.getOutputStream());
-			InputStream = new BufferedReaderEx(new InputStreamReader(Socket.getInputStream()));
+			OutputStream = Socket.getOutputStream();
+			// Reading straight from the socket's stream, without any wrappers which lock on themselves while blocking.
+			// This would pin the carrier of a virtual thread for as long as it waits on the client.
+			// Blocked reads are cancelled by closing the socket.
+			InputStream = new LineReader(Socket.getInputStream());
 		}
 		catch (IOException e)
 		{
@@ -56,12 +132,56 @@ class ClientData
 		}
 	}
 	
+	/**
+	 * Creates data for a client connected through a non-blocking channel.
+	 * The client's streams are left null, since reading / writing is done through the channel by a NioServer.
+	 *
+	 * @param channel The channel connected to the client.
+	 * @param displayName The display name of the client.
+	 * @param outboundQueueCapacity The maximum number of messages waiting to be written to the client.
+	 */
+	public ClientData(SocketChannel channel, String displayName, int outboundQueueCapacity)
+	{
+		Socket = channel.socket();
+		MessageRelayingThread = null;
+		DisplayName = displayName;
+		ConnectionStatus = ClientConnectionStatus.Disconnected;
+		OutboundQueue = new ArrayBlockingQueue<>(outboundQueueCapacity);
+	}
+	
+	/**
+	 * Creates data for a client hosted in the same process as the server, see HostedClient.
+	 * The socket is never connected, it's only closed to mark the client as disconnecting the same way as any other client.
+	 * The client's streams are left null, messages are handed to / from the client directly.
+	 *
+	 * @param displayName The display name of the client.
+	 * @param outboundQueueCapacity The maximum number of messages waiting to be handed to the client.
+	 */
+	public ClientData(String displayName, int outboundQueueCapacity)
+	{
+		Socket = new Socket();
+		MessageRelayingThread = null;
+		DisplayName = displayName;
+		ConnectionStatus = ClientConnectionStatus.Disconnected;
+		OutboundQueue = new ArrayBlockingQueue<>(outboundQueueCapacity);
+	}
+	
+	/**
+	 * Describes where the client is connected from, for logs.
+	 *
+	 * @return '[address]:[port]', or 'in-process' for clients hosted by the server.
+	 */
+	public String DescribeAddress()
+	{
+		return Hosted != null ? "in-process" : String.format("%s:%d", Socket.getInetAddress(), Socket.getPort());
+	}
+	
 	/**
 	 * Gets the clients out stream.
 	 *
-	 * @return A PrintWriter tied to the client sockets output stream.
+	 * @return The client sockets output stream.
 	 */
-	public PrintWriter GetOutputStream()
+	public OutputStream GetOutputStream()
 	{
 		return OutputStream;
 	}
@@ -69,9 +189,9 @@ class ClientData
 	/**
 	 * Gets the clients in stream.
 	 *
-	 * @return A BufferedReader tied to the client sockets input stream.
+	 * @return A LineReader tied to the client sockets input stream.
 	 */
-	public BufferedReaderEx GetInputStream()
+	public LineReader GetInputStream()
 	{
 		return InputStream;
 	}
@@ -96,6 +216,23 @@ class ClientData
 		ConnectionStatus = newState;
 	}
 	
+	/**
+	 * Marks the client as disconnecting, unless it's already disconnecting / disconnected.
+	 * Checking and setting the status at once makes sure only one thread ever disconnects the client.
+	 *
+	 * @return Whether the client was marked as disconnecting by this call.
+	 */
+	public synchronized boolean TryBeginDisconnecting()
+	{
+		if (ConnectionStatus == ClientConnectionStatus.Disconnecting || ConnectionStatus == ClientConnectionStatus.Disconnected)
+		{
+			return false;
+		}
+		
+		ConnectionStatus = ClientConnectionStatus.Disconnecting;
+		return true;
+	}
+	
 	/**
 	 * Gets what type of client this is.
 	 *
@@ -115,4 +252,371 @@ class ClientData
 	{
 		Type = newType;
 	}
+	
+	/**
+	 * Determines whether the client asked for binary frames instead of text lines when connecting.
+	 *
+	 * @return Whether messages should be sent to the client as MessageFrames.
+	 */
+	public boolean UsesFrames()
+	{
+		return UsesFrames;
+	}
+	
+	/**
+	 * Sets whether messages should be sent to the client as binary frames instead of text lines.
+	 *
+	 * @param usesFrames Whether to send MessageFrames.
+	 */
+	public void SetUsesFrames(boolean usesFrames)
+	{
+		UsesFrames = usesFrames;
+	}
+	
+	/**
+	 * Gets the command prefixes the client registered when connecting.
+	 * Clients with command prefixes (bots) are only sent chat messages starting with one of them.
+	 *
+	 * @return The client's command prefixes, empty if it didn't register any. Must not be modified.
+	 */
+	public String[] GetCommandPrefixes()
+	{
+		return CommandPrefixes;
+	}
+	
+	/**
+	 * Determines whether the client registered any command prefixes when connecting.
+	 *
+	 * @return Whether the client is only sent chat messages addressed to it.
+	 */
+	public boolean HasCommandPrefixes()
+	{
+		return CommandPrefixes.length != 0;
+	}
+	
+	/**
+	 * Sets the command prefixes the client registered when connecting.
+	 *
+	 * @param commandPrefixes The client's command prefixes.
+	 */
+	public void SetCommandPrefixes(String[] commandPrefixes)
+	{
+		CommandPrefixes = commandPrefixes;
+	}
+	
+	/**
+	 * Determines whether the client asked for a receipt after each private message it sends.
+	 *
+	 * @return Whether to send the client receipt frames.
+	 */
+	public boolean WantsReceipts()
+	{
+		return WantsReceipts;
+	}
+	
+	/**
+	 * Sets whether the client should be sent a receipt after each private message it sends.
+	 *
+	 * @param wantsReceipts Whether to send the client receipt frames.
+	 */
+	public void SetWantsReceipts(boolean wantsReceipts)
+	{
+		WantsReceipts = wantsReceipts;
+	}
+	
+	/**
+	 * Numbers a new private message sent by the client, matching the count kept by the client itself.
+	 * Must only be called by the thread relaying the client's messages.
+	 *
+	 * @return The message's number, counting from 1.
+	 */
+	public long NumberPrivateMessage()
+	{
+		return ++PrivateMessageCount;
+	}
+	
+	/**
+	 * Records that something has just been received from the client.
+	 */
+	public void MarkReceived()
+	{
+		LastReceivedAt = System.nanoTime();
+	}
+	
+	/**
+	 * Gets when something was last received from the client.
+	 *
+	 * @return The time in System.nanoTime.
+	 */
+	public long GetLastReceivedAt()
+	{
+		return LastReceivedAt;
+	}
+	
+	/**
+	 * Determines whether the client said it answers heartbeats when connecting.
+	 *
+	 * @return Whether to send the client heartbeats.
+	 */
+	public boolean AnswersHeartbeats()
+	{
+		return AnswersHeartbeats;
+	}
+	
+	/**
+	 * Sets whether the client answers heartbeats.
+	 *
+	 * @param answersHeartbeats Whether to send the client heartbeats.
+	 */
+	public void SetAnswersHeartbeats(boolean answersHeartbeats)
+	{
+		AnswersHeartbeats = answersHeartbeats;
+	}
+	
+	/**
+	 * Sets how quickly the client can send messages, must be called before its messages start being relayed.
+	 *
+	 * @param rateLimit The client's rate limit.
+	 */
+	public void SetRateLimit(RateLimit rateLimit)
+	{
+		MessageRateLimiter = rateLimit.CreateMessageBucket();
+		ByteRateLimiter = rateLimit.CreateByteBucket();
+	}
+	
+	/**
+	 * Works out whether a message sent by the client is within its rate limit, using up its allowance if so.
+	 *
+	 * @param byteCount The size of the message.
+	 * @param wait Whether the message will wait for its allowance, rather than being dropped if there isn't enough.
+	 * @return How long the message must wait in nanoseconds (always 0 if not waiting), or -1 if it should be dropped.
+	 */
+	public long TakeRateLimitAllowance(int byteCount, boolean wait)
+	{
+		if (wait)
+		{
+			long messageWait = MessageRateLimiter != null ? MessageRateLimiter.Take(1) : 0;
+			long byteWait = ByteRateLimiter != null ? ByteRateLimiter.Take(byteCount) : 0;
+			return Math.max(messageWait, byteWait);
+		}
+		
+		if (MessageRateLimiter != null && MessageRateLimiter.TryTake(1) > 0)
+		{
+			return -1;
+		}
+		
+		if (ByteRateLimiter != null && ByteRateLimiter.TryTake(byteCount) > 0)
+		{
+			// Giving back the message allowance, since the message isn't being sent after all
+			if (MessageRateLimiter != null)
+			{
+				MessageRateLimiter.Return(1);
+			}
+			return -1;
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Counts a message which was delayed / dropped because the client exceeded its rate limit.
+	 */
+	public void IncrementThrottledMessageCount()
+	{
+		ThrottledMessageCount.incrementAndGet();
+	}
+	
+	/**
+	 * Gets the number of messages from the client which were delayed / dropped because it exceeded its rate limit.
+	 *
+	 * @return The number of throttled messages.
+	 */
+	public long GetThrottledMessageCount()
+	{
+		return ThrottledMessageCount.get();
+	}
+	
+	/**
+	 * Gets the channel the client is currently in.
+	 *
+	 * @return The client's channel, null if it hasn't been registered yet.
+	 */
+	public Channel GetChannel()
+	{
+		return Channel;
+	}
+	
+	/**
+	 * Sets the channel the client is currently in.
+	 *
+	 * @param channel The client's channel.
+	 */
+	public void SetChannel(Channel channel)
+	{
+		Channel = channel;
+	}
+	
+	/**
+	 * Queues a message to be written to the client, if there's space for it.
+	 * Messages which don't fit are counted as dropped.
+	 *
+	 * @param message The encoded message.
+	 * @return Whether the message was queued.
+	 */
+	public boolean TryQueueMessage(ByteBuffer message)
+	{
+		if (OutboundQueue.offer(message))
+		{
+			QueuedMessageTotal.incrementAndGet();
+			return true;
+		}
+		
+		DroppedMessageCount.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Queues a message to be written to the client, dropping the oldest queued messages to make space for it.
+	 *
+	 * @param message The encoded message.
+	 */
+	public void QueueMessageDroppingOldest(ByteBuffer message)
+	{
+		while (!OutboundQueue.offer(message))
+		{
+			if (OutboundQueue.poll() != null)
+			{
+				DroppedMessageCount.incrementAndGet();
+				OnMessagesRemoved(1);
+			}
+		}
+		QueuedMessageTotal.incrementAndGet();
+	}
+	
+	/**
+	 * Waits for a message to be queued, then removes it from the queue.
+	 *
+	 * @return The next message to write to the client.
+	 * @throws InterruptedException If any thread has interrupted the current thread while waiting.
+	 */
+	public ByteBuffer TakeQueuedMessage() throws InterruptedException
+	{
+		return OutboundQueue.take();
+	}
+	
+	/**
+	 * Removes the next queued message, without waiting.
+	 *
+	 * @return The next message to write to the client, null if none are queued.
+	 */
+	public ByteBuffer PollQueuedMessage()
+	{
+		return OutboundQueue.poll();
+	}
+	
+	/**
+	 * Waits up to a given time for a message to be queued, then removes it from the queue.
+	 *
+	 * @param timeoutNanos How long to wait, in nanoseconds.
+	 * @return The next message to write to the client, null if none were queued in time.
+	 * @throws InterruptedException If any thread has interrupted the current thread while waiting.
+	 */
+	public ByteBuffer PollQueuedMessage(long timeoutNanos) throws InterruptedException
+	{
+		return OutboundQueue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Removes as many queued messages as fit in a batch, without waiting, so they can be written together.
+	 *
+	 * @param batch The array to put the messages in.
+	 * @param offset The index in the batch to put the first message at.
+	 * @return The number of messages removed.
+	 */
+	public int DrainQueuedMessages(ByteBuffer[] batch, int offset)
+	{
+		int count = 0;
+		ByteBuffer message;
+		while (offset + count < batch.length && (message = OutboundQueue.poll()) != null)
+		{
+			batch[offset + count++] = message;
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Tracks the message which was just queued until it leaves the queue, as part of a relay latency sample.
+	 * Messages queued at the same time by other threads can be counted in either order, so the sample may end a message early / late.
+	 *
+	 * @param sample The sample the message is part of.
+	 */
+	public void AddRelayMarker(RelaySample sample)
+	{
+		sample.AddRecipient();
+		RelayMarkers.add(new RelayMarker(QueuedMessageTotal.get(), sample));
+		
+		// The message may have already been written
+		ReleaseRelayMarkers();
+	}
+	
+	/**
+	 * Counts messages which have been written to the client, releasing any samples waiting on them.
+	 *
+	 * @param count The number of messages written.
+	 */
+	public void OnMessagesWritten(int count)
+	{
+		OnMessagesRemoved(count);
+	}
+	
+	/**
+	 * Counts messages which have left the outbound queue, releasing any samples waiting on them.
+	 *
+	 * @param count The number of messages which left the queue.
+	 */
+	private void OnMessagesRemoved(int count)
+	{
+		RemovedMessageTotal.addAndGet(count);
+		if (!RelayMarkers.isEmpty())
+		{
+			ReleaseRelayMarkers();
+		}
+	}
+	
+	/**
+	 * Releases the samples of every tracked message which has left the queue.
+	 */
+	private void ReleaseRelayMarkers()
+	{
+		RelayMarker marker;
+		while ((marker = RelayMarkers.peek()) != null && marker.Sequence <= RemovedMessageTotal.get())
+		{
+			// Only whichever thread removes the marker releases it
+			if (RelayMarkers.remove(marker))
+			{
+				marker.Sample.Release();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of messages waiting to be written to the client.
+	 *
+	 * @return The current depth of the outbound queue.
+	 */
+	public int GetQueuedMessageCount()
+	{
+		return OutboundQueue.size();
+	}
+	
+	/**
+	 * Gets the number of messages which were never written to the client because its outbound queue was full.
+	 *
+	 * @return The number of dropped messages.
+	 */
+	public long GetDroppedMessageCount()
+	{
+		return DroppedMessageCount.get();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of connected clients by their display names, which are case-insensitive.
+ * Lookups never lock, and broadcasts iterate over a snapshot which is only rebuilt when a client connects / disconnects.
+ * This means broadcasting never contends with clients connecting / disconnecting, and never sees a partially updated list.
+ */
+class ClientRegistry
+{
+	/**
+	 * Clients by their display names in lower case, so a client can be found however its name is typed.
+	 */
+	private final ConcurrentHashMap<String, ClientData> ClientsByName = new ConcurrentHashMap<>();
+	
+	/**
+	 * Every registered client, replaced (never modified) whenever a client is added / removed.
+	 */
+	private volatile ClientData[] Snapshot = new ClientData[0];
+	
+	/**
+	 * Held while adding / removing clients, so two changes can't build their snapshot from the same old one.
+	 */
+	private final Object SnapshotLock = new Object();
+	
+	/**
+	 * Adds a client, unless another client with the same display name (ignoring case) is already registered.
+	 *
+	 * @param clientData The client to add.
+	 * @return Whether the client was added.
+	 */
+	public boolean Add(ClientData clientData)
+	{
+		synchronized (SnapshotLock)
+		{
+			if (ClientsByName.putIfAbsent(ToKey(clientData.DisplayName), clientData) != null)
+			{
+				return false;
+			}
+			
+			ClientData[] snapshot = Snapshot;
+			ClientData[] newSnapshot = new ClientData[snapshot.length + 1];
+			System.arraycopy(snapshot, 0, newSnapshot, 0, snapshot.length);
+			newSnapshot[snapshot.length] = clientData;
+			Snapshot = newSnapshot;
+			return true;
+		}
+	}
+	
+	/**
+	 * Removes a client.
+	 *
+	 * @param clientData The client to remove.
+	 * @return Whether the client was registered before being removed.
+	 */
+	public boolean Remove(ClientData clientData)
+	{
+		synchronized (SnapshotLock)
+		{
+			if (!ClientsByName.remove(ToKey(clientData.DisplayName), clientData))
+			{
+				return false;
+			}
+			
+			ClientData[] snapshot = Snapshot;
+			ClientData[] newSnapshot = new ClientData[snapshot.length - 1];
+			int newIndex = 0;
+			for (ClientData registeredClient : snapshot)
+			{
+				if (registeredClient != clientData)
+				{
+					newSnapshot[newIndex++] = registeredClient;
+				}
+			}
+			Snapshot = newSnapshot;
+			return true;
+		}
+	}
+	
+	/**
+	 * Gets a registered client by its display name, ignoring case.
+	 *
+	 * @param displayName The display name of the client.
+	 * @return The client, null if no client with that name is registered.
+	 */
+	public ClientData Get(String displayName)
+	{
+		return ClientsByName.get(ToKey(displayName));
+	}
+	
+	/**
+	 * Determines whether a client with a given display name is registered, ignoring case.
+	 *
+	 * @param displayName The display name to check.
+	 * @return Whether a client with the display name is registered.
+	 */
+	public boolean Contains(String displayName)
+	{
+		return ClientsByName.containsKey(ToKey(displayName));
+	}
+	
+	/**
+	 * Gets the key a display name is stored under.
+	 *
+	 * @param displayName The display name.
+	 * @return The display name in lower case.
+	 */
+	private static String ToKey(String displayName)
+	{
+		return displayName.toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Gets the number of registered clients.
+	 *
+	 * @return The number of registered clients.
+	 */
+	public int Size()
+	{
+		return Snapshot.length;
+	}
+	
+	/**
+	 * Gets every client registered at the time of calling.
+	 * The returned array is shared, it must not be modified.
+	 *
+	 * @return A snapshot of all registered clients.
+	 */
+	public ClientData[] GetSnapshot()
+	{
+		return Snapshot;
+	}
+}
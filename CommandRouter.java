@@ -0,0 +1,100 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of which clients (bots) have registered which command prefixes, e.g. "!cb".
+ * Messages starting with a registered prefix are routed only to the clients which registered it.
+ * Lookups never lock, the clients registered to each prefix are replaced (never modified) when a client registers / unregisters.
+ */
+class CommandRouter
+{
+	/**
+	 * Clients register a prefix by following their first response with a space, this token, then the prefix, e.g. "ChatBot PREFIX:!cb".
+	 */
+	public static final String HandshakeToken = "PREFIX:";
+	
+	private final ConcurrentHashMap<String, ClientData[]> ClientsByPrefix = new ConcurrentHashMap<>();
+	
+	/**
+	 * Registers a client to receive messages starting with a prefix.
+	 *
+	 * @param prefix The prefix, which can't contain whitespace.
+	 * @param clientData The client to route messages to.
+	 */
+	public void Add(String prefix, ClientData clientData)
+	{
+		ClientsByPrefix.compute(prefix, (key, clients) ->
+		{
+			if (clients == null)
+			{
+				return new ClientData[] { clientData };
+			}
+			
+			ClientData[] newClients = new ClientData[clients.length + 1];
+			System.arraycopy(clients, 0, newClients, 0, clients.length);
+			newClients[clients.length] = clientData;
+			return newClients;
+		});
+	}
+	
+	/**
+	 * Stops routing messages to a client.
+	 *
+	 * @param clientData The client to remove.
+	 */
+	public void Remove(ClientData clientData)
+	{
+		for (String prefix : clientData.GetCommandPrefixes())
+		{
+			ClientsByPrefix.computeIfPresent(prefix, (key, clients) ->
+			{
+				ClientData[] newClients = new ClientData[clients.length];
+				int newLength = 0;
+				for (ClientData registeredClient : clients)
+				{
+					if (registeredClient != clientData)
+					{
+						newClients[newLength++] = registeredClient;
+					}
+				}
+				
+				// Returning null removes the prefix
+				if (newLength == 0)
+				{
+					return null;
+				}
+				
+				ClientData[] trimmedClients = new ClientData[newLength];
+				System.arraycopy(newClients, 0, trimmedClients, 0, newLength);
+				return trimmedClients;
+			});
+		}
+	}
+	
+	/**
+	 * Gets the clients a message should be routed to, based on its first word.
+	 *
+	 * @param message The message being relayed.
+	 * @return The clients which registered the message's prefix, null if it doesn't start with a registered prefix. Must not be modified.
+	 */
+	public ClientData[] Route(String message)
+	{
+		if (ClientsByPrefix.isEmpty())
+		{
+			return null;
+		}
+		
+		// Finding the end of the first word
+		int prefixEnd = 0;
+		while (prefixEnd < message.length() && !Character.isWhitespace(message.charAt(prefixEnd)))
+		{
+			prefixEnd++;
+		}
+		
+		if (prefixEnd == 0)
+		{
+			return null;
+		}
+		
+		return ClientsByPrefix.get(message.substring(0, prefixEnd));
+	}
+}
@@ -1,8 +1,10 @@
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.IllegalFormatException;
+import java.io.InterruptedIOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
 
 /**
  * Deals with IO related to the user via the console.
@@ -15,25 +17,47 @@ public class ConsoleIO
 	public static final String TextColourYellow = "\u001B[33m";
 	public static final String TextColourGreen = "\u001B[32m";
 	
-	private volatile BufferedReaderEx BufferedReaderEx = null;
+	private volatile LineReader LineReader = null;
 	
 	/**
-	 * Waits for reader to be ready, then reads input.
-	 * Getting an input via this method allows the thread to be interrupted.
+	 * Logs are written to the console by a thread of their own, so logging never waits on the console.
+	 */
+	private static final AsyncLogWriter LogWriter = CreateLogWriter();
+	private static volatile LogLevel Level = LogLevel.Info;
+	
+	/**
+	 * Blocks until the user has entered a line.
+	 * Reads through an interruptible channel, so the thread can be interrupted while waiting without polling for input.
+	 * Interrupting / stopping inputs closes the console's input, the same as closing System.in.
 	 *
-	 * @return The given input.
+	 * @return The given input, or null if the console's input has ended.
 	 * @throws InterruptedException If any thread has interrupted the current thread. The interrupted status of the current thread is cleared when this exception is thrown.
 	 * @throws IOException If an I/O error occurs.
 	 */
 	public String GetInput() throws InterruptedException, IOException
 	{
-		// Creating new stream reader if previous one was destroyed
-		if (BufferedReaderEx == null)
+		// Creating new line reader if previous one was destroyed
+		LineReader lineReader = LineReader;
+		if (lineReader == null)
 		{
-			BufferedReaderEx = new BufferedReaderEx(new InputStreamReader(System.in));
+			lineReader = new LineReader(Channels.newInputStream(new FileInputStream(FileDescriptor.in).getChannel()));
+			LineReader = lineReader;
 		}
 		
-		return BufferedReaderEx.ReadLineWhenReady();
+		try
+		{
+			return lineReader.ReadLine();
+		}
+		catch (ClosedByInterruptException | InterruptedIOException e)
+		{
+			Thread.interrupted();
+			throw new InterruptedException("Interrupted while waiting for input.");
+		}
+		catch (AsynchronousCloseException e)
+		{
+			// Closed by StopInputs() while waiting
+			throw new InterruptedException("Stopped waiting for input.");
+		}
 	}
 	
 	/**
@@ -42,35 +66,76 @@ public class ConsoleIO
 	 */
 	public void StopInputs()
 	{
+		LineReader lineReader = LineReader;
+		if (lineReader == null)
+		{
+			return;
+		}
+		
 		try
 		{
-			BufferedReaderEx.close();
+			lineReader.close();
 		}
 		catch (IOException e)
 		{
 			// Stream closed by other thread
 		}
-		BufferedReaderEx = null;
+		LineReader = null;
+	}
+	
+	/**
+	 * Creates the log writer, making sure any logs still waiting are written before the program exits.
+	 *
+	 * @return The log writer.
+	 */
+	private static AsyncLogWriter CreateLogWriter()
+	{
+		AsyncLogWriter logWriter = new AsyncLogWriter(8192, System.out);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> logWriter.Flush(1000), "Log Flushing Thread"));
+		return logWriter;
+	}
+	
+	/**
+	 * Sets which logs are written, e.g. only errors.
+	 *
+	 * @param level The least important level of log to write.
+	 */
+	public static void SetLogLevel(LogLevel level)
+	{
+		Level = level;
+	}
+	
+	/**
+	 * Sets what happens to logs made faster than they can be written.
+	 * Dropping them (the default) means logging never waits, blocking means no logs are lost.
+	 *
+	 * @param overflowPolicy What to do with logs which don't fit.
+	 */
+	public static void SetLogOverflowPolicy(LogOverflowPolicy overflowPolicy)
+	{
+		LogWriter.SetOverflowPolicy(overflowPolicy);
+	}
+	
+	/**
+	 * Waits for every log made so far to be written to the console.
+	 */
+	public static void FlushLogs()
+	{
+		LogWriter.Flush(1000);
 	}
 	
 	/**
 	 * Logs a string to the console.
+	 * The string is formatted and written later by the log writing thread, so the arguments shouldn't be changed afterwards.
 	 *
 	 * @param str A format string.
 	 * @param args Arguments reference in the format string.
 	 */
 	public static void Log(String str, Object... args)
 	{
-		String timeString = DateTimeFormatter.ofPattern("HH:mm:ss").format(LocalDateTime.now());
-		
-		try
+		if (Level.compareTo(LogLevel.Info) >= 0)
 		{
-			str = String.format(str, args);
-			System.out.printf("[%s] %s%n", timeString, str);
-		}
-		catch (NullPointerException | IllegalFormatException e)
-		{
-			e.printStackTrace();
+			LogWriter.Write(null, str, args);
 		}
 	}
 	
@@ -82,8 +147,10 @@ public class ConsoleIO
 	 */
 	public static void LogError(String str, Object... args)
 	{
-		str = String.format(str, args);
-		Log("%s%s%s", TextColourRed, str, TextColourReset);
+		if (Level.compareTo(LogLevel.Error) >= 0)
+		{
+			LogWriter.Write(TextColourRed, str, args);
+		}
 	}
 	
 	/**
@@ -94,7 +161,9 @@ public class ConsoleIO
 	 */
 	public static void LogHighlight(String str, Object... args)
 	{
-		str = String.format(str, args);
-		Log("%s%s%s", TextColourGreen, str, TextColourReset);
+		if (Level.compareTo(LogLevel.Info) >= 0)
+		{
+			LogWriter.Write(TextColourGreen, str, args);
+		}
 	}
 }
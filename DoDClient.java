@@ -3,7 +3,6 @@ import DoDGame.GameController;
 import DoDGame.Globals;
 
 import java.net.InetAddress;
-import java.util.regex.Pattern;
 
 public class DoDClient extends BotBase
 {
@@ -17,9 +16,54 @@ public class DoDClient extends BotBase
 	 */
 	public DoDClient(InetAddress remoteAddress, int remotePort)
 	{
-		super(remoteAddress, remotePort, Pattern.compile("^!dod\\s*"));
+		super(remoteAddress, remotePort, "!dod");
 		
 		SetFirstResponse("DoDBot");
+		SetRequestReceipts(true);
+	}
+	
+	/**
+	 * The game is driven through the statics in DoDGame.Globals (e.g. UserIO), which a second game in the same process would overwrite.
+	 *
+	 * @return false, only one DoDClient can be hosted per process.
+	 */
+	@Override
+	public boolean CanBeHostedTwice()
+	{
+		return false;
+	}
+	
+	/**
+	 * Logs private responses which couldn't be delivered, e.g. the player disconnected mid-turn.
+	 * Responses are sent back to back without waiting for receipts, so a failure is only noticed here.
+	 *
+	 * @param messageNumber The number of the private message.
+	 * @param recipientName The display name of the player, null if they aren't connected.
+	 * @param delivered Whether the message was delivered.
+	 */
+	@Override
+	public void OnReceiptReceived(long messageNumber, String recipientName, boolean delivered)
+	{
+		if (!delivered)
+		{
+			ConsoleIO.LogError("Response %d to %s was not delivered.", messageNumber, recipientName != null ? recipientName : "a disconnected player");
+		}
+	}
+	
+	/**
+	 * Ignores messages received as text lines which aren't dod commands / disconnect alerts before anything is logged / copied out of them.
+	 * Text lines can't tell leaving a channel from disconnecting, both arrive as Disconnected.
+	 *
+	 * @param message The message received.
+	 */
+	@Override
+	public void OnMessageReceived(ParsedMessage message)
+	{
+		MessageKind kind = message.GetKind();
+		if (kind == MessageKind.Disconnected || (kind == MessageKind.Chat && message.IsAddressedToBot()))
+		{
+			super.OnMessageReceived(message);
+		}
 	}
 	
 	/**
@@ -32,19 +76,21 @@ public class DoDClient extends BotBase
 	 * - Once every player has had their go, the bot will have their go.
 	 * - The game ends when either when there are no players left, or if a player successfully exits with the correct amount of gold.
 	 *
-	 * @param message The message received.
+	 * @param senderName The display name of the sender, treated as the player's name.
+	 * @param kind The kind of message.
+	 * @param message The body of the message.
 	 */
 	@Override
-	public void OnMessageReceived(String message)
+	public void OnMessageReceived(String senderName, MessageKind kind, String message)
 	{
-		super.OnMessageReceived(message);
-		
-		// Extracting player name form the message
-		String senderName = GetDisplayName(message);
-		message = RemoveANSIEscapeCodes(message);
-		message = RemoveDisplayName(message);
+		// Players leaving the bot's channel / disconnecting are treated the same
+		boolean isLeaving = kind == MessageKind.Disconnected || kind == MessageKind.Left;
 		
-		String[] messageArray = message.split("\\s+");
+		// Ignoring messages which aren't dod commands / disconnect alerts before doing any work
+		if (!isLeaving && !(kind == MessageKind.Chat && IsAddressedToBot(message)))
+		{
+			return;
+		}
 		
 		// Checking the sender exists as a player
 		boolean playerExists = GameController.GetPlayerByName(senderName) != null;
@@ -58,10 +104,15 @@ public class DoDClient extends BotBase
 		}
 		
 		// Dealing clients disconnecting
-		if (senderName.toLowerCase().equals("server") && message.contains("disconnect"))
+		if (isLeaving)
 		{
 			// Treats first word as the clients name
-			String nameToRemove = messageArray.length > 0 ? messageArray[0] : null;
+			int nameEnd = 0;
+			while (nameEnd < message.length() && !Character.isWhitespace(message.charAt(nameEnd)))
+			{
+				nameEnd++;
+			}
+			String nameToRemove = nameEnd > 0 ? message.substring(0, nameEnd) : null;
 			playerExists = nameToRemove != null && GameController.GetPlayerByName(nameToRemove) != null;
 			
 			// Removing player if they were part of the game
@@ -73,12 +124,6 @@ public class DoDClient extends BotBase
 			}
 		}
 		
-		// Checking the message is intended as a dod command
-		else if (messageArray.length == 0 || !IsPrefix(messageArray[0]))
-		{
-			return;
-		}
-		
 		// Adding new players to the game
 		else if (message.toLowerCase().contains("join"))
 		{
@@ -126,7 +171,7 @@ public class DoDClient extends BotBase
 			// This makes sure that responses that span multiple lines (look) get sent entirely as a private message
 			for (String line: commandResponse.split("[\r\n]+"))
 			{
-				SendMessage(String.format("@%s %s", senderName, line));
+				SendPrivateMessage(senderName, line);
 			}
 			
 			GameController.SetupNextTurn();
@@ -0,0 +1,65 @@
+/**
+ * What a MessageFrame contains.
+ */
+public enum FrameType
+{
+	/**
+	 * A message, the payload is the message's body, the sender id identifies who sent it, and the flags hold its MessageKind.
+	 */
+	Message((byte)1),
+	
+	/**
+	 * Introduces a sender, the payload is the display name of the client with the sender id.
+	 * A client is always sent the identity of a sender before any messages from it.
+	 */
+	Identity((byte)2),
+	
+	/**
+	 * Acknowledges a private message, only sent to clients which asked for receipts when connecting.
+	 * The payload is the message's number (private messages sent by each client are numbered from 1), the sender id identifies the recipient (0 if there wasn't one),
+	 * and the flags are 1 if the message was delivered, 0 if it wasn't.
+	 */
+	Receipt((byte)3),
+	
+	/**
+	 * Checks the client is still there, it should answer by sending MessageFrame.HeartbeatReply. The payload is empty.
+	 */
+	Heartbeat((byte)4);
+	
+	/**
+	 * The byte identifying this type in a frame's header.
+	 */
+	public final byte Code;
+	
+	FrameType(byte code)
+	{
+		Code = code;
+	}
+	
+	/**
+	 * Gets the type identified by a byte in a frame's header.
+	 *
+	 * @param code The byte from the header.
+	 * @return The matching type, null if the code is unknown (e.g. sent by a newer server).
+	 */
+	public static FrameType FromCode(byte code)
+	{
+		switch (code)
+		{
+			case 1:
+				return Message;
+			
+			case 2:
+				return Identity;
+			
+			case 3:
+				return Receipt;
+			
+			case 4:
+				return Heartbeat;
+			
+			default:
+				return null;
+		}
+	}
+}
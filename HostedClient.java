@@ -0,0 +1,216 @@
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Connects a client (e.g. a bot) to a server in the same process, in place of a socket.
+ * The client writes its lines here, each of which is relayed by the server as soon as it's complete, on the client's own thread.
+ * Frames queued for the client are decoded straight from its outbound queue and handed to it by a delivery thread.
+ * Nothing crosses the network / is formatted and parsed as text, so a hosted bot answers commands within microseconds rather than after two socket hops.
+ */
+class HostedClient extends Writer
+{
+	public final ClientData ClientData;
+	
+	private final Server Host;
+	private final Client Client;
+	private final Thread DeliveryThread;
+	
+	/**
+	 * The line being written by the client, only accessed while holding the lock on this writer.
+	 */
+	private final StringBuilder Line = new StringBuilder();
+	private boolean Closed = false;
+	
+	/**
+	 * Constructs a new HostedClient.
+	 * The client isn't registered until it sends its first response, see Client.TryConnectInProcess.
+	 *
+	 * @param server The server hosting the client.
+	 * @param clientData The server's data on the client.
+	 * @param client The client being hosted.
+	 */
+	public HostedClient(Server server, ClientData clientData, Client client)
+	{
+		Host = server;
+		ClientData = clientData;
+		Client = client;
+		
+		ClientData.Hosted = this;
+		DeliveryThread = new Thread(this::DeliverMessages, clientData.DisplayName + " Delivery Thread");
+		ClientData.MessageWritingThread = DeliveryThread;
+	}
+	
+	/**
+	 * Starts handing the client messages queued for it, including any queued while it was being registered.
+	 */
+	public void StartDeliveringMessages()
+	{
+		DeliveryThread.start();
+	}
+	
+	/**
+	 * Hands messages queued for the client to it until it's disconnected, in the order they were queued.
+	 * The server agrees to frames on a line of its own before sending any, which is skipped the same way a client connected through a socket reads it.
+	 */
+	private void DeliverMessages()
+	{
+		ByteBuffer[] batch = new ByteBuffer[Server.MaxMessagesPerWrite];
+		boolean agreedOnFrames = false;
+		try
+		{
+			while (!Thread.interrupted())
+			{
+				batch[0] = ClientData.TakeQueuedMessage();
+				int messageCount = 1 + ClientData.DrainQueuedMessages(batch, 1);
+				
+				// Counted as written once they've left the queue, nothing is written to a socket
+				long byteCount = 0;
+				for (int i = 0; i < messageCount; i++)
+				{
+					byteCount += batch[i].remaining();
+				}
+				Host.RecordWrites(ClientData, 0, messageCount, byteCount);
+				
+				for (int i = 0; i < messageCount; i++)
+				{
+					ByteBuffer message = batch[i];
+					batch[i] = null;
+					
+					if (!agreedOnFrames)
+					{
+						while (message.hasRemaining() && message.get() != '\n')
+						{
+							// Skipping the agreement, everything after it is frames
+						}
+						agreedOnFrames = true;
+					}
+					
+					// Messages can hold several frames, e.g. the introduction to everyone already connected
+					while (message.hasRemaining())
+					{
+						Client.OnFrameReceived(MessageFrame.Decode(message));
+					}
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Client is being disconnected
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			Host.DisconnectClient(ClientData);
+		}
+	}
+	
+	/**
+	 * Handles a complete line written by the client.
+	 * The first line is the client's first response, anything after that is relayed to other clients.
+	 *
+	 * @param line The line written, not including any line-termination characters.
+	 */
+	private void OnLineWritten(String line)
+	{
+		switch (ClientData.GetConnectionStatus())
+		{
+			case Connecting:
+				Host.RegisterClient(ClientData, line);
+				break;
+			
+			case Connected:
+				Host.ReceiveMessage(ClientData, line);
+				break;
+			
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Gathers characters written by the client into lines, handling each line once it's complete.
+	 *
+	 * @param chars The characters written.
+	 * @param offset The index of the first character to write.
+	 * @param length The number of characters to write.
+	 */
+	@Override
+	public void write(char[] chars, int offset, int length)
+	{
+		synchronized (lock)
+		{
+			if (Closed)
+			{
+				return;
+			}
+			
+			for (int i = offset; i < offset + length; i++)
+			{
+				if (chars[i] != '\n')
+				{
+					Line.append(chars[i]);
+					continue;
+				}
+				
+				// Not including a '\r' before the '\n'
+				int lineLength = Line.length();
+				if (lineLength > 0 && Line.charAt(lineLength - 1) == '\r')
+				{
+					Line.setLength(lineLength - 1);
+				}
+				
+				String line = Line.toString();
+				Line.setLength(0);
+				OnLineWritten(line);
+			}
+		}
+	}
+	
+	/**
+	 * Lines are handled as soon as they're complete, so there's never anything to flush.
+	 */
+	@Override
+	public void flush()
+	{
+	}
+	
+	/**
+	 * Disconnects the client from the server, called by the client when it closes its connection.
+	 * Calling this multiple times has no effect.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (lock)
+		{
+			if (Closed)
+			{
+				return;
+			}
+			Closed = true;
+		}
+		
+		Host.DisconnectClient(ClientData);
+	}
+	
+	/**
+	 * Stops delivering messages to the client, without waiting for it to happen.
+	 * The delivery thread disconnects the client once it stops.
+	 */
+	public void RequestDisconnect()
+	{
+		DeliveryThread.interrupt();
+	}
+	
+	/**
+	 * Lets the client know it's been disconnected by the server, after it's been removed from the list of connected clients.
+	 */
+	public void OnDisconnected()
+	{
+		DeliveryThread.interrupt();
+		Client.Disconnect();
+	}
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disconnects clients which haven't sent anything for too long, so connections which died without closing (e.g. the client's network dropped) don't hang around forever.
+ * Clients which answer heartbeats are sent one whenever they've been quiet for a third of the timeout, so only dead connections are ever silent for the whole timeout.
+ *
+ * Clients are kept in a timer wheel, a ring of slots each holding the clients to check at a given tick, so the cost of each tick only depends on the clients due then.
+ * Receiving from a client never touches the wheel, it only updates the client's last received time, which is checked (and the client rescheduled) once its slot comes round.
+ */
+class IdleReaper
+{
+	/**
+	 * The number of slots in the wheel, the wheel covers the whole timeout so no client is ever scheduled more than once round it.
+	 */
+	private static final int SlotCount = 64;
+	
+	private final Server Server;
+	private final long Timeout;
+	private final long HeartbeatInterval;
+	private final long TickLength;
+	private final ArrayList<ArrayList<ClientData>> Wheel = new ArrayList<>(SlotCount);
+	private int CurrentSlot = 0;
+	
+	/**
+	 * Clients added since the last tick, only the reaper's thread touches the wheel itself.
+	 */
+	private final Queue<ClientData> PendingClients = new ConcurrentLinkedQueue<>();
+	
+	private final Thread Thread;
+	
+	/**
+	 * Constructs a new IdleReaper, and starts its thread.
+	 *
+	 * @param server The server the clients are connected to.
+	 * @param timeout How long a client can be silent before being disconnected, in milliseconds.
+	 */
+	public IdleReaper(Server server, int timeout)
+	{
+		Server = server;
+		Timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+		HeartbeatInterval = Timeout / 3;
+		TickLength = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Timeout / SlotCount);
+		for (int i = 0; i < SlotCount; i++)
+		{
+			Wheel.add(new ArrayList<>());
+		}
+		
+		Thread = new Thread(this::Run, "Idle Reaper Thread");
+		
+		// The reaper only ever waits for its next tick, so there's no need to keep the program alive for it
+		Thread.setDaemon(true);
+		Thread.start();
+	}
+	
+	/**
+	 * Starts watching a newly registered client.
+	 *
+	 * @param clientData The client to watch.
+	 */
+	public void Add(ClientData clientData)
+	{
+		PendingClients.add(clientData);
+	}
+	
+	/**
+	 * Checks the clients in each slot as it comes round, until the thread is interrupted.
+	 */
+	private void Run()
+	{
+		try
+		{
+			while (!java.lang.Thread.interrupted())
+			{
+				TimeUnit.NANOSECONDS.sleep(TickLength);
+				
+				ClientData clientData;
+				while ((clientData = PendingClients.poll()) != null)
+				{
+					Schedule(clientData, HeartbeatInterval);
+				}
+				
+				CurrentSlot = (CurrentSlot + 1) % SlotCount;
+				ArrayList<ClientData> dueClients = Wheel.get(CurrentSlot);
+				if (dueClients.isEmpty())
+				{
+					continue;
+				}
+				
+				// Swapping in an empty slot, since checking clients may schedule them back into this one
+				Wheel.set(CurrentSlot, new ArrayList<>());
+				for (ClientData dueClient : dueClients)
+				{
+					Check(dueClient);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Server is shutting down
+		}
+	}
+	
+	/**
+	 * Checks how long a client has been silent, disconnecting it / sending it a heartbeat if needed, then schedules its next check.
+	 *
+	 * @param clientData The client to check.
+	 */
+	private void Check(ClientData clientData)
+	{
+		// Client has disconnected by itself, it's simply forgotten
+		if (clientData.GetConnectionStatus() != ClientConnectionStatus.Connected || clientData.Socket.isClosed())
+		{
+			return;
+		}
+		
+		long silentFor = System.nanoTime() - clientData.GetLastReceivedAt();
+		if (silentFor >= Timeout)
+		{
+			ConsoleIO.LogError("%s has not sent anything for %d ms, disconnecting.", clientData.DisplayName, TimeUnit.NANOSECONDS.toMillis(silentFor));
+			Server.RequestDisconnect(clientData);
+			return;
+		}
+		
+		// Heartbeats are repeated every interval until the client answers / times out
+		if (silentFor >= HeartbeatInterval)
+		{
+			if (clientData.AnswersHeartbeats())
+			{
+				Server.SendHeartbeat(clientData);
+			}
+			Schedule(clientData, Math.min(HeartbeatInterval, Timeout - silentFor));
+		}
+		else
+		{
+			Schedule(clientData, HeartbeatInterval - silentFor);
+		}
+	}
+	
+	/**
+	 * Puts a client in the slot it should next be checked in.
+	 *
+	 * @param clientData The client to schedule.
+	 * @param delay How long until the client should be checked, in nanoseconds.
+	 */
+	private void Schedule(ClientData clientData, long delay)
+	{
+		long ticks = Math.min(SlotCount - 1, Math.max(1, (delay + TickLength - 1) / TickLength));
+		Wheel.get((int)((CurrentSlot + ticks) % SlotCount)).add(clientData);
+	}
+	
+	/**
+	 * Stops the reaper's thread, clients are no longer checked.
+	 */
+	public void Stop()
+	{
+		Thread.interrupt();
+	}
+}
@@ -0,0 +1,524 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Everything a ChatBotClient knows, loaded from a data file and indexed so a message is answered with one lookup per word in it, however many intents there are.
+ * An intent is a question word and a keyword, answered with a response when a message contains both.
+ * Never changes once loaded, so a bot swaps in a new table to reload its knowledge, while any number of threads use the old one.
+ *
+ * The data file is made of sections, blank lines and lines starting with '#' are ignored:
+ * <ul>
+ * <li>[greetings] lists words which make a message a greeting, answered with one of them at random.</li>
+ * <li>[statements] lists responses to messages which are neither greetings nor questions, one is picked at random.</li>
+ * <li>Any other [word] is a question word, each line in it is 'keyword = response', with '* = response' used when none of its keywords are found.</li>
+ * </ul>
+ * Words are runs of letters / digits, matched ignoring case. When a message contains several question words / keywords, the one listed first wins.
+ */
+class IntentTable
+{
+	/**
+	 * The response given when a table has nothing better to say, e.g. when it has no statements.
+	 */
+	public static final String DefaultResponse = "...";
+	
+	/**
+	 * Answers to messages which are answered at random, see FindAnswer.
+	 */
+	public static final int Greeting = -1;
+	public static final int Statement = -2;
+	
+	/**
+	 * Each ASCII character in lowercase, or 0 for characters which aren't part of words.
+	 */
+	private static final char[] AsciiWordChars = new char[128];
+	
+	static
+	{
+		for (char c = 0; c < AsciiWordChars.length; c++)
+		{
+			AsciiWordChars[c] = Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : 0;
+		}
+	}
+	
+	/**
+	 * A table which knows nothing, answering everything with DefaultResponse.
+	 */
+	public static final IntentTable Empty = new IntentTable(new String[0], new String[0], new String[0], new int[] { 0 }, new String[0], new HashMap<>());
+	
+	private static final String GreetingsSection = "greetings";
+	private static final String StatementsSection = "statements";
+	private static final String GeneralKeyword = "*";
+	
+	/**
+	 * What a word found in a message means, it can be any combination of a greeting, a question word and a keyword.
+	 */
+	private static class Token
+	{
+		private boolean IsGreeting = false;
+		
+		/**
+		 * The question the word asks, -1 if it isn't a question word.
+		 */
+		private int Question = -1;
+		
+		/**
+		 * The intents the word is a keyword of, sorted.
+		 */
+		private int[] Intents = new int[0];
+		
+		/**
+		 * The number of entries in Intents which are used, only while the table is being read.
+		 */
+		private int IntentCount = 0;
+	}
+	
+	private final String[] Greetings;
+	private final String[] Statements;
+	
+	/**
+	 * The response to each question when none of its keywords are found, null if it doesn't have one.
+	 */
+	private final String[] GeneralResponses;
+	
+	/**
+	 * The intents of each question, intents are numbered in the order they're listed so each question's are [QuestionStarts[question], QuestionStarts[question + 1]).
+	 */
+	private final int[] QuestionStarts;
+	private final String[] Responses;
+	
+	/**
+	 * Every word which means something, in lowercase, in a hash table using linear probing (null marks an empty slot).
+	 * Words in a message are looked up while they're being read, without copying / lowercasing the message.
+	 */
+	private final String[] Words;
+	private final int[] WordHashes;
+	private final Token[] WordTokens;
+	private final int WordMask;
+	
+	private IntentTable(String[] greetings, String[] statements, String[] generalResponses, int[] questionStarts, String[] responses, HashMap<String, Token> tokens)
+	{
+		Greetings = greetings;
+		Statements = statements;
+		GeneralResponses = generalResponses;
+		QuestionStarts = questionStarts;
+		Responses = responses;
+		
+		// Keeping the table at most half full, so words which aren't in it are usually rejected by the first slot checked
+		int capacity = Integer.highestOneBit(Math.max(1, tokens.size()) * 2 - 1) * 2;
+		Words = new String[capacity];
+		WordHashes = new int[capacity];
+		WordTokens = new Token[capacity];
+		WordMask = capacity - 1;
+		for (Map.Entry<String, Token> token : tokens.entrySet())
+		{
+			int hash = token.getKey().hashCode();
+			int slot = Spread(hash) & WordMask;
+			while (Words[slot] != null)
+			{
+				slot = (slot + 1) & WordMask;
+			}
+			Words[slot] = token.getKey();
+			WordHashes[slot] = hash;
+			WordTokens[slot] = token.getValue();
+		}
+	}
+	
+	/**
+	 * Loads a table from a data file.
+	 *
+	 * @param path The path of the data file.
+	 * @return The table.
+	 * @throws IOException If the file couldn't be read / isn't a valid table, the message says which line is wrong.
+	 */
+	public static IntentTable Load(Path path) throws IOException
+	{
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+		{
+			return Read(reader, path.toString());
+		}
+	}
+	
+	/**
+	 * Reads a table in the same format as a data file.
+	 *
+	 * @param reader Where to read the table from.
+	 * @param source A description of where the table is from, for error messages.
+	 * @return The table.
+	 * @throws IOException If the table couldn't be read / isn't valid.
+	 */
+	public static IntentTable Read(BufferedReader reader, String source) throws IOException
+	{
+		ArrayList<String> greetings = new ArrayList<>();
+		ArrayList<String> statements = new ArrayList<>();
+		ArrayList<String> generalResponses = new ArrayList<>();
+		ArrayList<Integer> questionStarts = new ArrayList<>();
+		ArrayList<String> responses = new ArrayList<>();
+		HashMap<String, Token> tokens = new HashMap<>();
+		
+		String section = null;
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#"))
+			{
+				continue;
+			}
+			
+			// Starting a new section
+			if (line.startsWith("[") && line.endsWith("]"))
+			{
+				section = ToWord(line.substring(1, line.length() - 1).trim());
+				if (section == null)
+				{
+					throw new IOException(String.format("%s:%d: '%s' isn't a valid section, sections are a single word.", source, lineNumber, line));
+				}
+				
+				if (section.equals(GreetingsSection) || section.equals(StatementsSection))
+				{
+					continue;
+				}
+				
+				Token question = tokens.computeIfAbsent(section, word -> new Token());
+				if (question.Question >= 0)
+				{
+					throw new IOException(String.format("%s:%d: [%s] is listed more than once.", source, lineNumber, section));
+				}
+				question.Question = generalResponses.size();
+				generalResponses.add(null);
+				questionStarts.add(responses.size());
+				continue;
+			}
+			
+			if (section == null)
+			{
+				throw new IOException(String.format("%s:%d: '%s' needs to be in a section.", source, lineNumber, line));
+			}
+			
+			switch (section)
+			{
+				case GreetingsSection:
+					String greeting = ToWord(line);
+					if (greeting == null)
+					{
+						throw new IOException(String.format("%s:%d: '%s' isn't a valid greeting, greetings are a single word.", source, lineNumber, line));
+					}
+					tokens.computeIfAbsent(greeting, word -> new Token()).IsGreeting = true;
+					greetings.add(line);
+					break;
+				
+				case StatementsSection:
+					statements.add(line);
+					break;
+				
+				default:
+					int separator = line.indexOf('=');
+					String keyword = separator >= 0 ? line.substring(0, separator).trim() : "";
+					String response = separator >= 0 ? line.substring(separator + 1).trim() : "";
+					if (!keyword.equals(GeneralKeyword))
+					{
+						keyword = ToWord(keyword);
+					}
+					if (response.isEmpty() || keyword == null)
+					{
+						throw new IOException(String.format("%s:%d: '%s' isn't a valid intent, intents are 'keyword = response' with a single word / '*' as the keyword.", source, lineNumber, line));
+					}
+					
+					int question = generalResponses.size() - 1;
+					if (keyword.equals(GeneralKeyword))
+					{
+						if (generalResponses.get(question) == null)
+						{
+							generalResponses.set(question, response);
+						}
+						break;
+					}
+					
+					// Only the first response to a keyword is ever used
+					Token token = tokens.computeIfAbsent(keyword, word -> new Token());
+					if (token.IntentCount > 0 && token.Intents[token.IntentCount - 1] >= questionStarts.get(question))
+					{
+						break;
+					}
+					
+					// Growing the keyword's intents as needed, they're trimmed to size once everything is read
+					if (token.IntentCount == token.Intents.length)
+					{
+						token.Intents = Arrays.copyOf(token.Intents, Math.max(1, token.IntentCount * 2));
+					}
+					token.Intents[token.IntentCount++] = responses.size();
+					responses.add(response);
+					break;
+			}
+		}
+		
+		for (Token token : tokens.values())
+		{
+			token.Intents = Arrays.copyOf(token.Intents, token.IntentCount);
+		}
+		
+		int[] starts = new int[questionStarts.size() + 1];
+		for (int i = 0; i < questionStarts.size(); i++)
+		{
+			starts[i] = questionStarts.get(i);
+		}
+		starts[questionStarts.size()] = responses.size();
+		
+		return new IntentTable(greetings.toArray(new String[0]), statements.toArray(new String[0]), generalResponses.toArray(new String[0]), starts, responses.toArray(new String[0]), tokens);
+	}
+	
+	/**
+	 * Lowercases a character if it can be part of a word.
+	 *
+	 * @param c The character.
+	 * @return The character in lowercase, 0 if it isn't a letter / digit.
+	 */
+	private static char ToWordChar(char c)
+	{
+		if (c < 128)
+		{
+			return AsciiWordChars[c];
+		}
+		
+		return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : 0;
+	}
+	
+	/**
+	 * Lowercases a string if it's a single word, made only of letters / digits.
+	 * Lowercased a character at a time, the same way words in messages are.
+	 *
+	 * @param text The string.
+	 * @return The string in lowercase, null if it isn't a single word.
+	 */
+	private static String ToWord(String text)
+	{
+		if (text.isEmpty())
+		{
+			return null;
+		}
+		
+		char[] word = new char[text.length()];
+		for (int i = 0; i < word.length; i++)
+		{
+			word[i] = ToWordChar(text.charAt(i));
+			if (word[i] == 0)
+			{
+				return null;
+			}
+		}
+		
+		return new String(word);
+	}
+	
+	/**
+	 * Spreads a word's hash, so words whose hashes only differ in their high bits use different slots.
+	 *
+	 * @param hash The word's hash.
+	 * @return The spread hash.
+	 */
+	private static int Spread(int hash)
+	{
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Looks up a word in a message.
+	 *
+	 * @param message The message containing the word.
+	 * @param start The index of the word's first character.
+	 * @param end The index after the word's last character.
+	 * @param hash The hash of the word in lowercase, the same as String.hashCode.
+	 * @return What the word means, null if it doesn't mean anything.
+	 */
+	private Token FindToken(String message, int start, int end, int hash)
+	{
+		for (int slot = Spread(hash) & WordMask; Words[slot] != null; slot = (slot + 1) & WordMask)
+		{
+			String word = Words[slot];
+			if (WordHashes[slot] != hash || word.length() != end - start)
+			{
+				continue;
+			}
+			
+			int i = 0;
+			while (i < word.length() && word.charAt(i) == ToWordChar(message.charAt(start + i)))
+			{
+				i++;
+			}
+			if (i == word.length())
+			{
+				return WordTokens[slot];
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Gets the number of intents in the table.
+	 *
+	 * @return The number of intents, not counting general responses.
+	 */
+	public int GetIntentCount()
+	{
+		return Responses.length;
+	}
+	
+	/**
+	 * Creates a response to a message, looking up each word in it once.
+	 * Greetings are answered with a greeting, questions with the response to the first keyword listed for the first question word listed,
+	 * and anything else with a statement.
+	 *
+	 * @param message The message to respond to.
+	 * @param rng Used to pick greetings / statements.
+	 * @return A response to the message.
+	 */
+	public String CreateResponse(String message, Random rng)
+	{
+		return GetResponse(FindAnswer(message), rng);
+	}
+	
+	/**
+	 * Works out how to answer a message, looking up each word in it once, see CreateResponse.
+	 *
+	 * @param message The message to answer.
+	 * @return Greeting / Statement for messages answered at random, otherwise the answer's id (only meaningful to this table).
+	 *         Answers with an id always get the same response.
+	 */
+	public int FindAnswer(String message)
+	{
+		boolean isGreeting = false;
+		int question = Integer.MAX_VALUE;
+		
+		// Keywords found, only kept until the question is known
+		Token[] keywords = null;
+		int keywordCount = 0;
+		
+		// Looking up each word as soon as it's been read
+		int length = message.length();
+		int i = 0;
+		while (i < length)
+		{
+			char c = ToWordChar(message.charAt(i));
+			if (c == 0)
+			{
+				i++;
+				continue;
+			}
+			
+			int start = i;
+			int hash = 0;
+			do
+			{
+				hash = 31 * hash + c;
+				i++;
+			}
+			while (i < length && (c = ToWordChar(message.charAt(i))) != 0);
+			
+			Token token = FindToken(message, start, i, hash);
+			if (token == null)
+			{
+				continue;
+			}
+			
+			isGreeting |= token.IsGreeting;
+			if (token.Question >= 0 && token.Question < question)
+			{
+				question = token.Question;
+			}
+			if (token.Intents.length > 0)
+			{
+				if (keywords == null || keywordCount == keywords.length)
+				{
+					keywords = keywords == null ? new Token[4] : Arrays.copyOf(keywords, keywordCount * 2);
+				}
+				keywords[keywordCount++] = token;
+			}
+		}
+		
+		if (isGreeting)
+		{
+			return Greeting;
+		}
+		
+		// If it's neither a greeting or a question, it's a statement
+		if (question == Integer.MAX_VALUE)
+		{
+			return Statement;
+		}
+		
+		// Finding the first keyword listed for the question, each keyword's intents are sorted so only the first one in the question's range is checked
+		int questionStart = QuestionStarts[question];
+		int questionEnd = QuestionStarts[question + 1];
+		int intent = questionEnd;
+		for (int k = 0; k < keywordCount; k++)
+		{
+			Token keyword = keywords[k];
+			int index = Arrays.binarySearch(keyword.Intents, questionStart);
+			index = index >= 0 ? index : -index - 1;
+			if (index < keyword.Intents.length && keyword.Intents[index] < intent)
+			{
+				intent = keyword.Intents[index];
+			}
+		}
+		
+		// Questions without any of their keywords are answered by their general response, numbered after every intent
+		return intent < questionEnd ? intent : Responses.length + question;
+	}
+	
+	/**
+	 * Gets the response to an answer found by FindAnswer.
+	 *
+	 * @param answer The answer.
+	 * @param rng Used to pick greetings / statements.
+	 * @return The response.
+	 */
+	public String GetResponse(int answer, Random rng)
+	{
+		if (answer == Greeting)
+		{
+			return PickRandom(Greetings, rng);
+		}
+		
+		if (answer == Statement)
+		{
+			return PickRandom(Statements, rng);
+		}
+		
+		if (answer < Responses.length)
+		{
+			return Responses[answer];
+		}
+		
+		String generalResponse = GeneralResponses[answer - Responses.length];
+		return generalResponse != null ? generalResponse : DefaultResponse;
+	}
+	
+	/**
+	 * Picks one of some responses at random.
+	 * Like the bot always has, the last response is never picked (unless it's the only one).
+	 *
+	 * @param responses The responses to pick from.
+	 * @param rng Used to pick the response.
+	 * @return The response picked, DefaultResponse if there are none.
+	 */
+	private static String PickRandom(String[] responses, Random rng)
+	{
+		if (responses.length == 0)
+		{
+			return DefaultResponse;
+		}
+		
+		return responses[rng.nextInt(Math.max(1, responses.length - 1))];
+	}
+}
@@ -0,0 +1,147 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies in microseconds, so percentiles can be read without keeping every value.
+ * Buckets are log-linear (in the style of HdrHistogram), every power of 2 is split into 16 buckets, so any value is recorded within about 6% of its actual value.
+ * Recording never locks, each value is a single atomic increment.
+ */
+class LatencyHistogram
+{
+	/**
+	 * Values below this each have a bucket of their own.
+	 */
+	private static final int LinearBucketCount = 32;
+	private static final int SubBucketBits = 4;
+	private static final int SubBucketCount = 1 << SubBucketBits;
+	
+	/**
+	 * Covers values up to about an hour, larger values are recorded in the last bucket.
+	 */
+	private static final int MaxShift = 28;
+	private static final int BucketCount = LinearBucketCount + MaxShift * SubBucketCount;
+	
+	private final AtomicLongArray Buckets = new AtomicLongArray(BucketCount);
+	private final LongAdder Count = new LongAdder();
+	private final LongAdder Sum = new LongAdder();
+	private final AtomicLong Max = new AtomicLong();
+	
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos The latency in nanoseconds.
+	 */
+	public void Record(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+		Buckets.incrementAndGet(GetBucketIndex(micros));
+		Count.increment();
+		Sum.add(micros);
+		Max.accumulateAndGet(micros, Math::max);
+	}
+	
+	/**
+	 * Gets the number of latencies recorded.
+	 *
+	 * @return The number of values recorded.
+	 */
+	public long GetCount()
+	{
+		return Count.sum();
+	}
+	
+	/**
+	 * Gets the mean latency.
+	 *
+	 * @return The mean in microseconds, 0 if nothing has been recorded.
+	 */
+	public double GetMean()
+	{
+		long count = Count.sum();
+		return count > 0 ? (double)Sum.sum() / count : 0;
+	}
+	
+	/**
+	 * Gets the largest latency recorded.
+	 *
+	 * @return The maximum in microseconds.
+	 */
+	public long GetMax()
+	{
+		return Max.get();
+	}
+	
+	/**
+	 * Gets the latency which a given percentage of recorded latencies are at or below.
+	 *
+	 * @param percentile The percentage, e.g. 99.9.
+	 * @return The highest value in the bucket the percentile falls in, in microseconds. 0 if nothing has been recorded.
+	 */
+	public long GetPercentile(double percentile)
+	{
+		long count = 0;
+		for (int i = 0; i < BucketCount; i++)
+		{
+			count += Buckets.get(i);
+		}
+		if (count == 0)
+		{
+			return 0;
+		}
+		
+		long target = Math.max(1, (long)Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BucketCount; i++)
+		{
+			seen += Buckets.get(i);
+			if (seen >= target)
+			{
+				return Math.min(GetBucketUpperBound(i), GetMax());
+			}
+		}
+		
+		return GetMax();
+	}
+	
+	/**
+	 * Works out which bucket a value is recorded in.
+	 *
+	 * @param micros The value in microseconds.
+	 * @return The bucket's index.
+	 */
+	private static int GetBucketIndex(long micros)
+	{
+		if (micros < LinearBucketCount)
+		{
+			return (int)micros;
+		}
+		
+		// Keeping the top bits of the value, the bucket is picked by how far it had to be shifted and what's left
+		int shift = 64 - Long.numberOfLeadingZeros(micros) - (SubBucketBits + 1);
+		if (shift > MaxShift)
+		{
+			return BucketCount - 1;
+		}
+		
+		return LinearBucketCount + (shift - 1) * SubBucketCount + (int)((micros >> shift) - SubBucketCount);
+	}
+	
+	/**
+	 * Works out the highest value recorded in a bucket.
+	 *
+	 * @param index The bucket's index.
+	 * @return The highest value in microseconds.
+	 */
+	private static long GetBucketUpperBound(int index)
+	{
+		if (index < LinearBucketCount)
+		{
+			return index;
+		}
+		
+		int shift = (index - LinearBucketCount) / SubBucketCount + 1;
+		long subBucket = (index - LinearBucketCount) % SubBucketCount + SubBucketCount;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
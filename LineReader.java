@@ -0,0 +1,113 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads lines from a stream, blocking until a whole line is available.
+ * Unlike polling the stream, a blocked read costs nothing while waiting, and can still be cancelled from another thread by closing the reader.
+ * Readers of interruptible channels (e.g. the console's FileChannel) are also cancelled by interrupting the reading thread.
+ * Not synchronised, only one thread should read from a LineReader at a time.
+ */
+public class LineReader implements Closeable
+{
+	private final InputStream InputStream;
+	private final Charset Charset;
+	
+	private byte[] Buffer = new byte[8192];
+	private int LineStart = 0;
+	private int ScanPosition = 0;
+	private int BufferEnd = 0;
+	
+	/**
+	 * Creates a reader which decodes lines using the platform's default charset.
+	 *
+	 * @param inputStream The stream to read from.
+	 */
+	public LineReader(InputStream inputStream)
+	{
+		this(inputStream, java.nio.charset.Charset.defaultCharset());
+	}
+	
+	/**
+	 * Creates a reader which decodes lines using a given charset.
+	 *
+	 * @param inputStream The stream to read from.
+	 * @param charset The charset used to decode lines, '\n' must be encoded as a single byte.
+	 */
+	public LineReader(InputStream inputStream, Charset charset)
+	{
+		InputStream = inputStream;
+		Charset = charset;
+	}
+	
+	/**
+	 * Blocks until a whole line has been read.
+	 *
+	 * @return A String containing the contents of the line, not including any line-termination characters, or null if the end of the stream has been reached without reading any characters.
+	 * @throws IOException If an I/O error occurs, including the reader being closed / the thread being interrupted while blocked.
+	 */
+	public String ReadLine() throws IOException
+	{
+		while (true)
+		{
+			// Checking for a whole line in what's already been read
+			for (; ScanPosition < BufferEnd; ScanPosition++)
+			{
+				if (Buffer[ScanPosition] == '\n')
+				{
+					// Not including any line-termination characters
+					int lineEnd = ScanPosition > LineStart && Buffer[ScanPosition - 1] == '\r' ? ScanPosition - 1 : ScanPosition;
+					String line = new String(Buffer, LineStart, lineEnd - LineStart, Charset);
+					
+					ScanPosition++;
+					LineStart = ScanPosition;
+					return line;
+				}
+			}
+			
+			// Moving the partial line to the front of the buffer, growing the buffer if the line fills it
+			if (LineStart > 0)
+			{
+				System.arraycopy(Buffer, LineStart, Buffer, 0, BufferEnd - LineStart);
+				ScanPosition -= LineStart;
+				BufferEnd -= LineStart;
+				LineStart = 0;
+			}
+			if (BufferEnd == Buffer.length)
+			{
+				Buffer = Arrays.copyOf(Buffer, Buffer.length * 2);
+			}
+			
+			// Blocks until more is available
+			int bytesRead = InputStream.read(Buffer, BufferEnd, Buffer.length - BufferEnd);
+			if (bytesRead == -1)
+			{
+				// Returning whatever's left as the last line
+				if (BufferEnd > LineStart)
+				{
+					String line = new String(Buffer, LineStart, BufferEnd - LineStart, Charset);
+					LineStart = ScanPosition = BufferEnd;
+					return line;
+				}
+				
+				return null;
+			}
+			
+			BufferEnd += bytesRead;
+		}
+	}
+	
+	/**
+	 * Closes the underlying stream, any thread blocked reading from it is woken up with an IOException.
+	 * This must be called from a thread other than the one being blocked.
+	 *
+	 * @throws IOException If an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		InputStream.close();
+	}
+}
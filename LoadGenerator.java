@@ -0,0 +1,873 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a simulated client does once connected.
+ */
+enum LoadRole
+{
+	/**
+	 * Connects as a ChatClient, sends timestamped chat messages and measures how long everyone's messages take to arrive.
+	 */
+	Chat("ChatClient"),
+	
+	/**
+	 * Connects as a ChatBot, only receiving messages and measuring how long they take to arrive.
+	 */
+	Bot("ChatBot"),
+	
+	/**
+	 * Connects as a ChatClient playing DoD, sending commands from a script and measuring how long the DoD bot takes to answer them.
+	 */
+	DoD("ChatClient");
+	
+	public final String FirstResponse;
+	
+	LoadRole(String firstResponse)
+	{
+		FirstResponse = firstResponse;
+	}
+}
+
+/**
+ * A connection simulating a single client, only accessed by the generator's thread.
+ */
+class LoadConnection
+{
+	public final LoadRole Role;
+	public final SocketChannel Channel;
+	public SelectionKey Key;
+	public ByteBuffer ReadBuffer = ByteBuffer.allocate(8 * 1024);
+	
+	/**
+	 * Lines waiting to be written, kept in write mode, sends are skipped while it's too full to hold another.
+	 */
+	public final ByteBuffer WriteBuffer = ByteBuffer.allocate(64 * 1024);
+	
+	/**
+	 * When the next message should be sent in System.nanoTime, messages are timestamped with this rather than when they're actually sent, so a slow generator still shows up as latency.
+	 */
+	public long NextSendAt;
+	public int ScriptIndex = 0;
+	
+	/**
+	 * When the last DoD command was sent, 0 once it's been answered.
+	 */
+	public long CommandSentAt = 0;
+	
+	public LoadConnection(LoadRole role, SocketChannel channel)
+	{
+		Role = role;
+		Channel = channel;
+	}
+}
+
+/**
+ * Drives a server with many simulated clients, for soak and throughput testing without opening a terminal per client.
+ * Every connection is handled by a single non-blocking IO thread, so thousands of clients can be simulated from one process.
+ * Chat messages carry the time they were meant to be sent, so each receiver can measure how long they took to arrive.
+ */
+public class LoadGenerator
+{
+	/**
+	 * Marks chat messages sent by a load generator, '[tag] [sentAt] [padding]'.
+	 */
+	private static final String MessageTag = "LG";
+	
+	/**
+	 * Commands DoD players send when no script is given, the first is only sent once.
+	 */
+	private static final String[] DefaultDoDScript = { "!dod join", "!dod hello", "!dod gold", "!dod look", "!dod move n", "!dod move e", "!dod move s", "!dod move w", "!dod pickup" };
+	
+	private final InetAddress ServerAddress;
+	private final int ServerPort;
+	private final Charset MessageCharset = Charset.defaultCharset();
+	private int ClientCount = 10;
+	private int[] RoleWeights = { 1, 0, 0 };
+	private double MessagesPerSecond = 1;
+	private double CommandsPerSecond = 1;
+	private int PayloadSize = 64;
+	private int ChannelCount = 1;
+	private int Duration = 30;
+	private int Warmup = 5;
+	private String[] DoDScript = DefaultDoDScript;
+	
+	private final List<LoadConnection> Connections = new ArrayList<>();
+	private final PriorityQueue<LoadConnection> SendSchedule = new PriorityQueue<>(Comparator.comparingLong((LoadConnection connection) -> connection.NextSendAt));
+	private final EnumMap<LoadRole, LatencyHistogram> Latencies = new EnumMap<>(LoadRole.class);
+	private Selector Selector;
+	
+	/**
+	 * Counted since the warmup ended, only accessed by the generator's thread.
+	 */
+	private boolean Measuring = false;
+	private long SentCount = 0;
+	private long ReceivedCount = 0;
+	private long SkippedCount = 0;
+	private long UnansweredCount = 0;
+	private int DisconnectedCount = 0;
+	
+	/**
+	 * Counted since the last report, including during the warmup.
+	 */
+	private long IntervalSentCount = 0;
+	private long IntervalReceivedCount = 0;
+	
+	/**
+	 * Constructs a new LoadGenerator.
+	 *
+	 * @param serverAddress The address of the server.
+	 * @param serverPort The port the server is listening on.
+	 */
+	public LoadGenerator(InetAddress serverAddress, int serverPort)
+	{
+		ServerAddress = serverAddress;
+		ServerPort = serverPort;
+		for (LoadRole role : LoadRole.values())
+		{
+			Latencies.put(role, new LatencyHistogram());
+		}
+	}
+	
+	/**
+	 * Entry point of the program.
+	 * @param args Arguments passed in when ran from the command line.
+	 *             <ul>
+	 *             <li>-ccp [int] specifies the port to connect to (defaults to 14001)</li>
+	 *             <li>-cca [IP] specifies the address to connect to (defaults to localhost)</li>
+	 *             <li>-clients [int] specifies how many clients to simulate (defaults to 10)</li>
+	 *             <li>-mix [chat]:[bot]:[dod] specifies the relative number of chatting clients, listening chat bots and DoD players, e.g. 8:1:1 (defaults to 1:0:0)</li>
+	 *             <li>-rate [messages/sec] specifies how many messages each chatting client sends per second, 0 only listens (defaults to 1)</li>
+	 *             <li>-dodrate [commands/sec] specifies how many commands each DoD player sends per second, a DoD client needs to be connected to the players' channel to answer them (defaults to 1)</li>
+	 *             <li>-size [int] specifies the size of each chat message in bytes (defaults to 64)</li>
+	 *             <li>-channels [int] spreads the clients over this many channels ('load0', 'load1'...), 1 keeps them all in the server's default channel (defaults to 1)</li>
+	 *             <li>-dodscript [file] specifies a file of DoD commands for players to send, one per line, the first is only sent once (defaults to joining then looking / moving around)</li>
+	 *             <li>-duration [int] specifies how many seconds to measure for (defaults to 30)</li>
+	 *             <li>-warmup [int] specifies how many seconds to run before measuring (defaults to 5)</li>
+	 *             </ul>
+	 */
+	public static void main(String[] args)
+	{
+		int serverPort = 14001;
+		InetAddress serverAddress = InetAddress.getLoopbackAddress();
+		
+		// Parsing the address / port first, they're needed to create the generator
+		for (int i = 0; i + 1 < args.length; i++)
+		{
+			if (args[i].equals("-ccp") && args[i + 1].matches("^\\d+$"))
+			{
+				serverPort = Integer.parseInt(args[i + 1]);
+			}
+			else if (args[i].equals("-cca"))
+			{
+				try
+				{
+					serverAddress = InetAddress.getByName(args[i + 1]);
+				}
+				catch (UnknownHostException e)
+				{
+					ConsoleIO.LogError("-cca must come before a valid IP address.");
+					System.exit(1);
+				}
+			}
+		}
+		LoadGenerator generator = new LoadGenerator(serverAddress, serverPort);
+		
+		// Parsing arguments
+		for (int i = 0; i < args.length; i++)
+		{
+			switch (args[i])
+			{
+				// Already parsed
+				case "-ccp":
+				case "-cca":
+					i++; // Skipping next arg
+					break;
+				
+				// Set the number of clients to simulate
+				case "-clients":
+					generator.SetClientCount(ParsePositiveInt(args, i));
+					i++; // Skipping next arg
+					break;
+				
+				// Set the mix of roles
+				case "-mix":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+:\\d+:\\d+$") && !args[i + 1].matches("^0+:0+:0+$"))
+					{
+						String[] weights = args[i + 1].split(":");
+						generator.SetRoleMix(Integer.parseInt(weights[0]), Integer.parseInt(weights[1]), Integer.parseInt(weights[2]));
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-mix must come before three non-negative integers, e.g. 8:1:1.");
+						System.exit(1);
+					}
+					break;
+				
+				// Set how quickly chatting clients send messages
+				case "-rate":
+					generator.SetMessageRate(ParseRate(args, i));
+					i++; // Skipping next arg
+					break;
+				
+				// Set how quickly DoD players send commands
+				case "-dodrate":
+					generator.SetCommandRate(ParseRate(args, i));
+					i++; // Skipping next arg
+					break;
+				
+				// Set the size of each message
+				case "-size":
+					generator.SetPayloadSize(ParsePositiveInt(args, i));
+					i++; // Skipping next arg
+					break;
+				
+				// Set the number of channels
+				case "-channels":
+					generator.SetChannelCount(ParsePositiveInt(args, i));
+					i++; // Skipping next arg
+					break;
+				
+				// Set the commands DoD players send
+				case "-dodscript":
+					if (i + 1 < args.length && !generator.TrySetDoDScript(args[i + 1]))
+					{
+						System.exit(1);
+					}
+					i++; // Skipping next arg
+					break;
+				
+				// Set how long to measure for
+				case "-duration":
+					generator.SetDuration(ParsePositiveInt(args, i), generator.Warmup);
+					i++; // Skipping next arg
+					break;
+				
+				// Set how long to run before measuring
+				case "-warmup":
+					if (i + 1 < args.length && args[i + 1].matches("^\\d+$"))
+					{
+						generator.SetDuration(generator.Duration, Integer.parseInt(args[i + 1]));
+						i++; // Skipping next arg
+					}
+					else
+					{
+						ConsoleIO.LogError("-warmup must come before a non-negative integer.");
+						System.exit(1);
+					}
+					break;
+				
+				default:
+					ConsoleIO.LogError("%s is an unrecognised argument.", args[i]);
+					System.exit(1);
+					break;
+			}
+		}
+		
+		try
+		{
+			generator.Run();
+		}
+		catch (IOException e)
+		{
+			ConsoleIO.LogError("Load generator failed: %s", e.getMessage());
+			ConsoleIO.FlushLogs();
+			System.exit(1);
+		}
+		ConsoleIO.FlushLogs();
+	}
+	
+	/**
+	 * Parses the positive integer following an argument, exiting if there isn't one.
+	 *
+	 * @param args Arguments passed in when ran from the command line.
+	 * @param i The index of the argument.
+	 * @return The integer following the argument.
+	 */
+	private static int ParsePositiveInt(String[] args, int i)
+	{
+		if (i + 1 < args.length && args[i + 1].matches("^[1-9]\\d*$"))
+		{
+			return Integer.parseInt(args[i + 1]);
+		}
+		
+		ConsoleIO.LogError("%s must come before a positive integer.", args[i]);
+		ConsoleIO.FlushLogs();
+		System.exit(1);
+		return 0;
+	}
+	
+	/**
+	 * Parses the rate following an argument, exiting if there isn't one.
+	 *
+	 * @param args Arguments passed in when ran from the command line.
+	 * @param i The index of the argument.
+	 * @return The rate following the argument.
+	 */
+	private static double ParseRate(String[] args, int i)
+	{
+		if (i + 1 < args.length && args[i + 1].matches("^\\d+(\\.\\d+)?$"))
+		{
+			return Double.parseDouble(args[i + 1]);
+		}
+		
+		ConsoleIO.LogError("%s must come before a non-negative number.", args[i]);
+		ConsoleIO.FlushLogs();
+		System.exit(1);
+		return 0;
+	}
+	
+	/**
+	 * Sets how many clients are simulated.
+	 *
+	 * @param clientCount The number of connections to open.
+	 */
+	public void SetClientCount(int clientCount)
+	{
+		ClientCount = clientCount;
+	}
+	
+	/**
+	 * Sets the relative number of clients in each role, e.g. 8:1:1 makes 80% of clients chat.
+	 *
+	 * @param chat The weight of chatting clients.
+	 * @param bot The weight of listening chat bots.
+	 * @param dod The weight of DoD players.
+	 */
+	public void SetRoleMix(int chat, int bot, int dod)
+	{
+		RoleWeights = new int[] { chat, bot, dod };
+	}
+	
+	/**
+	 * Sets how many messages each chatting client sends per second.
+	 *
+	 * @param messagesPerSecond The rate of each client, 0 to only listen.
+	 */
+	public void SetMessageRate(double messagesPerSecond)
+	{
+		MessagesPerSecond = messagesPerSecond;
+	}
+	
+	/**
+	 * Sets how many commands each DoD player sends per second.
+	 *
+	 * @param commandsPerSecond The rate of each player, 0 to only join.
+	 */
+	public void SetCommandRate(double commandsPerSecond)
+	{
+		CommandsPerSecond = commandsPerSecond;
+	}
+	
+	/**
+	 * Sets the size of each chat message, including its timestamp.
+	 *
+	 * @param payloadSize The size in bytes.
+	 */
+	public void SetPayloadSize(int payloadSize)
+	{
+		PayloadSize = payloadSize;
+	}
+	
+	/**
+	 * Sets how many channels the clients are spread over, so messages aren't all broadcast to every client.
+	 *
+	 * @param channelCount The number of channels, 1 keeps every client in the server's default channel.
+	 */
+	public void SetChannelCount(int channelCount)
+	{
+		ChannelCount = channelCount;
+	}
+	
+	/**
+	 * Sets how long the generator runs for.
+	 *
+	 * @param duration How long to measure for in seconds.
+	 * @param warmup How long to run before measuring in seconds, so connecting / the JIT don't skew the results.
+	 */
+	public void SetDuration(int duration, int warmup)
+	{
+		Duration = duration;
+		Warmup = warmup;
+	}
+	
+	/**
+	 * Reads the commands DoD players send from a file, one per line.
+	 *
+	 * @param path The path to the file.
+	 * @return Whether the script was read.
+	 */
+	public boolean TrySetDoDScript(String path)
+	{
+		try
+		{
+			String[] script = Files.readAllLines(Paths.get(path)).stream().map(String::trim).filter(line -> !line.isEmpty()).toArray(String[]::new);
+			if (script.length == 0)
+			{
+				ConsoleIO.LogError("%s has no commands.", path);
+				return false;
+			}
+			
+			DoDScript = script;
+			return true;
+		}
+		catch (IOException e)
+		{
+			ConsoleIO.LogError("Cannot read DoD script %s.", path);
+			return false;
+		}
+	}
+	
+	/**
+	 * Connects every client, then sends / receives messages until the warmup and duration have passed, reporting as it goes.
+	 *
+	 * @throws IOException If the selector couldn't be opened.
+	 */
+	public void Run() throws IOException
+	{
+		Selector = java.nio.channels.Selector.open();
+		try
+		{
+			ConnectClients();
+			
+			long now = System.nanoTime();
+			long measureAt = now + TimeUnit.SECONDS.toNanos(Warmup);
+			long endAt = measureAt + TimeUnit.SECONDS.toNanos(Duration);
+			long reportAt = now + TimeUnit.SECONDS.toNanos(1);
+			ConsoleIO.Log("Warming up for %d s, then measuring for %d s...", Warmup, Duration);
+			
+			while (now < endAt)
+			{
+				if (!Measuring && now >= measureAt)
+				{
+					Measuring = true;
+					ConsoleIO.Log("Warmup finished, measuring...");
+				}
+				
+				SendDueMessages(now);
+				
+				// Sleeping until the next message is due / the next report, unless something is read / becomes writable first
+				long wakeAt = Math.min(endAt, reportAt);
+				LoadConnection nextConnection = SendSchedule.peek();
+				if (nextConnection != null)
+				{
+					wakeAt = Math.min(wakeAt, nextConnection.NextSendAt);
+				}
+				long timeout = TimeUnit.NANOSECONDS.toMillis(wakeAt - System.nanoTime());
+				if (timeout > 0)
+				{
+					Selector.select(timeout);
+				}
+				else
+				{
+					Selector.selectNow();
+				}
+				
+				for (SelectionKey key : Selector.selectedKeys())
+				{
+					LoadConnection connection = (LoadConnection)key.attachment();
+					if (key.isValid() && key.isReadable())
+					{
+						Read(connection);
+					}
+					if (key.isValid() && key.isWritable())
+					{
+						Flush(connection);
+					}
+				}
+				Selector.selectedKeys().clear();
+				
+				now = System.nanoTime();
+				if (now >= reportAt)
+				{
+					ConsoleIO.Log("%d sent, %d received in the last second, %d connected", IntervalSentCount, IntervalReceivedCount, Connections.size() - DisconnectedCount);
+					IntervalSentCount = 0;
+					IntervalReceivedCount = 0;
+					reportAt += TimeUnit.SECONDS.toNanos(1);
+				}
+			}
+			
+			Report();
+		}
+		finally
+		{
+			for (LoadConnection connection : Connections)
+			{
+				connection.Channel.close();
+			}
+			Selector.close();
+		}
+	}
+	
+	/**
+	 * Opens every connection and sends its first response, spreading clients over the roles / channels.
+	 */
+	private void ConnectClients()
+	{
+		int totalWeight = Arrays.stream(RoleWeights).sum();
+		int failedCount = 0;
+		for (int i = 0; i < ClientCount; i++)
+		{
+			// Picking roles in proportion to their weights, a round of channels at a time so every channel gets a similar mix
+			LoadRole role = LoadRole.values()[0];
+			int position = (i / ChannelCount) % totalWeight;
+			for (LoadRole candidate : LoadRole.values())
+			{
+				if (position < RoleWeights[candidate.ordinal()])
+				{
+					role = candidate;
+					break;
+				}
+				position -= RoleWeights[candidate.ordinal()];
+			}
+			
+			// '[type] HEARTBEAT CHANNEL:[name]', heartbeats are answered so clients which only listen aren't disconnected as idle
+			StringBuilder firstResponse = new StringBuilder(role.FirstResponse).append(' ').append(MessageFrame.HeartbeatHandshakeToken);
+			if (ChannelCount > 1)
+			{
+				firstResponse.append(' ').append(Channel.HandshakeToken).append("load").append(i % ChannelCount);
+			}
+			
+			try
+			{
+				SocketChannel channel = SocketChannel.open(new InetSocketAddress(ServerAddress, ServerPort));
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				
+				LoadConnection connection = new LoadConnection(role, channel);
+				connection.Key = channel.register(Selector, SelectionKey.OP_READ, connection);
+				Connections.add(connection);
+				QueueLine(connection, firstResponse.toString());
+				
+				// Starting each client at a random point in its interval, so they don't all send at once
+				long interval = GetSendInterval(role);
+				if (interval > 0)
+				{
+					connection.NextSendAt = System.nanoTime() + ThreadLocalRandom.current().nextLong(interval);
+					SendSchedule.add(connection);
+				}
+			}
+			catch (IOException e)
+			{
+				failedCount++;
+			}
+		}
+		
+		ConsoleIO.Log("Connected %d of %d clients to %s:%d", Connections.size(), ClientCount, ServerAddress, ServerPort);
+		if (failedCount > 0)
+		{
+			ConsoleIO.LogError("%d clients failed to connect.", failedCount);
+		}
+	}
+	
+	/**
+	 * Gets how long clients in a role wait between sending messages.
+	 *
+	 * @param role The role of the client.
+	 * @return The interval in nanoseconds, 0 if the role never sends messages.
+	 */
+	private long GetSendInterval(LoadRole role)
+	{
+		double rate = role == LoadRole.Chat ? MessagesPerSecond : role == LoadRole.DoD ? CommandsPerSecond : 0;
+		return rate > 0 ? Math.max(1, (long)(TimeUnit.SECONDS.toNanos(1) / rate)) : 0;
+	}
+	
+	/**
+	 * Sends the next message of every client whose message is due.
+	 *
+	 * @param now The current time in System.nanoTime.
+	 */
+	private void SendDueMessages(long now)
+	{
+		LoadConnection connection;
+		while ((connection = SendSchedule.peek()) != null && connection.NextSendAt <= now)
+		{
+			SendSchedule.poll();
+			if (!connection.Channel.isOpen())
+			{
+				continue;
+			}
+			
+			String line;
+			if (connection.Role == LoadRole.DoD)
+			{
+				// Joining once, then cycling through the rest of the script
+				line = DoDScript[connection.ScriptIndex];
+				connection.ScriptIndex = DoDScript.length > 1 ? connection.ScriptIndex % (DoDScript.length - 1) + 1 : 0;
+				if (connection.CommandSentAt != 0 && Measuring)
+				{
+					UnansweredCount++;
+				}
+				connection.CommandSentAt = connection.NextSendAt;
+			}
+			else
+			{
+				line = CreateMessage(connection.NextSendAt);
+			}
+			
+			if (QueueLine(connection, line))
+			{
+				IntervalSentCount++;
+				if (Measuring)
+				{
+					SentCount++;
+				}
+			}
+			else if (Measuring)
+			{
+				SkippedCount++;
+			}
+			
+			connection.NextSendAt += GetSendInterval(connection.Role);
+			SendSchedule.add(connection);
+		}
+	}
+	
+	/**
+	 * Creates a chat message carrying the time it was meant to be sent, '[tag] [sentAt] [padding]'.
+	 *
+	 * @param sentAt When the message was meant to be sent, in System.nanoTime.
+	 * @return The message, padded to the payload size.
+	 */
+	private String CreateMessage(long sentAt)
+	{
+		StringBuilder message = new StringBuilder(PayloadSize).append(MessageTag).append(' ').append(sentAt).append(' ');
+		while (message.length() < PayloadSize)
+		{
+			message.append('x');
+		}
+		
+		return message.toString();
+	}
+	
+	/**
+	 * Queues a line to be written to a connection, writing it straight away if possible.
+	 *
+	 * @param connection The connection to write to.
+	 * @param line The line to write, without a line separator.
+	 * @return Whether the line was queued, it isn't if the server has fallen too far behind reading from the connection.
+	 */
+	private boolean QueueLine(LoadConnection connection, String line)
+	{
+		byte[] bytes = (line + '\n').getBytes(MessageCharset);
+		if (bytes.length > connection.WriteBuffer.remaining())
+		{
+			return false;
+		}
+		
+		connection.WriteBuffer.put(bytes);
+		Flush(connection);
+		return true;
+	}
+	
+	/**
+	 * Writes as much of a connection's queued lines as its channel will accept, waiting to be writable again for the rest.
+	 *
+	 * @param connection The connection to write to.
+	 */
+	private void Flush(LoadConnection connection)
+	{
+		ByteBuffer buffer = connection.WriteBuffer;
+		buffer.flip();
+		try
+		{
+			connection.Channel.write(buffer);
+		}
+		catch (IOException e)
+		{
+			buffer.clear();
+			Disconnect(connection);
+			return;
+		}
+		buffer.compact();
+		
+		if (connection.Key.isValid())
+		{
+			int interestOps = buffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+			if (connection.Key.interestOps() != interestOps)
+			{
+				connection.Key.interestOps(interestOps);
+			}
+		}
+	}
+	
+	/**
+	 * Reads whatever is available from a connection, handling each complete line.
+	 *
+	 * @param connection The connection to read from.
+	 */
+	private void Read(LoadConnection connection)
+	{
+		ByteBuffer buffer = connection.ReadBuffer;
+		int bytesRead;
+		try
+		{
+			bytesRead = connection.Channel.read(buffer);
+		}
+		catch (IOException e)
+		{
+			bytesRead = -1;
+		}
+		
+		if (bytesRead == -1)
+		{
+			Disconnect(connection);
+			return;
+		}
+		
+		long now = System.nanoTime();
+		buffer.flip();
+		int lineStart = 0;
+		for (int i = 0; i < buffer.limit(); i++)
+		{
+			if (buffer.get(i) == '\n')
+			{
+				HandleLine(connection, new String(buffer.array(), lineStart, i - lineStart, MessageCharset), now);
+				lineStart = i + 1;
+			}
+		}
+		buffer.position(lineStart);
+		buffer.compact();
+		
+		// Growing the buffer for lines longer than it
+		if (!buffer.hasRemaining())
+		{
+			ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			buffer.flip();
+			largerBuffer.put(buffer);
+			connection.ReadBuffer = largerBuffer;
+		}
+	}
+	
+	/**
+	 * Handles a line received by a client, measuring latency if it's a load generator's message / a DoD answer.
+	 *
+	 * @param connection The connection the line was received on.
+	 * @param line The line, '&lt;[senderName]&gt; [message]'.
+	 * @param now When the line was read, in System.nanoTime.
+	 */
+	private void HandleLine(LoadConnection connection, String line, long now)
+	{
+		if (line.equals(MessageFrame.HeartbeatHandshakeToken))
+		{
+			QueueLine(connection, MessageFrame.HeartbeatReply);
+			return;
+		}
+		
+		int bodyStart = line.indexOf("> ");
+		if (bodyStart == -1)
+		{
+			return;
+		}
+		bodyStart += 2;
+		
+		// '[tag] [sentAt] [padding]', DoD players only measure the bot's answers
+		if (line.startsWith(MessageTag + ' ', bodyStart))
+		{
+			if (connection.Role == LoadRole.DoD)
+			{
+				return;
+			}
+			
+			int timeStart = bodyStart + MessageTag.length() + 1;
+			int timeEnd = line.indexOf(' ', timeStart);
+			if (timeEnd == -1)
+			{
+				return;
+			}
+			
+			try
+			{
+				long sentAt = Long.parseLong(line.substring(timeStart, timeEnd));
+				IntervalReceivedCount++;
+				if (Measuring)
+				{
+					ReceivedCount++;
+					Latencies.get(connection.Role).Record(now - sentAt);
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				// Not one of ours after all
+			}
+		}
+		
+		// The DoD bot answers commands privately
+		else if (connection.Role == LoadRole.DoD && connection.CommandSentAt != 0 && line.startsWith("(DM)", bodyStart + MessageKind.Private.TextColour.length()))
+		{
+			IntervalReceivedCount++;
+			if (Measuring)
+			{
+				ReceivedCount++;
+				Latencies.get(LoadRole.DoD).Record(now - connection.CommandSentAt);
+			}
+			connection.CommandSentAt = 0;
+		}
+	}
+	
+	/**
+	 * Closes a connection the server has disconnected.
+	 *
+	 * @param connection The connection to close.
+	 */
+	private void Disconnect(LoadConnection connection)
+	{
+		if (!connection.Channel.isOpen())
+		{
+			return;
+		}
+		
+		DisconnectedCount++;
+		connection.Key.cancel();
+		try
+		{
+			connection.Channel.close();
+		}
+		catch (IOException e)
+		{
+			// Already closed
+		}
+	}
+	
+	/**
+	 * Logs what was measured, throughput and latency percentiles for each role.
+	 */
+	private void Report()
+	{
+		ConsoleIO.LogHighlight("Measured for %d s with %d clients (mix %d:%d:%d), %.1f messages/s each, %d byte messages, %d channel(s):",
+				Duration, Connections.size(), RoleWeights[0], RoleWeights[1], RoleWeights[2], MessagesPerSecond, PayloadSize, ChannelCount);
+		ConsoleIO.Log("%d sent (%.1f/s), %d received (%.1f/s), %d skipped as the server fell behind reading, %d DoD commands unanswered, %d disconnected",
+				SentCount, (double)SentCount / Duration, ReceivedCount, (double)ReceivedCount / Duration, SkippedCount, UnansweredCount, DisconnectedCount);
+		
+		for (LoadRole role : LoadRole.values())
+		{
+			LatencyHistogram latency = Latencies.get(role);
+			if (latency.GetCount() == 0)
+			{
+				continue;
+			}
+			
+			ConsoleIO.Log("%s %s latency (us): p50 %d, p90 %d, p99 %d, p99.9 %d, max %d, mean %.1f over %d messages",
+					role, role == LoadRole.DoD ? "response" : "delivery", latency.GetPercentile(50), latency.GetPercentile(90), latency.GetPercentile(99), latency.GetPercentile(99.9),
+					latency.GetMax(), latency.GetMean(), latency.GetCount());
+		}
+	}
+}
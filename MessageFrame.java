@@ -0,0 +1,195 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A length-prefixed binary frame, which the server sends instead of a text line to clients which asked for frames when connecting.
+ * Every field is at a fixed offset, so reading a frame never involves searching / splitting strings.
+ *
+ * <pre>
+ * | Type (1 byte) | Flags (1 byte) | Sender id (4 bytes) | Payload length (4 bytes) | Payload (UTF-8) |
+ * </pre>
+ *
+ * Integers are big-endian. Clients ask for frames by following their first response with a space and HandshakeToken, e.g. "ChatBot BIN1".
+ * A server which supports frames replies with HandshakeToken on its own line before sending any frames.
+ * Servers which don't will treat the client as a regular chatter and send text lines as usual.
+ */
+public class MessageFrame
+{
+	/**
+	 * Sent by the client after its first response to ask for frames, then by the server to agree to them.
+	 */
+	public static final String HandshakeToken = "BIN1";
+	
+	/**
+	 * Sent by the client after its first response to ask for a receipt frame after each private message it sends.
+	 */
+	public static final String ReceiptsHandshakeToken = "RECEIPTS";
+	
+	/**
+	 * Sent by the client after its first response to say it answers heartbeats.
+	 * The server then sends it a heartbeat whenever it's been quiet for a while, a Heartbeat frame if it uses frames, otherwise this token on its own line.
+	 */
+	public static final String HeartbeatHandshakeToken = "HEARTBEAT";
+	
+	/**
+	 * Sent by the client in answer to a heartbeat, the server never relays it.
+	 */
+	public static final String HeartbeatReply = "/heartbeat";
+	
+	/**
+	 * The number of bytes before a frame's payload.
+	 */
+	public static final int HeaderLength = 10;
+	
+	/**
+	 * Frames with longer payloads are rejected when read, so a corrupted header can't cause a huge allocation.
+	 */
+	public static final int MaxPayloadLength = 1 << 20;
+	
+	/**
+	 * The sender id used for messages from the server itself.
+	 */
+	public static final int ServerSenderId = 0;
+	
+	public final FrameType Type;
+	public final byte Flags;
+	public final int SenderId;
+	public final String Payload;
+	
+	/**
+	 * Creates a decoded frame.
+	 *
+	 * @param type What the frame contains, null if the type wasn't recognised.
+	 * @param flags Flags from the frame's header.
+	 * @param senderId The id of the client the frame is about.
+	 * @param payload The decoded payload.
+	 */
+	public MessageFrame(FrameType type, byte flags, int senderId, String payload)
+	{
+		Type = type;
+		Flags = flags;
+		SenderId = senderId;
+		Payload = payload;
+	}
+	
+	/**
+	 * Encodes a frame.
+	 *
+	 * @param type What the frame contains.
+	 * @param flags Flags to put in the frame's header.
+	 * @param senderId The id of the client the frame is about.
+	 * @param payload The payload, encoded as UTF-8.
+	 * @return A read-only buffer containing the whole frame. Duplicate it before handing it to more than one client.
+	 */
+	public static ByteBuffer Encode(FrameType type, byte flags, int senderId, String payload)
+	{
+		byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+		
+		ByteBuffer frame = ByteBuffer.allocate(HeaderLength + payloadBytes.length);
+		frame.put(type.Code);
+		frame.put(flags);
+		frame.putInt(senderId);
+		frame.putInt(payloadBytes.length);
+		frame.put(payloadBytes);
+		frame.flip();
+		return frame.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Blocks until a whole frame has been read.
+	 *
+	 * @param in The stream to read from.
+	 * @return The frame read, or null if the end of the stream was reached before a new frame started.
+	 * @throws IOException If an I/O error occurs, the stream ends part way through a frame, or the payload is too long.
+	 */
+	public static MessageFrame Read(DataInputStream in) throws IOException
+	{
+		int typeCode = in.read();
+		if (typeCode == -1)
+		{
+			return null;
+		}
+		
+		byte flags = in.readByte();
+		int senderId = in.readInt();
+		int payloadLength = in.readInt();
+		if (payloadLength < 0 || payloadLength > MaxPayloadLength)
+		{
+			throw new IOException(String.format("Frame payload length %d is out of range.", payloadLength));
+		}
+		
+		byte[] payload = new byte[payloadLength];
+		in.readFully(payload);
+		
+		return new MessageFrame(FrameType.FromCode((byte)typeCode), flags, senderId, new String(payload, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Decodes a whole frame from a buffer, e.g. one queued by a server for a client it hosts in the same process.
+	 *
+	 * @param buffer The buffer to read from, its position is moved past the frame.
+	 * @return The frame decoded.
+	 * @throws BufferUnderflowException If the buffer ends part way through the frame.
+	 * @throws IllegalArgumentException If the payload is too long.
+	 */
+	public static MessageFrame Decode(ByteBuffer buffer)
+	{
+		byte typeCode = buffer.get();
+		byte flags = buffer.get();
+		int senderId = buffer.getInt();
+		int payloadLength = buffer.getInt();
+		if (payloadLength < 0 || payloadLength > MaxPayloadLength)
+		{
+			throw new IllegalArgumentException(String.format("Frame payload length %d is out of range.", payloadLength));
+		}
+		
+		// Frames are queued as read-only buffers, so the payload has to be copied out rather than decoded from the buffer's array
+		byte[] payload = new byte[payloadLength];
+		buffer.get(payload);
+		
+		return new MessageFrame(FrameType.FromCode(typeCode), flags, senderId, new String(payload, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Reads a single line, one byte at a time so nothing after the line is consumed.
+	 * Used for reading the server's reply to the handshake, before knowing whether frames or text lines will follow.
+	 *
+	 * @param in The stream to read from.
+	 * @return The bytes of the line, not including any line-termination characters, or null if the end of the stream has been reached without reading any bytes.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static byte[] ReadLineBytes(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		
+		int b;
+		while ((b = in.read()) != '\n')
+		{
+			if (b == -1)
+			{
+				if (line.size() == 0)
+				{
+					return null;
+				}
+				break;
+			}
+			
+			line.write(b);
+		}
+		
+		// Not including a '\r' before the '\n'
+		byte[] bytes = line.toByteArray();
+		if (bytes.length > 0 && bytes[bytes.length - 1] == '\r')
+		{
+			bytes = Arrays.copyOf(bytes, bytes.length - 1);
+		}
+		
+		return bytes;
+	}
+}
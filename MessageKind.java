@@ -0,0 +1,111 @@
+/**
+ * What kind of message the server is delivering.
+ * Clients using frames are sent the kind in each message frame's flags, clients using text lines are sent it as a colour.
+ */
+public enum MessageKind
+{
+	/**
+	 * A regular message from a client.
+	 */
+	Chat((byte)0, null),
+	
+	/**
+	 * An alert from the server that a client has connected, the body starts with the client's display name.
+	 */
+	Connected((byte)1, ConsoleIO.TextColourGreen),
+	
+	/**
+	 * An alert from the server that a client has disconnected, the body starts with the client's display name.
+	 */
+	Disconnected((byte)2, ConsoleIO.TextColourRed),
+	
+	/**
+	 * A message sent privately to the recipient.
+	 */
+	Private((byte)3, ConsoleIO.TextColourYellow),
+	
+	/**
+	 * A notice from the server meant only for the recipient, e.g. a message couldn't be sent.
+	 */
+	Notice((byte)4, ConsoleIO.TextColourYellow),
+	
+	/**
+	 * An alert from the server that a client has joined the recipient's channel, the body starts with the client's display name.
+	 */
+	Joined((byte)5, ConsoleIO.TextColourGreen),
+	
+	/**
+	 * An alert from the server that a client has left the recipient's channel, the body starts with the client's display name.
+	 */
+	Left((byte)6, ConsoleIO.TextColourRed);
+	
+	/**
+	 * The byte identifying this kind in a message frame's flags.
+	 */
+	public final byte Code;
+	
+	/**
+	 * The ANSI colour messages of this kind are shown in, null if they aren't coloured.
+	 */
+	public final String TextColour;
+	
+	MessageKind(byte code, String textColour)
+	{
+		Code = code;
+		TextColour = textColour;
+	}
+	
+	/**
+	 * Formats a message's body the way it's shown to clients using text lines.
+	 *
+	 * @param body The body of the message.
+	 * @return The body, coloured / marked as private if needed.
+	 */
+	public String FormatAsText(String body)
+	{
+		if (this == Private)
+		{
+			return String.format("%s(DM) %s %s", TextColour, body, ConsoleIO.TextColourReset);
+		}
+		
+		if (TextColour != null)
+		{
+			return String.format("%s%s%s", TextColour, body, ConsoleIO.TextColourReset);
+		}
+		
+		return body;
+	}
+	
+	/**
+	 * Gets the kind identified by a message frame's flags.
+	 *
+	 * @param code The flags from the frame's header.
+	 * @return The matching kind, Chat if the code is unknown (e.g. sent by a newer server).
+	 */
+	public static MessageKind FromCode(byte code)
+	{
+		switch (code)
+		{
+			case 1:
+				return Connected;
+			
+			case 2:
+				return Disconnected;
+			
+			case 3:
+				return Private;
+			
+			case 4:
+				return Notice;
+			
+			case 5:
+				return Joined;
+			
+			case 6:
+				return Left;
+			
+			default:
+				return Chat;
+		}
+	}
+}
@@ -0,0 +1,757 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per client state used by a NioServer when reading from, and writing to, a client's channel.
+ */
+class NioConnection
+{
+	public final ClientData ClientData;
+	public final SocketChannel Channel;
+	public final NioServer.Worker Worker;
+	public final AtomicBoolean WriteRequested = new AtomicBoolean(false);
+	public final long AcceptedAt = System.nanoTime();
+	
+	public ByteBuffer ReadBuffer;
+	public SelectionKey Key;
+	
+	/**
+	 * The messages currently being written together, taken off the client's outbound queue so they can't be dropped part way through.
+	 * Messages from WriteBatchStart up to WriteBatchEnd haven't been completely written yet.
+	 */
+	public final ByteBuffer[] WriteBatch = new ByteBuffer[Server.MaxMessagesPerWrite];
+	public int WriteBatchStart;
+	public int WriteBatchEnd;
+	
+	/**
+	 * A line held back because the client exceeded its rate limit, nothing more is read from the client until it's relayed at ThrottledUntil.
+	 */
+	public String ThrottledLine;
+	public long ThrottledUntil;
+	
+	public NioConnection(ClientData clientData, SocketChannel channel, NioServer.Worker worker, int readBufferSize)
+	{
+		ClientData = clientData;
+		Channel = channel;
+		Worker = worker;
+		ReadBuffer = ByteBuffer.allocate(readBufferSize);
+	}
+}
+
+/**
+ * A server for handling connections with, and relaying messages amongst clients, using non-blocking IO.
+ * Rather than using a thread per client, clients are shared between a small, fixed set of IO threads.
+ * The wire protocol is identical to the one used by Server.
+ */
+public class NioServer extends Server
+{
+	private static final int ReadBufferSize = 8192;
+	private static final int MaxLineLength = 1 << 20;
+	
+	private final Worker[] Workers;
+	
+	private ServerSocketChannel ServerChannel;
+	private Thread NewConnectionsThread = null;
+	private int NextWorkerIndex = 0;
+	
+	/**
+	 * Constructs a new NioServer.
+	 *
+	 * @param port The port to listen for connections on.
+	 * @param ioThreadCount The number of threads used for reading from / writing to clients.
+	 */
+	public NioServer(int port, int ioThreadCount)
+	{
+		super(port);
+		Workers = new Worker[Math.max(1, ioThreadCount)];
+	}
+	
+	/**
+	 * Determines whether this server is currently accepting new connections.
+	 * The server may still be connected to clients even if its not currently accepting new ones.
+	 *
+	 * @return Whether it's currently accepting new connections.
+	 */
+	@Override
+	public boolean IsListeningForConnections()
+	{
+		return ServerChannel != null && ServerChannel.isOpen();
+	}
+	
+	/**
+	 * Starts listening for new client connections, and starts the IO threads if they aren't already running.
+	 * This does not block the thread which it is called from.
+	 * Calling this multiple times will have no effect.
+	 *
+	 * @return Whether it successfully started listening for connections.
+	 */
+	@Override
+	public boolean TryStartListeningForConnections()
+	{
+		// Already listening for connections
+		if (IsListeningForConnections())
+		{
+			return false;
+		}
+		
+		// Creates a new channel to listen for connections, and the IO threads to handle them
+		try
+		{
+			ServerChannel = ServerSocketChannel.open();
+			ServerChannel.bind(new InetSocketAddress(Port));
+			StartWorkers();
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			// Port already taken / out of range
+			ConsoleIO.LogError("Cannot listen for connections on port %d.", Port);
+			return false;
+		}
+		
+		// Creates a new thread for accepting new connections, the connections are then handed to the IO threads.
+		NewConnectionsThread = new Thread(() ->
+		{
+			ConsoleIO.Log("Listening for connections on port %d using %d IO thread(s)...", Port, Workers.length);
+			while (!Thread.interrupted())
+			{
+				SocketChannel clientChannel;
+				try
+				{
+					// Blocks thread when waiting for new connection
+					clientChannel = ServerChannel.accept();
+					clientChannel.configureBlocking(false);
+					
+					// Writes are already batched, so small messages shouldn't wait on the client acknowledging earlier ones
+					clientChannel.socket().setTcpNoDelay(true);
+				}
+				catch (IOException e)
+				{
+					// Channel was closed
+					StopListeningForConnections();
+					return;
+				}
+				
+				// Create client, its first response is read by whichever IO thread it's given to
+				ClientData clientData = new ClientData(clientChannel, CreateDisplayName(), GetOutboundQueueCapacity());
+				clientData.SetConnectionStatus(ClientConnectionStatus.Connecting);
+				
+				Worker worker = Workers[NextWorkerIndex];
+				NextWorkerIndex = (NextWorkerIndex + 1) % Workers.length;
+				worker.Register(new NioConnection(clientData, clientChannel, worker, ReadBufferSize));
+			}
+		}, "NewConnectionsThread");
+		
+		NewConnectionsThread.start();
+		return true;
+	}
+	
+	/**
+	 * Stops the server from accepting new connections.
+	 * Already connected clients will continue to be served by the IO threads.
+	 * Calling this multiple times will have no effect.
+	 */
+	@Override
+	public void StopListeningForConnections()
+	{
+		// Already stopped listening
+		if (!IsListeningForConnections())
+		{
+			return;
+		}
+		
+		// Closing server channel
+		try
+		{
+			ServerChannel.close();
+			if (Thread.currentThread() != NewConnectionsThread)
+			{
+				NewConnectionsThread.join();
+			}
+		}
+		catch (InterruptedException | IOException e)
+		{
+			e.printStackTrace();
+		}
+		
+		NewConnectionsThread = null;
+		ConsoleIO.LogError("Stopped listening for connections on port %d.", Port);
+	}
+	
+	/**
+	 * Creates and starts the IO threads, if they haven't already been started.
+	 *
+	 * @throws IOException If a selector could not be opened.
+	 */
+	private void StartWorkers() throws IOException
+	{
+		for (int i = 0; i < Workers.length; i++)
+		{
+			if (Workers[i] == null)
+			{
+				Workers[i] = new Worker(i);
+				Workers[i].Thread.start();
+			}
+		}
+	}
+	
+	/**
+	 * Lets the client's IO thread know it has a message to write.
+	 * This never blocks, the message is written once the client's channel is ready for it.
+	 *
+	 * @param recipient The client a message was queued for.
+	 */
+	@Override
+	protected void OnMessageQueued(ClientData recipient)
+	{
+		NioConnection connection = recipient.Connection;
+		if (connection != null)
+		{
+			connection.Worker.RequestWrite(connection);
+		}
+	}
+	
+	/**
+	 * Closes a client's channel, then asks for the client to be disconnected by its IO thread, without waiting for it to happen.
+	 *
+	 * @param clientData The client to disconnect.
+	 */
+	@Override
+	protected void RequestDisconnect(ClientData clientData)
+	{
+		// Closing straight away so nothing else is queued for the client in the meantime
+		CloseSocket(clientData);
+		
+		NioConnection connection = clientData.Connection;
+		if (connection != null)
+		{
+			connection.Worker.RequestDisconnect(connection);
+		}
+		
+		// Clients hosted in this process have no connection, their delivery thread disconnects them instead
+		HostedClient hostedClient = clientData.Hosted;
+		if (hostedClient != null)
+		{
+			hostedClient.RequestDisconnect();
+		}
+	}
+	
+	/**
+	 * Handles a complete line read from a client.
+	 * The first line received is the client's first response, anything after that is relayed to other clients.
+	 *
+	 * @param connection The connection the line was read from.
+	 * @param line The line read, not including any line-termination characters.
+	 */
+	private void OnLineReceived(NioConnection connection, String line)
+	{
+		ClientData clientData = connection.ClientData;
+		
+		switch (clientData.GetConnectionStatus())
+		{
+			case Connecting:
+				if (!RegisterClient(clientData, line))
+				{
+					RequestDisconnect(clientData);
+				}
+				break;
+			
+			case Connected:
+				// Answers to heartbeats only show the client is still there, they're never relayed
+				if (line.equals(MessageFrame.HeartbeatReply))
+				{
+					break;
+				}
+				
+				// IO threads can't wait for a client's rate limit, so the line is held back and the client isn't read from until it's relayed
+				long throttleWait = Throttle(clientData, line);
+				if (throttleWait == 0)
+				{
+					RelayMessage(clientData, line);
+				}
+				else if (throttleWait > 0)
+				{
+					connection.Worker.HoldBack(connection, line, throttleWait);
+				}
+				break;
+			
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * An IO thread, which reads from and writes to all clients registered with its selector.
+	 */
+	class Worker implements Runnable
+	{
+		public final Thread Thread;
+		
+		private final Selector Selector;
+		private final Queue<NioConnection> PendingRegistrations = new ConcurrentLinkedQueue<>();
+		private final Queue<NioConnection> PendingWriteRequests = new ConcurrentLinkedQueue<>();
+		private final Queue<NioConnection> PendingDisconnectRequests = new ConcurrentLinkedQueue<>();
+		
+		/**
+		 * Connections which haven't sent their first response yet, oldest first.
+		 */
+		private final Queue<NioConnection> Handshaking = new ArrayDeque<>();
+		
+		/**
+		 * Connections holding back a line until they're within their rate limit, soonest first.
+		 */
+		private final PriorityQueue<NioConnection> Throttled = new PriorityQueue<>(Comparator.comparingLong(connection -> connection.ThrottledUntil));
+		
+		public Worker(int index) throws IOException
+		{
+			Selector = java.nio.channels.Selector.open();
+			Thread = new Thread(this, String.format("NioServer IO Thread %d", index));
+			
+			// IO threads only ever wait on their selector, so there's no need to keep the program alive for them
+			Thread.setDaemon(true);
+		}
+		
+		/**
+		 * Hands a newly accepted connection to this IO thread.
+		 *
+		 * @param connection The connection to start reading from.
+		 */
+		public void Register(NioConnection connection)
+		{
+			PendingRegistrations.add(connection);
+			Selector.wakeup();
+		}
+		
+		/**
+		 * Lets this IO thread know a connection has messages waiting to be written.
+		 * Repeated calls before the messages are written only wake the thread once.
+		 *
+		 * @param connection The connection with pending writes.
+		 */
+		public void RequestWrite(NioConnection connection)
+		{
+			if (!connection.WriteRequested.compareAndSet(false, true))
+			{
+				return;
+			}
+			
+			// This thread can start waiting for the channel to be writable straight away
+			if (java.lang.Thread.currentThread() == Thread)
+			{
+				EnableWrites(connection);
+			}
+			else
+			{
+				PendingWriteRequests.add(connection);
+				Selector.wakeup();
+			}
+		}
+		
+		/**
+		 * Asks this IO thread to disconnect a connection's client.
+		 *
+		 * @param connection The connection to disconnect.
+		 */
+		public void RequestDisconnect(NioConnection connection)
+		{
+			if (java.lang.Thread.currentThread() == Thread)
+			{
+				Disconnect(connection);
+			}
+			else
+			{
+				PendingDisconnectRequests.add(connection);
+				Selector.wakeup();
+			}
+		}
+		
+		@Override
+		public void run()
+		{
+			while (!java.lang.Thread.interrupted())
+			{
+				try
+				{
+					Selector.select(GetSelectTimeout(CloseTimedOutHandshakes(), RelayThrottledLines()));
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+					return;
+				}
+				
+				RegisterPendingConnections();
+				EnableWritesForPendingRequests();
+				DisconnectPendingRequests();
+				
+				Iterator<SelectionKey> keys = Selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					NioConnection connection = (NioConnection)key.attachment();
+					if (key.isValid() && key.isReadable())
+					{
+						Read(connection);
+					}
+					if (key.isValid() && key.isWritable())
+					{
+						Write(connection);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Registers any connections handed to this thread since the last time it was woken up.
+		 */
+		private void RegisterPendingConnections()
+		{
+			NioConnection connection;
+			while ((connection = PendingRegistrations.poll()) != null)
+			{
+				try
+				{
+					connection.Key = connection.Channel.register(Selector, SelectionKey.OP_READ, connection);
+					connection.ClientData.Connection = connection;
+					Handshaking.add(connection);
+				}
+				catch (ClosedChannelException e)
+				{
+					// Client disconnected before it could be registered
+					CloseSocket(connection.ClientData);
+				}
+			}
+		}
+		
+		/**
+		 * Closes any connections which haven't sent their first response within the handshake timeout.
+		 *
+		 * @return How long until the next handshake times out in milliseconds, 0 if there are none to wait for.
+		 */
+		private long CloseTimedOutHandshakes()
+		{
+			long timeout = TimeUnit.MILLISECONDS.toNanos(GetHandshakeTimeout());
+			
+			NioConnection connection;
+			while ((connection = Handshaking.peek()) != null)
+			{
+				// Finished connecting / disconnected
+				if (connection.ClientData.GetConnectionStatus() != ClientConnectionStatus.Connecting || !connection.Channel.isOpen() || timeout == 0)
+				{
+					Handshaking.poll();
+					continue;
+				}
+				
+				// Connections are queued in the order they were accepted, so the rest have time left too
+				long timeLeft = connection.AcceptedAt + timeout - System.nanoTime();
+				if (timeLeft > 0)
+				{
+					return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeLeft));
+				}
+				
+				Handshaking.poll();
+				Socket socket = connection.ClientData.Socket;
+				ConsoleIO.LogError("%s:%d did not respond within %d ms.", socket.getInetAddress(), socket.getPort(), GetHandshakeTimeout());
+				CloseSocket(connection.ClientData);
+			}
+			
+			return 0;
+		}
+		
+		/**
+		 * Holds back a line received from a connection until the connection is within its rate limit, stopping reading from it meanwhile.
+		 *
+		 * @param connection The connection the line was read from.
+		 * @param line The line to relay later.
+		 * @param wait How long to hold the line back in nanoseconds.
+		 */
+		public void HoldBack(NioConnection connection, String line, long wait)
+		{
+			connection.ThrottledLine = line;
+			connection.ThrottledUntil = System.nanoTime() + wait;
+			Throttled.add(connection);
+			if (connection.Key.isValid())
+			{
+				connection.Key.interestOps(connection.Key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+		
+		/**
+		 * Relays any held back lines which are now within their connection's rate limit, then carries on reading from the connections.
+		 *
+		 * @return How long until the next held back line can be relayed in milliseconds, 0 if there are none to wait for.
+		 */
+		private long RelayThrottledLines()
+		{
+			NioConnection connection;
+			while ((connection = Throttled.peek()) != null)
+			{
+				long timeLeft = connection.ThrottledUntil - System.nanoTime();
+				if (timeLeft > 0)
+				{
+					return Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeLeft));
+				}
+				
+				Throttled.poll();
+				String line = connection.ThrottledLine;
+				connection.ThrottledLine = null;
+				
+				// Client disconnected while its line was held back
+				if (!connection.Channel.isOpen() || !connection.Key.isValid())
+				{
+					continue;
+				}
+				
+				RelayMessage(connection.ClientData, line);
+				
+				// Handling lines which were already read, which may be held back again
+				if (connection.Channel.isOpen())
+				{
+					HandleReadLines(connection);
+				}
+				if (connection.ThrottledLine == null && connection.Key.isValid())
+				{
+					connection.Key.interestOps(connection.Key.interestOps() | SelectionKey.OP_READ);
+				}
+			}
+			
+			return 0;
+		}
+		
+		/**
+		 * Picks the shortest of the times the IO thread needs to wake up after.
+		 *
+		 * @param handshakeTimeout How long until the next handshake times out in milliseconds, 0 if there are none to wait for.
+		 * @param throttleTimeout How long until the next held back line can be relayed in milliseconds, 0 if there are none to wait for.
+		 * @return How long the selector should wait in milliseconds, 0 to wait until woken up.
+		 */
+		private long GetSelectTimeout(long handshakeTimeout, long throttleTimeout)
+		{
+			if (handshakeTimeout == 0 || throttleTimeout == 0)
+			{
+				return Math.max(handshakeTimeout, throttleTimeout);
+			}
+			
+			return Math.min(handshakeTimeout, throttleTimeout);
+		}
+		
+		/**
+		 * Starts waiting for the channel to be writable for any connections with pending writes.
+		 */
+		private void EnableWritesForPendingRequests()
+		{
+			NioConnection connection;
+			while ((connection = PendingWriteRequests.poll()) != null)
+			{
+				EnableWrites(connection);
+			}
+		}
+		
+		/**
+		 * Disconnects any connections other threads have asked to be disconnected.
+		 */
+		private void DisconnectPendingRequests()
+		{
+			NioConnection connection;
+			while ((connection = PendingDisconnectRequests.poll()) != null)
+			{
+				Disconnect(connection);
+			}
+		}
+		
+		/**
+		 * Starts waiting for a connection's channel to be writable.
+		 *
+		 * @param connection The connection with pending writes.
+		 */
+		private void EnableWrites(NioConnection connection)
+		{
+			if (connection.Key != null && connection.Key.isValid())
+			{
+				connection.Key.interestOps(connection.Key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+		
+		/**
+		 * Reads whatever is available from a connection, handling every complete line read.
+		 *
+		 * @param connection The connection to read from.
+		 */
+		private void Read(NioConnection connection)
+		{
+			// Reading is paused while a line is held back, it may have been ready before the pause
+			if (connection.ThrottledLine != null)
+			{
+				return;
+			}
+			
+			int bytesRead;
+			try
+			{
+				bytesRead = connection.Channel.read(connection.ReadBuffer);
+			}
+			catch (IOException e)
+			{
+				bytesRead = -1;
+			}
+			
+			// End of stream, most likely cause is the client disconnecting
+			if (bytesRead == -1)
+			{
+				Disconnect(connection);
+				return;
+			}
+			
+			connection.ClientData.MarkReceived();
+			HandleReadLines(connection);
+		}
+		
+		/**
+		 * Handles each complete line which has been read from a connection, stopping early if a line is held back by the client's rate limit.
+		 *
+		 * @param connection The connection the lines were read from.
+		 */
+		private void HandleReadLines(NioConnection connection)
+		{
+			// Handling each complete line in the buffer
+			ByteBuffer buffer = connection.ReadBuffer;
+			buffer.flip();
+			int lineStart = buffer.position();
+			for (int i = lineStart; i < buffer.limit(); i++)
+			{
+				if (buffer.get(i) != '\n')
+				{
+					continue;
+				}
+				
+				// Not including any line-termination characters
+				int lineEnd = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+				String line = new String(buffer.array(), buffer.arrayOffset() + lineStart, lineEnd - lineStart, MessageCharset);
+				lineStart = i + 1;
+				
+				OnLineReceived(connection, line);
+				
+				// Client may have been disconnected while handling the line
+				if (!connection.Channel.isOpen())
+				{
+					return;
+				}
+				
+				// The rest are handled once the held back line has been relayed
+				if (connection.ThrottledLine != null)
+				{
+					break;
+				}
+			}
+			buffer.position(lineStart);
+			buffer.compact();
+			
+			// Growing the buffer for lines longer than it, unless it's only full because reading is paused
+			if (!buffer.hasRemaining() && connection.ThrottledLine == null)
+			{
+				if (buffer.capacity() >= MaxLineLength)
+				{
+					ConsoleIO.LogError("%s sent a line longer than %d bytes.", connection.ClientData.DisplayName, MaxLineLength);
+					Disconnect(connection);
+					return;
+				}
+				
+				ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				largerBuffer.put(buffer);
+				connection.ReadBuffer = largerBuffer;
+			}
+		}
+		
+		/**
+		 * Writes as many queued messages to a connection as its channel will currently accept.
+		 * Everything queued is gathered into as few writes as possible, so each write can carry many messages.
+		 *
+		 * @param connection The connection to write to.
+		 */
+		private void Write(NioConnection connection)
+		{
+			connection.WriteRequested.set(false);
+			
+			ByteBuffer[] batch = connection.WriteBatch;
+			int writeCount = 0;
+			int messageCount = 0;
+			long byteCount = 0;
+			try
+			{
+				while (true)
+				{
+					if (connection.WriteBatchStart == connection.WriteBatchEnd)
+					{
+						connection.WriteBatchStart = 0;
+						connection.WriteBatchEnd = connection.ClientData.DrainQueuedMessages(batch, 0);
+						if (connection.WriteBatchEnd == 0)
+						{
+							break;
+						}
+					}
+					
+					byteCount += connection.Channel.write(batch, connection.WriteBatchStart, connection.WriteBatchEnd - connection.WriteBatchStart);
+					writeCount++;
+					
+					// Letting go of every message which has been completely written
+					while (connection.WriteBatchStart < connection.WriteBatchEnd && !batch[connection.WriteBatchStart].hasRemaining())
+					{
+						batch[connection.WriteBatchStart++] = null;
+						messageCount++;
+					}
+					
+					// Channel is full, carry on once it's writable again
+					if (connection.WriteBatchStart < connection.WriteBatchEnd)
+					{
+						RecordWrites(connection.ClientData, writeCount, messageCount, byteCount);
+						return;
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				Disconnect(connection);
+				return;
+			}
+			
+			RecordWrites(connection.ClientData, writeCount, messageCount, byteCount);
+			
+			// Nothing left to write, anything queued after this point requests another write
+			connection.Key.interestOps(connection.Key.interestOps() & ~SelectionKey.OP_WRITE);
+		}
+		
+		/**
+		 * Disconnects the client of a given connection, or just closes the channel if it never finished connecting.
+		 *
+		 * @param connection The connection to close.
+		 */
+		private void Disconnect(NioConnection connection)
+		{
+			if (connection.ClientData.GetConnectionStatus() == ClientConnectionStatus.Connecting)
+			{
+				CloseSocket(connection.ClientData);
+			}
+			else
+			{
+				DisconnectClient(connection.ClientData);
+			}
+		}
+	}
+}
@@ -0,0 +1,290 @@
+import java.util.Objects;
+
+/**
+ * A message received as a text line, '<[sender]> [colour][(DM) ][body][ ][reset]', separated into its parts in a single pass without copying any of them.
+ * Parts are kept as offsets into the line, and only copied into strings when they're asked for, so a bot can reject a message which isn't meant for it without allocating anything.
+ * As a CharSequence it's the body of the message, without any display name / colours.
+ *
+ * Meant to be reused for every line a bot receives, so its parts are only valid until the next line is parsed.
+ * Not safe to share between threads.
+ */
+public class ParsedMessage implements CharSequence
+{
+	private static final String PrivateMarker = "(DM) ";
+	
+	/**
+	 * The prefix messages intended for the bot start with, e.g. "!cb".
+	 */
+	private final String CommandPrefix;
+	
+	private String Line = "";
+	private MessageKind Kind = MessageKind.Chat;
+	
+	/**
+	 * Where the sender's display name starts / ends in the line, -1 if the line doesn't have one.
+	 */
+	private int SenderStart = -1;
+	private int SenderEnd = -1;
+	
+	/**
+	 * Where the body starts / ends in the line.
+	 */
+	private int BodyStart = 0;
+	private int BodyEnd = 0;
+	
+	/**
+	 * Where the body starts once the prefix / any whitespace following it are removed, -1 if the body doesn't start with the prefix.
+	 */
+	private int CommandStart = -1;
+	
+	/**
+	 * Constructs a new ParsedMessage, holding an empty chat message until a line is parsed.
+	 *
+	 * @param commandPrefix The prefix messages intended for the bot start with.
+	 */
+	public ParsedMessage(String commandPrefix)
+	{
+		CommandPrefix = commandPrefix;
+	}
+	
+	/**
+	 * Separates a line into its sender, kind and body, replacing whatever line was parsed before.
+	 * Only the colours the server adds around the body are removed, any in the middle of the body were sent by the sender.
+	 *
+	 * @param line The line received from the server.
+	 * @return This, for convenience.
+	 */
+	public ParsedMessage Parse(String line)
+	{
+		Line = line;
+		int length = line.length();
+		int position = 0;
+		
+		// Display name, '<[sender]>' followed by whitespace
+		SenderStart = -1;
+		SenderEnd = -1;
+		if (length > 0 && line.charAt(0) == '<')
+		{
+			int close = line.indexOf('>', 1);
+			if (close > 0)
+			{
+				SenderStart = 1;
+				SenderEnd = close;
+				position = SkipWhitespace(close + 1, length);
+			}
+		}
+		
+		// Kind, from the colour the body starts with
+		Kind = MessageKind.Chat;
+		if (line.startsWith(ConsoleIO.TextColourGreen, position))
+		{
+			Kind = MessageKind.Connected;
+			position += ConsoleIO.TextColourGreen.length();
+		}
+		else if (line.startsWith(ConsoleIO.TextColourRed, position))
+		{
+			Kind = MessageKind.Disconnected;
+			position += ConsoleIO.TextColourRed.length();
+		}
+		else if (line.startsWith(ConsoleIO.TextColourYellow, position))
+		{
+			position += ConsoleIO.TextColourYellow.length();
+			if (line.startsWith(PrivateMarker, position))
+			{
+				Kind = MessageKind.Private;
+				position += PrivateMarker.length();
+			}
+			else
+			{
+				Kind = MessageKind.Notice;
+			}
+		}
+		
+		// Body, up to the reset coloured messages end with
+		int end = length;
+		if (Kind != MessageKind.Chat && end - ConsoleIO.TextColourReset.length() >= position && line.startsWith(ConsoleIO.TextColourReset, end - ConsoleIO.TextColourReset.length()))
+		{
+			end -= ConsoleIO.TextColourReset.length();
+		}
+		
+		// Private messages have a space between the body and the reset
+		if (Kind == MessageKind.Private)
+		{
+			while (end > position && Character.isWhitespace(line.charAt(end - 1)))
+			{
+				end--;
+			}
+		}
+		
+		BodyStart = position;
+		BodyEnd = end;
+		
+		// Prefix, followed by whitespace / nothing
+		CommandStart = -1;
+		int prefixEnd = BodyStart + CommandPrefix.length();
+		if (line.startsWith(CommandPrefix, BodyStart) && prefixEnd <= BodyEnd && (prefixEnd == BodyEnd || Character.isWhitespace(line.charAt(prefixEnd))))
+		{
+			CommandStart = SkipWhitespace(prefixEnd, BodyEnd);
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Finds the first character in the line from a given position which isn't whitespace.
+	 *
+	 * @param position Where to start looking.
+	 * @param end Where to stop looking.
+	 * @return The position of the character, end if there isn't one.
+	 */
+	private int SkipWhitespace(int position, int end)
+	{
+		while (position < end && Character.isWhitespace(Line.charAt(position)))
+		{
+			position++;
+		}
+		return position;
+	}
+	
+	/**
+	 * Gets the kind of message, worked out from its colour.
+	 * Alerts for clients joining / leaving a channel are coloured the same as connecting / disconnecting, so they're parsed as Connected / Disconnected.
+	 *
+	 * @return The kind of message.
+	 */
+	public MessageKind GetKind()
+	{
+		return Kind;
+	}
+	
+	/**
+	 * Gets the line this was parsed from.
+	 *
+	 * @return The whole line.
+	 */
+	public String GetLine()
+	{
+		return Line;
+	}
+	
+	/**
+	 * Checks whether the line started with a display name.
+	 *
+	 * @return Whether there's a sender.
+	 */
+	public boolean HasSender()
+	{
+		return SenderStart >= 0;
+	}
+	
+	/**
+	 * Checks whether the message was sent by a given client, without copying the sender's display name.
+	 *
+	 * @param displayName The display name to compare against.
+	 * @return Whether the sender's display name is displayName.
+	 */
+	public boolean IsSender(String displayName)
+	{
+		return HasSender() && SenderEnd - SenderStart == displayName.length() && Line.startsWith(displayName, SenderStart);
+	}
+	
+	/**
+	 * Copies out the sender's display name.
+	 *
+	 * @return The display name, null if the line didn't start with one.
+	 */
+	public String GetSenderName()
+	{
+		return HasSender() ? Line.substring(SenderStart, SenderEnd) : null;
+	}
+	
+	/**
+	 * Copies out the body.
+	 *
+	 * @return The body, without any display name / colours.
+	 */
+	public String GetBody()
+	{
+		return Line.substring(BodyStart, BodyEnd);
+	}
+	
+	/**
+	 * Determines whether the message is intended for the bot, i.e. the body starts with the prefix followed by whitespace / nothing.
+	 *
+	 * @return Whether the body starts with the prefix.
+	 */
+	public boolean IsAddressedToBot()
+	{
+		return CommandStart >= 0;
+	}
+	
+	/**
+	 * Copies out the body without the prefix.
+	 *
+	 * @return The body without the prefix / any whitespace following it, null if it isn't addressed to the bot.
+	 */
+	public String GetCommand()
+	{
+		return IsAddressedToBot() ? Line.substring(CommandStart, BodyEnd) : null;
+	}
+	
+	/**
+	 * Gets where the body starts in the line, for reading it without copying.
+	 *
+	 * @return The offset of the body's first character.
+	 */
+	public int GetBodyStart()
+	{
+		return BodyStart;
+	}
+	
+	/**
+	 * Gets where the body ends in the line, for reading it without copying.
+	 *
+	 * @return The offset after the body's last character.
+	 */
+	public int GetBodyEnd()
+	{
+		return BodyEnd;
+	}
+	
+	/**
+	 * Gets where the body starts once the prefix is removed, for reading it without copying.
+	 *
+	 * @return The offset of the command's first character, -1 if the message isn't addressed to the bot.
+	 */
+	public int GetCommandStart()
+	{
+		return CommandStart;
+	}
+	
+	@Override
+	public int length()
+	{
+		return BodyEnd - BodyStart;
+	}
+	
+	@Override
+	public char charAt(int index)
+	{
+		if (index < 0 || index >= length())
+		{
+			throw new IndexOutOfBoundsException(index);
+		}
+		
+		return Line.charAt(BodyStart + index);
+	}
+	
+	@Override
+	public CharSequence subSequence(int start, int end)
+	{
+		Objects.checkFromToIndex(start, end, length());
+		return Line.subSequence(BodyStart + start, BodyStart + end);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return GetBody();
+	}
+}
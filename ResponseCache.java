@@ -0,0 +1,251 @@
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers a bot's responses to messages it's seen before, so repeated questions (spam, bot-to-bot loops...) aren't worked out from scratch.
+ * Only holds responses which are always the same for the same message, random responses have to be worked out every time.
+ *
+ * Bounded, evicting the least recently used response, but only once a new response looks likely to be used more often than it (TinyLFU admission).
+ * How often each message has been seen is estimated by a count-min sketch of 4-bit counters, which are halved every so often so old favourites fade.
+ * Messages seen only once (most chat) never push out responses which keep being asked for.
+ * Safe to use from any number of threads at once.
+ */
+class ResponseCache
+{
+	/**
+	 * Messages longer than this aren't cached, so a full cache never holds more than a few hundred kilobytes of them.
+	 */
+	public static final int MaxKeyLength = 256;
+	
+	private static final int SketchRows = 4;
+	private static final int MaxCount = 15;
+	private static final int[] SketchSeeds = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+	
+	private final int Capacity;
+	
+	/**
+	 * Responses by normalised message, least recently used first.
+	 */
+	private final LinkedHashMap<String, String> Responses;
+	
+	/**
+	 * Estimated number of times each message has been seen, SketchRows rows of counters, each message counts in one counter per row.
+	 */
+	private final byte[] Counts;
+	private final int RowShift;
+	private final int RowLength;
+	private int SampleCount = 0;
+	private final int ResetInterval;
+	
+	private final LongAdder HitCount = new LongAdder();
+	private final LongAdder MissCount = new LongAdder();
+	private final LongAdder BypassCount = new LongAdder();
+	private final LongAdder EvictionCount = new LongAdder();
+	private final LongAdder RejectionCount = new LongAdder();
+	
+	/**
+	 * Constructs a new, empty ResponseCache.
+	 *
+	 * @param capacity The most responses to hold, at least 1.
+	 */
+	public ResponseCache(int capacity)
+	{
+		Capacity = Math.max(1, capacity);
+		Responses = new LinkedHashMap<>(Capacity * 4 / 3 + 1, 0.75f, true);
+		
+		// A few counters per response held, so messages rarely share counters with each other
+		int rowBits = Math.max(4, 32 - Integer.numberOfLeadingZeros(Capacity * 4 - 1));
+		RowLength = 1 << rowBits;
+		RowShift = 32 - rowBits;
+		Counts = new byte[SketchRows * RowLength];
+		ResetInterval = Capacity * 10;
+	}
+	
+	/**
+	 * Normalises a message, so messages which only differ in ways which never change the response share one cached response.
+	 *
+	 * @param message The message, with any display name / prefix / colours already removed.
+	 * @return The message in lowercase, without leading / trailing whitespace.
+	 */
+	public static String Normalise(String message)
+	{
+		return message.strip().toLowerCase(Locale.ROOT);
+	}
+	
+	/**
+	 * Gets the response to a message, if it's held.
+	 *
+	 * @param key The normalised message.
+	 * @return The response, null if it isn't held.
+	 */
+	public String Get(String key)
+	{
+		String response;
+		synchronized (this)
+		{
+			RecordSighting(key);
+			response = Responses.get(key);
+		}
+		
+		if (response != null)
+		{
+			HitCount.increment();
+		}
+		else
+		{
+			MissCount.increment();
+		}
+		return response;
+	}
+	
+	/**
+	 * Holds the response to a message, if it's likely to be asked for again more often than the response it would replace.
+	 *
+	 * @param key The normalised message.
+	 * @param response The response, which must always be the same for this message.
+	 */
+	public void Put(String key, String response)
+	{
+		if (key.length() > MaxKeyLength)
+		{
+			return;
+		}
+		
+		synchronized (this)
+		{
+			if (Responses.size() >= Capacity && !Responses.containsKey(key))
+			{
+				// Only replacing the least recently used response if this one's been seen more often
+				String eldestKey = Responses.keySet().iterator().next();
+				if (EstimateCount(key) <= EstimateCount(eldestKey))
+				{
+					RejectionCount.increment();
+					return;
+				}
+				
+				Responses.remove(eldestKey);
+				EvictionCount.increment();
+			}
+			
+			Responses.put(key, response);
+		}
+	}
+	
+	/**
+	 * Counts a message whose response was worked out at random, so couldn't be cached.
+	 */
+	public void RecordBypass()
+	{
+		BypassCount.increment();
+	}
+	
+	/**
+	 * Counts a sighting of a message in the sketch, halving every counter once enough have been counted.
+	 * Only called while holding the lock on this cache.
+	 *
+	 * @param key The normalised message.
+	 */
+	private void RecordSighting(String key)
+	{
+		int hash = key.hashCode();
+		for (int row = 0; row < SketchRows; row++)
+		{
+			int index = row * RowLength + ((hash * SketchSeeds[row]) >>> RowShift);
+			if (Counts[index] < MaxCount)
+			{
+				Counts[index]++;
+			}
+		}
+		
+		if (++SampleCount >= ResetInterval)
+		{
+			for (int i = 0; i < Counts.length; i++)
+			{
+				Counts[i] >>= 1;
+			}
+			SampleCount /= 2;
+		}
+	}
+	
+	/**
+	 * Estimates how many times a message has been seen recently, never less than the true count (before halving).
+	 * Only called while holding the lock on this cache.
+	 *
+	 * @param key The normalised message.
+	 * @return The estimated count.
+	 */
+	private int EstimateCount(String key)
+	{
+		int hash = key.hashCode();
+		int count = MaxCount;
+		for (int row = 0; row < SketchRows; row++)
+		{
+			count = Math.min(count, Counts[row * RowLength + ((hash * SketchSeeds[row]) >>> RowShift)]);
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the number of responses held.
+	 *
+	 * @return The number of responses.
+	 */
+	public synchronized int GetSize()
+	{
+		return Responses.size();
+	}
+	
+	/**
+	 * Gets the most responses the cache can hold.
+	 *
+	 * @return The capacity.
+	 */
+	public int GetCapacity()
+	{
+		return Capacity;
+	}
+	
+	/**
+	 * Gets the number of lookups which found a response.
+	 *
+	 * @return The number of hits.
+	 */
+	public long GetHitCount()
+	{
+		return HitCount.sum();
+	}
+	
+	/**
+	 * Gets the number of lookups which didn't find a response, including those for random responses.
+	 *
+	 * @return The number of misses.
+	 */
+	public long GetMissCount()
+	{
+		return MissCount.sum();
+	}
+	
+	/**
+	 * Gets the fraction of lookups which found a response.
+	 *
+	 * @return The hit rate between 0 and 1, 0 if nothing has been looked up.
+	 */
+	public double GetHitRate()
+	{
+		long hits = HitCount.sum();
+		long lookups = hits + MissCount.sum();
+		return lookups > 0 ? (double)hits / lookups : 0;
+	}
+	
+	/**
+	 * Describes how well the cache is doing, for sizing it.
+	 * Misses include bypasses (random responses), rejections are responses not held because the cache was full of more popular ones.
+	 *
+	 * @return A single line of stats.
+	 */
+	public String GetStatsText()
+	{
+		return String.format("Response cache: %d / %d held, %.1f%% hit rate (%d hits, %d misses, %d bypassed), %d evicted, %d rejected", GetSize(), Capacity, GetHitRate() * 100, HitCount.sum(), MissCount.sum(), BypassCount.sum(), EvictionCount.sum(), RejectionCount.sum());
+	}
+}
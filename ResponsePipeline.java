@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Works out a bot's responses on a pool of worker threads, so a slow response never holds up reading the messages after it.
+ * Each sender's messages are always handled by the same worker, so they're answered in the order they were sent, while different senders are answered in parallel.
+ * Responses are sent by a single writer thread in the order they're finished, as many at once as have built up.
+ *
+ * Queues are bounded, so if responses can't keep up the thread submitting messages waits, which stops it reading more from the server.
+ */
+class ResponsePipeline
+{
+	/**
+	 * The number of messages each worker / the writer can have waiting.
+	 */
+	public static final int QueueCapacity = 1024;
+	
+	/**
+	 * The most responses the writer sends at once.
+	 */
+	private static final int MaxResponsesPerWrite = 64;
+	
+	private final Function<String, String> Responder;
+	private final Consumer<List<String>> Sender;
+	private final ArrayList<BlockingQueue<String>> WorkerQueues = new ArrayList<>();
+	private final BlockingQueue<String> Responses = new ArrayBlockingQueue<>(QueueCapacity);
+	private final ArrayList<Thread> Threads = new ArrayList<>();
+	
+	/**
+	 * Constructs a new ResponsePipeline, and starts its threads.
+	 *
+	 * @param name The name of the pipeline's threads, e.g. the bot's name.
+	 * @param workerCount The number of worker threads, at least 1.
+	 * @param responder Works out the response to a message, null for no response. Called on several threads at once.
+	 * @param sender Sends responses, in order. Only called on the writer thread.
+	 */
+	public ResponsePipeline(String name, int workerCount, Function<String, String> responder, Consumer<List<String>> sender)
+	{
+		Responder = responder;
+		Sender = sender;
+		
+		for (int i = 0; i < Math.max(1, workerCount); i++)
+		{
+			BlockingQueue<String> queue = new ArrayBlockingQueue<>(QueueCapacity);
+			WorkerQueues.add(queue);
+			Threads.add(new Thread(() -> Work(queue), String.format("%s Worker Thread %d", name, i)));
+		}
+		Threads.add(new Thread(this::Write, name + " Writer Thread"));
+		
+		// Nothing is lost by not waiting for the pipeline when exiting, the connection is closing anyway
+		for (Thread thread : Threads)
+		{
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Queues a message to be responded to, waiting for space if its worker has fallen behind.
+	 *
+	 * @param senderName The display name of the sender, messages from the same sender are responded to in order.
+	 * @param message The message to respond to.
+	 * @return Whether the message was queued, it isn't if the calling thread is interrupted while waiting.
+	 */
+	public boolean Submit(String senderName, String message)
+	{
+		int worker = Math.floorMod(senderName != null ? senderName.hashCode() : 0, WorkerQueues.size());
+		try
+		{
+			WorkerQueues.get(worker).put(message);
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			// Leaving the interrupt for the caller, e.g. a listening thread being stopped
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/**
+	 * Works out the responses to a worker's messages, passing them to the writer, until the thread is interrupted.
+	 *
+	 * @param queue The worker's messages.
+	 */
+	private void Work(BlockingQueue<String> queue)
+	{
+		try
+		{
+			while (!Thread.interrupted())
+			{
+				String message = queue.take();
+				String response;
+				try
+				{
+					response = Responder.apply(message);
+				}
+				catch (RuntimeException e)
+				{
+					// Only losing the message which caused it
+					e.printStackTrace();
+					continue;
+				}
+				
+				if (response != null)
+				{
+					Responses.put(response);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Pipeline is stopping
+		}
+	}
+	
+	/**
+	 * Sends responses as they're finished, until the thread is interrupted.
+	 */
+	private void Write()
+	{
+		ArrayList<String> batch = new ArrayList<>(MaxResponsesPerWrite);
+		try
+		{
+			while (!Thread.interrupted())
+			{
+				batch.add(Responses.take());
+				Responses.drainTo(batch, MaxResponsesPerWrite - 1);
+				Sender.accept(batch);
+				batch.clear();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// Pipeline is stopping
+		}
+	}
+	
+	/**
+	 * Stops every thread, without waiting for them.
+	 * Messages still waiting to be responded to are dropped.
+	 */
+	public void Stop()
+	{
+		for (Thread thread : Threads)
+		{
+			thread.interrupt();
+		}
+	}
+}
@@ -1,28 +1,87 @@
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A server for handling connections with, and relaying messages amongst clients.
  */
 public class Server
 {
-	private final int Port;
-	private final HashMap<String, ClientData> ConnectedClients = new HashMap<>();
-	private final String ServerDisplayName = "SERVER";
+	protected final int Port;
+	protected final ClientRegistry ConnectedClients = new ClientRegistry();
+	protected final ConcurrentHashMap<String, Channel> ChannelsByName = new ConcurrentHashMap<>();
+	protected final String ServerDisplayName = "SERVER";
+	protected final Charset MessageCharset = Charset.defaultCharset();
+	
+	/**
+	 * The most queued messages gathered into a single write to a client.
+	 */
+	protected static final int MaxMessagesPerWrite = 64;
+	
+	/**
+	 * The size of the buffer each writing thread gathers messages into, larger batches are written in several parts.
+	 */
+	private static final int WriteBufferSize = 64 * 1024;
 	
 	private ServerSocket ServerSocket;
 	private Thread NewConnectionsThread = null;
-	private int TotalClientsConnected;
+	private final AtomicInteger TotalClientsConnected = new AtomicInteger();
+	private ThreadingMode ThreadMode = ThreadingMode.Platform;
+	private ExecutorService HandshakeExecutor = null;
+	private int HandshakeThreadCount = 4;
+	private int HandshakeTimeout = 10000;
+	private int OutboundQueueCapacity = 1024;
+	private OverflowPolicy OutboundOverflowPolicy = OverflowPolicy.Disconnect;
+	private boolean HideRoutedCommands = false;
+	private long WriteCoalescingWindow = 0;
+	private final EnumMap<ClientType, RateLimit> RateLimits = new EnumMap<>(ClientType.class);
+	private ThrottlePolicy ThrottlingPolicy = ThrottlePolicy.Delay;
+	private final LongAdder DelayedMessageCount = new LongAdder();
+	private final LongAdder ThrottleDroppedMessageCount = new LongAdder();
+	private IdleReaper IdleReaper = null;
+	protected final ServerMetrics Metrics = new ServerMetrics();
+	private Thread StatsLoggingThread = null;
+	private StatsEndpoint StatsEndpoint = null;
+	
+	/**
+	 * The latency sample for the message being relayed on the current thread, null if it isn't being sampled.
+	 */
+	private static final ThreadLocal<RelaySample> CurrentRelaySample = new ThreadLocal<>();
+	
+	/**
+	 * Held while registering a client, so clients using frames are always sent a sender's identity before its messages.
+	 */
+	private final Object RegistrationLock = new Object();
+	
+	/**
+	 * Classes of bots hosted in this process which can't be hosted twice, see BotBase.CanBeHostedTwice. Shared by every server, since the bots share their statics.
+	 */
+	private static final Set<Class<?>> SingleHostedBotClasses = ConcurrentHashMap.newKeySet();
 	
 	public Server(int port)
 	{
 		Port = port;
+		ChannelsByName.put(Channel.DefaultName, new Channel(Channel.DefaultName));
+		for (ClientType type : ClientType.values())
+		{
+			RateLimits.put(type, new RateLimit(0, 0));
+		}
 	}
 	
 	/**
@@ -63,8 +122,13 @@ public class Server
 			return false;
 		}
 		
+		// Creates a pool of threads for waiting on each new client's first response, so the accept thread never blocks on a client
+		AtomicInteger handshakeThreadCount = new AtomicInteger();
+		HandshakeExecutor = Executors.newFixedThreadPool(HandshakeThreadCount, task ->
+				ThreadMode.NewThread(task, String.format("Handshake Thread %d", handshakeThreadCount.getAndIncrement())));
+		
 		// Creates a new thread for listening for new connections
-		NewConnectionsThread = new Thread(() ->
+		NewConnectionsThread = ThreadMode.NewThread(() ->
 		{
 			ConsoleIO.Log("Listening for connections on port %d...", Port);
 			while (!Thread.interrupted())
@@ -74,6 +138,9 @@ public class Server
 				{
 					// Blocks thread when waiting for new connection
 					clientSocket = ServerSocket.accept();
+					
+					// Writes are already batched, so small messages shouldn't wait on the client acknowledging earlier ones
+					clientSocket.setTcpNoDelay(true);
 				}
 				catch (Exception e)
 				{
@@ -90,54 +157,13 @@ public class Server
 				}
 				
 				// Create client
-				String displayName = String.format("C#%d", TotalClientsConnected++);
-				ClientData clientData = new ClientData(clientSocket, null, displayName);
+				ClientData clientData = new ClientData(clientSocket, null, CreateDisplayName(), OutboundQueueCapacity);
 				clientData.SetConnectionStatus(ClientConnectionStatus.Connecting);
 				
-				// Block until client sends expected behaviour
-				clientData.GetOutputStream();
-				String response = WaitForResponse(clientData);
-				
-				// Dealing with clients disconnecting immediately
-				if (response == null)
-				{
-					CloseSocket(clientData);
-					continue;
-				}
-				
-				// Setting clients type based on response
-				switch (response)
-				{
-					case "ChatBot":
-						clientData.SetType(ClientType.ChatBot);
-						break;
-						
-					case "DoDBot":
-						clientData.SetType(ClientType.DoDBot);
-						break;
-						
-					case "ChatClient":
-					default:
-						clientData.SetType(ClientType.RegularChatter);
-						break;
-				}
-				
-				// Adding client to list
-				synchronized (ConnectedClients)
-				{
-					ConnectedClients.put(clientData.DisplayName, clientData);
-				}
-				
-				// Finalising everything
-				ConsoleIO.LogHighlight("New client %s connected from %s:%d", clientData.DisplayName, clientSocket.getInetAddress(), clientSocket.getPort());
-				clientData.SetConnectionStatus(ClientConnectionStatus.Connected);
-				StartRelayingMessages(clientData);
-				
-				// Alerting all connected clients of the new connection
-				String connectionAlert = String.format("%s%s has connected!%s", ConsoleIO.TextColourGreen, clientData.DisplayName, ConsoleIO.TextColourReset);
-				SendMessageToAllClients(connectionAlert, ServerDisplayName);
+				// Handing the client over to be registered once it sends its first response
+				HandshakeExecutor.execute(() -> Handshake(clientData));
 			}
-		});
+		}, "NewConnectionsThread");
 		
 		NewConnectionsThread.start();
 		return true;
@@ -161,13 +187,19 @@ public class Server
 			try
 			{
 				ServerSocket.close();
-				NewConnectionsThread.join();
+				if (Thread.currentThread() != NewConnectionsThread)
+				{
+					NewConnectionsThread.join();
+				}
 			}
 			catch (InterruptedException | IOException e)
 			{
 				e.printStackTrace();
 			}
 		}
+		
+		// Letting any in progress handshakes finish / time out
+		HandshakeExecutor.shutdown();
 
 		NewConnectionsThread = null;
 		ConsoleIO.LogError("Stopped listening for connections on port %d.", Port);
@@ -182,19 +214,16 @@ public class Server
 	 */
 	public boolean StartRelayingMessages(ClientData clientData)
 	{
-		// Checking if the client exists & whether it's already listening for messages
-		synchronized (ConnectedClients)
+		// Checking if this exact client is registered (not just one with the same name) & whether it's already listening for messages
+		if (clientData == null || ConnectedClients.Get(clientData.DisplayName) != clientData || clientData.Socket.isClosed())
 		{
-			if (clientData == null || !ConnectedClients.containsKey(clientData.DisplayName) || clientData.Socket.isClosed())
-			{
-				return false;
-			}
+			return false;
 		}
 		
 		//Pattern privateMessagePrefix = Pattern.compile("^\\s*!pm\\s*");
 		
 		// Creates new thread for listening for messages from the given client
-		clientData.MessageRelayingThread = new Thread(() ->
+		clientData.MessageRelayingThread = ThreadMode.NewThread(() ->
 		{
 			String response;
 			while (!Thread.interrupted())
@@ -202,20 +231,10 @@ public class Server
 				response = WaitForResponse(clientData);
 				
 				// End the thread given the response is null, most likely cause is us disconnecting from client
-				if (response == null)
+				if (response == null || !ReceiveMessage(clientData, response))
 				{
 					break;
 				}
-				
-				// Checking if this was meant to be a private message
-				if (clientData.GetClientType() == ClientType.DoDBot && response.startsWith("@"))
-				{
-					SendPrivateMessageToClient(response, clientData.DisplayName);
-				}
-				else
-				{
-					SendMessageToAllClients(response, clientData.DisplayName);
-				}
 			}
 		}, clientData.DisplayName + " Message Thread");
 		
@@ -225,172 +244,1359 @@ public class Server
 	}
 	
 	/**
-	 * Sends a message to all clients connected to the server.
+	 * Handles a message received from a connected client, relaying it unless it's an answer to a heartbeat.
+	 * Messages over the client's rate limit are held back until they're within it, blocking the calling thread (which stops reading from the client meanwhile).
 	 *
-	 * @param message The message to send.
-	 * @param senderName Display name of the sender.
+	 * @param clientData The client who sent the message.
+	 * @param message The message received.
+	 * @return Whether the client can still be read from, false if the thread was interrupted while holding back the message.
 	 */
-	private void SendMessageToAllClients(String message, String senderName)
+	protected boolean ReceiveMessage(ClientData clientData, String message)
 	{
-		Iterator<Map.Entry<String, ClientData>> iterator = ConnectedClients.entrySet().iterator();
-		while (iterator.hasNext())
+		// Answers to heartbeats only show the client is still there, they're never relayed
+		clientData.MarkReceived();
+		if (message.equals(MessageFrame.HeartbeatReply))
+		{
+			return true;
+		}
+		
+		long throttleWait = Throttle(clientData, message);
+		if (throttleWait < 0)
+		{
+			return true;
+		}
+		if (throttleWait > 0)
 		{
-			ClientData clientData = iterator.next().getValue();
-			SendMessageToClient(clientData, message, senderName);
+			try
+			{
+				TimeUnit.NANOSECONDS.sleep(throttleWait);
+			}
+			catch (InterruptedException e)
+			{
+				// Client is being disconnected, keeping the interrupt so whatever was reading from it stops too
+				Thread.currentThread().interrupt();
+				return false;
+			}
 		}
+		
+		RelayMessage(clientData, message);
+		return true;
 	}
 	
 	/**
-	 * Sends a message to a specific client connected to the server.
+	 * Hosts a client inside this server's process, instead of it connecting through a socket.
+	 * The client is handed its messages as frames straight from its outbound queue, and everything it sends is relayed on the thread sending it.
+	 * Otherwise it's treated the same as any other client, e.g. it's still rate limited / registered by its first response.
 	 *
-	 * @param recipient The receiving client.
-	 * @param message The message to send.
-	 * @param senderName The name of the sender.
+	 * @param client The client to host, which mustn't already be connected.
+	 * @return Whether the client was connected to this server.
 	 */
-	private void SendMessageToClient(ClientData recipient, String message, String senderName)
+	public boolean TryHostClient(Client client)
 	{
-		PrintWriter outStream = recipient.GetOutputStream();
-		outStream.printf("<%s> %s%n", senderName, message);
-		outStream.flush();
+		ClientData clientData = new ClientData(CreateDisplayName(), OutboundQueueCapacity);
+		clientData.SetConnectionStatus(ClientConnectionStatus.Connecting);
+		HostedClient hostedClient = new HostedClient(this, clientData, client);
+		
+		// The client's first response is written the same way as the rest of its messages, which registers it
+		if (!client.TryConnectInProcess(hostedClient))
+		{
+			return false;
+		}
+		
+		// Its first response was handled on this thread, so it's either registered by now or never will be
+		if (clientData.GetConnectionStatus() != ClientConnectionStatus.Connected)
+		{
+			client.Disconnect();
+			return false;
+		}
+		
+		hostedClient.StartDeliveringMessages();
+		return true;
 	}
 	
 	/**
-	 * Takes in a message in the format '@[recipientDisplayName] [response]', sends the response privately to the recipient.
+	 * Loads a bot by the name of its class, and hosts it inside this server's process, see TryHostClient.
+	 * Any subclass of BotBase can be loaded, as long as it has a public constructor taking the address / port of the server like the bots in this project.
+	 * The bot can still be ran on its own, connecting to a server through a socket.
+	 * Bots which can't be hosted twice (e.g. DoDClient, which keeps its game in process-wide statics) are only ever hosted once per process.
 	 *
-	 * @param message A message in the format '@[recipientDisplayName] [response]'.
-	 * @param senderName The display name of the sender.
+	 * @param className The fully qualified name of the bot's class, e.g. "ChatBotClient".
+	 * @param channelName The channel the bot should join, null for the server's default channel.
+	 * @return Whether the bot was loaded and connected to this server.
 	 */
-	private void SendPrivateMessageToClient(String message, String senderName)
+	public boolean TryHostBot(String className, String channelName)
 	{
-		if (!message.startsWith("@"))
+		BotBase bot;
+		try
 		{
-			return;
+			bot = Class.forName(className).asSubclass(BotBase.class).getConstructor(InetAddress.class, int.class).newInstance(InetAddress.getLoopbackAddress(), Port);
+		}
+		catch (ReflectiveOperationException | ClassCastException e)
+		{
+			ConsoleIO.LogError("Cannot load bot %s, it needs to extend BotBase and have a public (InetAddress, int) constructor.", className);
+			return false;
+		}
+		
+		// Any earlier bot of the same class would share its state with this one
+		if (!bot.CanBeHostedTwice() && !SingleHostedBotClasses.add(bot.getClass()))
+		{
+			ConsoleIO.LogError("Cannot host another %s, only one can be hosted per process.", className);
+			return false;
 		}
 		
-		message = message.substring(1);
+		if (channelName != null)
+		{
+			bot.SetChannel(channelName);
+		}
 		
-		// Checking if they gave a name to private message
-		int indexOfFirstSpace = message.indexOf(" ");
-		if (indexOfFirstSpace != -1)
+		if (!TryHostClient(bot))
 		{
-			// Checking the given name is currently connected
-			String displayName = message.substring(0, indexOfFirstSpace);
-			if (ConnectedClients.containsKey(displayName))
-			{
-				message = message.substring(indexOfFirstSpace + 1);
-				message = String.format("%s(DM) %s %s", ConsoleIO.TextColourYellow, message, ConsoleIO.TextColourReset);
-				SendMessageToClient(ConnectedClients.get(displayName), message, senderName);
-			}
-			else
-			{
-				// Alerting the client that that client isn't connected
-				message = String.format("%s%s is not connected(message was not sent)%s", ConsoleIO.TextColourYellow, displayName, ConsoleIO.TextColourReset);
-				SendMessageToClient(ConnectedClients.get(senderName), message, ServerDisplayName);
-			}
+			SingleHostedBotClasses.remove(bot.getClass());
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets the kind of thread used for accepting connections and relaying messages.
+	 * Only affects threads started after this is called.
+	 *
+	 * @param threadingMode The kind of thread to use.
+	 */
+	public void SetThreadingMode(ThreadingMode threadingMode)
+	{
+		ThreadMode = threadingMode;
+	}
+	
+	/**
+	 * Sets the number of threads used for waiting on new clients' first responses.
+	 * Only takes effect the next time the server starts listening for connections.
+	 *
+	 * @param handshakeThreadCount The number of handshake threads, at least 1.
+	 */
+	public void SetHandshakeThreadCount(int handshakeThreadCount)
+	{
+		HandshakeThreadCount = Math.max(1, handshakeThreadCount);
+	}
+	
+	/**
+	 * Sets how long a new client has to send its first response before it is disconnected.
+	 *
+	 * @param handshakeTimeout The timeout in milliseconds, 0 waits forever.
+	 */
+	public void SetHandshakeTimeout(int handshakeTimeout)
+	{
+		HandshakeTimeout = Math.max(0, handshakeTimeout);
+	}
+	
+	/**
+	 * Gets how long a new client has to send its first response before it is disconnected.
+	 *
+	 * @return The timeout in milliseconds, 0 if clients can wait forever.
+	 */
+	public int GetHandshakeTimeout()
+	{
+		return HandshakeTimeout;
+	}
+	
+	/**
+	 * Sets how many messages can be waiting to be written to each client, and what happens when that limit is reached.
+	 * Only affects clients which connect after this is called.
+	 *
+	 * @param capacity The maximum number of queued messages per client, at least 1.
+	 * @param overflowPolicy What to do with messages sent to a client whose queue is full.
+	 */
+	public void SetOutboundQueue(int capacity, OverflowPolicy overflowPolicy)
+	{
+		OutboundQueueCapacity = Math.max(1, capacity);
+		OutboundOverflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Gets the maximum number of messages which can be waiting to be written to each client.
+	 *
+	 * @return The capacity of each client's outbound queue.
+	 */
+	public int GetOutboundQueueCapacity()
+	{
+		return OutboundQueueCapacity;
+	}
+	
+	/**
+	 * Sets whether messages routed to a bot (those starting with a registered command prefix) are also shown to everyone else.
+	 * When hidden, only the bot and the sender of the command see it.
+	 *
+	 * @param hideRoutedCommands Whether to hide routed commands from other clients.
+	 */
+	public void SetHideRoutedCommands(boolean hideRoutedCommands)
+	{
+		HideRoutedCommands = hideRoutedCommands;
+	}
+	
+	/**
+	 * Sets how long the threaded engine's writing threads wait for more messages before writing what they have, so bursts of messages go out together.
+	 * Messages already queued are always written together, so the default of 0 never delays a message.
+	 * The nio engine writes everything queued for a client at once each time its IO thread wakes up, which has the same effect without waiting.
+	 *
+	 * @param microseconds How long to wait for more messages, in microseconds.
+	 */
+	public void SetWriteCoalescingWindow(int microseconds)
+	{
+		WriteCoalescingWindow = Math.max(0, microseconds) * 1000L;
+	}
+	
+	/**
+	 * Sets how long clients can go without sending anything before they're disconnected, so connections which died without closing are cleaned up.
+	 * Clients which answer heartbeats are sent one after a third of the timeout, so they're only disconnected if they stop answering.
+	 * Only affects clients which connect after this is called.
+	 *
+	 * @param idleTimeout The timeout in milliseconds, 0 never disconnects idle clients.
+	 */
+	public void SetIdleTimeout(int idleTimeout)
+	{
+		if (IdleReaper != null)
+		{
+			IdleReaper.Stop();
+			IdleReaper = null;
+		}
+		
+		if (idleTimeout > 0)
+		{
+			IdleReaper = new IdleReaper(this, idleTimeout);
+		}
+	}
+	
+	/**
+	 * Sends a heartbeat to a client, which it should answer to show it's still there.
+	 *
+	 * @param clientData The client to send the heartbeat to.
+	 */
+	protected void SendHeartbeat(ClientData clientData)
+	{
+		if (clientData.UsesFrames())
+		{
+			QueueMessage(clientData, EncodeFrame(FrameType.Heartbeat, (byte)0, MessageFrame.ServerSenderId, ""));
 		}
 		else
 		{
-			// Alerting the client they didn't provide a name
-			message = String.format("%sProvide a name when trying to primate message(message was not sent)%s", ConsoleIO.TextColourYellow, ConsoleIO.TextColourReset);
-			SendMessageToClient(ConnectedClients.get(senderName), message, ServerDisplayName);
+			QueueMessage(clientData, ByteBuffer.wrap(String.format("%s%n", MessageFrame.HeartbeatHandshakeToken).getBytes(MessageCharset)));
 		}
 	}
 	
 	/**
-	 * Waits for a response from a client.
+	 * Sets how quickly clients of a given type can send messages, affecting clients which connect after this is called.
 	 *
-	 * @param sender The client to wait for a response from.
-	 * @return A string representation of the client's response.
-	 * @throws NullPointerException If the provided client data is null.
+	 * @param type The type of client to limit.
+	 * @param messagesPerSecond The most messages each client can send per second, 0 for no limit.
+	 * @param bytesPerSecond The most bytes each client can send per second, 0 for no limit.
 	 */
-	private String WaitForResponse(ClientData sender) throws NullPointerException
+	public void SetRateLimit(ClientType type, double messagesPerSecond, double bytesPerSecond)
 	{
-		String response = null;
+		RateLimits.put(type, new RateLimit(messagesPerSecond, bytesPerSecond));
+	}
+	
+	/**
+	 * Sets what happens to messages sent by a client faster than its rate limit allows.
+	 * Delayed messages are relayed once they're within the limit, and the client isn't read from meanwhile.
+	 * Otherwise they're dropped, and the client is sent a notice saying so.
+	 *
+	 * @param throttlePolicy What to do with messages over the limit.
+	 */
+	public void SetThrottlePolicy(ThrottlePolicy throttlePolicy)
+	{
+		ThrottlingPolicy = throttlePolicy;
+	}
+	
+	/**
+	 * Checks a message received from a client against the client's rate limit, before it's relayed.
+	 * Dropped private messages still use up a number, and their sender is sent a receipt saying they weren't delivered.
+	 *
+	 * @param sender The client who sent the message.
+	 * @param message The message received.
+	 * @return How long to wait before relaying the message in nanoseconds, 0 to relay it straight away, or -1 if it was dropped.
+	 */
+	protected long Throttle(ClientData sender, String message)
+	{
+		// Counting the line separator too, it's part of what the client sent
+		long wait = sender.TakeRateLimitAllowance(message.length() + 1, ThrottlingPolicy == ThrottlePolicy.Delay);
+		if (wait == 0)
+		{
+			return 0;
+		}
 		
-		try
+		sender.IncrementThrottledMessageCount();
+		if (wait > 0)
 		{
-			response = sender.GetInputStream().readLine();
+			DelayedMessageCount.increment();
+			return wait;
 		}
-		catch (Exception e)
+		
+		ThrottleDroppedMessageCount.increment();
+		SendServerMessageToClient(sender.DisplayName, "You are sending messages too quickly(message was not sent)");
+		
+		// Clients number their private messages as they send them, so dropped ones are numbered here too or every later receipt would be for the wrong message
+		if (message.startsWith("@"))
 		{
-			// Socket / Stream was closed
-			if (e.getClass() == SocketException.class || e.getClass() == IOException.class)
-			{
-				DisconnectClient(sender);
-			}
-			else
+			SendReceipt(sender, sender.NumberPrivateMessage(), null, false);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Logs the rate limits for each type of client, and how many messages have been held back by them.
+	 */
+	public void LogThrottling()
+	{
+		ConsoleIO.Log("Rate limits (%s when exceeded), %d messages delayed, %d dropped:", ThrottlingPolicy, DelayedMessageCount.sum(), ThrottleDroppedMessageCount.sum());
+		for (ClientType type : ClientType.values())
+		{
+			RateLimit rateLimit = RateLimits.get(type);
+			ConsoleIO.Log("%s: %s messages/s, %s bytes/s", type, rateLimit.MessagesPerSecond > 0 ? rateLimit.MessagesPerSecond : "unlimited", rateLimit.BytesPerSecond > 0 ? rateLimit.BytesPerSecond : "unlimited");
+		}
+		for (ClientData clientData : ConnectedClients.GetSnapshot())
+		{
+			if (clientData.GetThrottledMessageCount() > 0)
 			{
-				e.printStackTrace();
+				ConsoleIO.Log("%s: %d messages throttled", clientData.DisplayName, clientData.GetThrottledMessageCount());
 			}
 		}
-		
-		return response;
 	}
 	
 	/**
-	 * Closes the socket of a given client.
+	 * Counts messages written to a client, for measuring how well writes are being batched and how long messages take to relay.
 	 *
-	 * @param clientData The client who's socket needs ot be closed.
+	 * @param clientData The client the messages were written to.
+	 * @param writeCount The number of writes made to the socket.
+	 * @param messageCount The number of messages those writes completed.
+	 * @param byteCount The number of bytes written.
 	 */
-	private void CloseSocket(ClientData clientData)
+	protected void RecordWrites(ClientData clientData, int writeCount, int messageCount, long byteCount)
 	{
-		if (!clientData.Socket.isClosed())
+		Metrics.RecordWrites(writeCount, messageCount, byteCount);
+		clientData.OnMessagesWritten(messageCount);
+	}
+	
+	/**
+	 * Logs how many writes have been made to clients' sockets, and the average number of messages in each.
+	 */
+	public void LogWriteBatching()
+	{
+		long writeCount = Metrics.GetWriteCount();
+		long messageCount = Metrics.GetMessagesWritten();
+		double messagesPerWrite = writeCount > 0 ? (double)messageCount / writeCount : 0;
+		ConsoleIO.Log("%d messages written in %d writes (%.2f messages per write, coalescing window %d us)", messageCount, writeCount, messagesPerWrite, WriteCoalescingWindow / 1000);
+	}
+	
+	/**
+	 * Logs the server's metrics, connections, throughput and how long messages take to relay for each type of client.
+	 * Rates are worked out since the metrics were last logged.
+	 */
+	public void LogStats()
+	{
+		for (String line : Metrics.Describe(ConnectedClients.GetSnapshot()))
 		{
-			try
-			{
-				clientData.Socket.close();
-			}
-			catch (IOException e)
-			{
-				ConsoleIO.LogError("Couldn't close socket for '%s'", clientData.DisplayName);
-			}
+			ConsoleIO.Log("%s", line);
 		}
 	}
 	
 	/**
-	 * Disconnects a given client from the server, disposes of any resources used.
-	 * This will have no effect if the client does not exist / is no longer connected / is null.
+	 * Gets the server's metrics in the Prometheus text format, for monitoring tools to scrape.
 	 *
-	 * @param clientData The client to disconnect.
+	 * @return The metrics, one per line.
 	 */
-	public void DisconnectClient(ClientData clientData)
+	public String GetStatsText()
+	{
+		return Metrics.ToScrapeText(ConnectedClients.GetSnapshot());
+	}
+	
+	/**
+	 * Sets how often the server's metrics are logged to the console.
+	 *
+	 * @param seconds The interval in seconds, 0 to stop logging them.
+	 */
+	public void SetStatsInterval(int seconds)
 	{
-		if (clientData == null || clientData.GetConnectionStatus() == ClientConnectionStatus.Disconnecting)
+		if (StatsLoggingThread != null)
 		{
-			return;
+			StatsLoggingThread.interrupt();
+			StatsLoggingThread = null;
 		}
 		
-		clientData.SetConnectionStatus(ClientConnectionStatus.Disconnecting);
-		
-		// Removing client from list
-		synchronized (ConnectedClients)
+		if (seconds <= 0)
 		{
-			ConnectedClients.remove(clientData.DisplayName);
+			return;
 		}
 		
-		// Close client socket
-		CloseSocket(clientData);
-		
-		// Close listening thread.
-		if (clientData.MessageRelayingThread != null && Thread.currentThread() != clientData.MessageRelayingThread)
+		StatsLoggingThread = new Thread(() ->
 		{
-			clientData.MessageRelayingThread.interrupt();
 			try
 			{
-				clientData.MessageRelayingThread.join();
+				while (!Thread.interrupted())
+				{
+					TimeUnit.SECONDS.sleep(seconds);
+					LogStats();
+				}
 			}
 			catch (InterruptedException e)
 			{
-				e.printStackTrace();
+				// Interval changed / server shutting down
 			}
-			clientData.MessageRelayingThread = null;
-		}
+		}, "Stats Logging Thread");
 		
-		// Alerting all connected clients of hte disconnect
-		clientData.SetConnectionStatus(ClientConnectionStatus.Disconnected);
-		ConsoleIO.LogError("Disconnected from %s(%s:%d)", clientData.DisplayName, clientData.Socket.getInetAddress(), clientData.Socket.getPort());
-		String alert = String.format("%s%s has disconnected.%s", ConsoleIO.TextColourRed, clientData.DisplayName, ConsoleIO.TextColourReset);
-		SendMessageToAllClients(alert, ServerDisplayName);
+		// Only ever logs, there's no need to keep the program alive for it
+		StatsLoggingThread.setDaemon(true);
+		StatsLoggingThread.start();
+	}
+	
+	/**
+	 * Serves the server's metrics over HTTP at 'http://localhost:[port]/stats', so they can be scraped by monitoring tools.
+	 * Only listens on the loopback address, the metrics are never exposed to other machines.
+	 *
+	 * @param port The port to serve the metrics on.
+	 * @return Whether the metrics are being served.
+	 */
+	public boolean TryStartStatsEndpoint(int port)
+	{
+		StopStatsEndpoint();
+		try
+		{
+			StatsEndpoint = new StatsEndpoint(this, port);
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			ConsoleIO.LogError("Cannot serve stats on port %d.", port);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Stops serving the server's metrics over HTTP, if they were being served.
+	 */
+	public void StopStatsEndpoint()
+	{
+		if (StatsEndpoint != null)
+		{
+			StatsEndpoint.Stop();
+			StatsEndpoint = null;
+		}
+	}
+	
+	/**
+	 * Logs the number of messages waiting to be written to, and dropped for, each connected client.
+	 */
+	public void LogOutboundQueues()
+	{
+		ConsoleIO.Log("Outbound queues (capacity %d, %s when full):", OutboundQueueCapacity, OutboundOverflowPolicy);
+		for (ClientData clientData : ConnectedClients.GetSnapshot())
+		{
+			ConsoleIO.Log("%s: %d queued, %d dropped", clientData.DisplayName, clientData.GetQueuedMessageCount(), clientData.GetDroppedMessageCount());
+		}
+	}
+	
+	/**
+	 * Gets the number of clients currently connected to the server.
+	 *
+	 * @return The number of connected clients.
+	 */
+	public int GetConnectedClientCount()
+	{
+		return ConnectedClients.Size();
+	}
+	
+	/**
+	 * Creates a unique display name for a newly connected client.
+	 * Called by both the thread accepting connections and whichever thread is hosting a client in this process.
+	 *
+	 * @return The display name to give the client.
+	 */
+	protected String CreateDisplayName()
+	{
+		return String.format("C#%d", TotalClientsConnected.getAndIncrement());
+	}
+	
+	/**
+	 * Waits for a new client's first response, then registers it and starts relaying its messages.
+	 * Clients which disconnect, or don't respond within the handshake timeout, are never registered.
+	 *
+	 * @param clientData The newly accepted client.
+	 */
+	private void Handshake(ClientData clientData)
+	{
+		Socket clientSocket = clientData.Socket;
+		String response = null;
+		
+		try
+		{
+			// Block until client sends expected behaviour
+			clientSocket.setSoTimeout(HandshakeTimeout);
+			response = clientData.GetInputStream().ReadLine();
+			clientSocket.setSoTimeout(0);
+		}
+		catch (SocketTimeoutException e)
+		{
+			ConsoleIO.LogError("%s:%d did not respond within %d ms.", clientSocket.getInetAddress(), clientSocket.getPort(), HandshakeTimeout);
+		}
+		catch (IOException e)
+		{
+			// Socket / Stream was closed
+		}
+		
+		// Dealing with clients disconnecting immediately / timing out
+		if (response == null)
+		{
+			CloseSocket(clientData);
+			return;
+		}
+		
+		// The writer can close the socket once it's started, e.g. failing to write, in which case nothing would be reading from the client to notice
+		StartWritingMessages(clientData);
+		if (!RegisterClient(clientData, response) || !StartRelayingMessages(clientData))
+		{
+			DisconnectClient(clientData);
+		}
+	}
+	
+	/**
+	 * Finishes connecting a client once it has sent its first response, adding it to the list of connected clients.
+	 *
+	 * @param clientData The client which has just connected.
+	 * @param response The first response sent by the client, which determines its type.
+	 * @return Whether the client was registered, false if another client is already registered with its display name.
+	 * Nothing is done for clients which aren't registered, the caller is left to disconnect them.
+	 */
+	protected boolean RegisterClient(ClientData clientData, String response)
+	{
+		// Checking whether the client asked for binary frames / receipts / heartbeats / registered command prefixes / picked a channel, '[type] BIN1 RECEIPTS HEARTBEAT PREFIX:[prefix]... CHANNEL:[name]'
+		String[] responseTokens = response.split(" ");
+		ArrayList<String> commandPrefixes = new ArrayList<>();
+		String channelName = Channel.DefaultName;
+		for (int i = 1; i < responseTokens.length; i++)
+		{
+			if (responseTokens[i].equals(MessageFrame.HandshakeToken))
+			{
+				clientData.SetUsesFrames(true);
+			}
+			else if (responseTokens[i].equals(MessageFrame.ReceiptsHandshakeToken))
+			{
+				clientData.SetWantsReceipts(true);
+			}
+			else if (responseTokens[i].equals(MessageFrame.HeartbeatHandshakeToken))
+			{
+				clientData.SetAnswersHeartbeats(true);
+			}
+			else if (responseTokens[i].startsWith(CommandRouter.HandshakeToken) && responseTokens[i].length() > CommandRouter.HandshakeToken.length())
+			{
+				commandPrefixes.add(responseTokens[i].substring(CommandRouter.HandshakeToken.length()));
+			}
+			else if (responseTokens[i].startsWith(Channel.HandshakeToken))
+			{
+				String requestedChannelName = Channel.NormaliseName(responseTokens[i].substring(Channel.HandshakeToken.length()));
+				if (requestedChannelName != null)
+				{
+					channelName = requestedChannelName;
+				}
+			}
+		}
+		clientData.SetCommandPrefixes(commandPrefixes.toArray(new String[0]));
+		
+		// Setting clients type based on response
+		switch (responseTokens[0])
+		{
+			case "ChatBot":
+				clientData.SetType(ClientType.ChatBot);
+				break;
+				
+			case "DoDBot":
+				clientData.SetType(ClientType.DoDBot);
+				break;
+				
+			case "ChatClient":
+			default:
+				clientData.SetType(ClientType.RegularChatter);
+				break;
+		}
+		clientData.SetRateLimit(RateLimits.get(clientData.GetClientType()));
+		
+		synchronized (RegistrationLock)
+		{
+			// Clients are only added while holding this lock, so the name is still free once it's been checked
+			if (ConnectedClients.Contains(clientData.DisplayName))
+			{
+				ConsoleIO.LogError("Cannot register %s(%s), another client is already registered with that name.", clientData.DisplayName, clientData.DescribeAddress());
+				return false;
+			}
+			
+			// Agreeing to frames, then introducing everyone already connected before the client can receive any of their messages
+			// Queued as a single message, so it never overflows the client's queue however many clients are connected
+			if (clientData.UsesFrames())
+			{
+				ClientData[] connectedClients = ConnectedClients.GetSnapshot();
+				ByteBuffer[] introduction = new ByteBuffer[connectedClients.length + 2];
+				introduction[0] = ByteBuffer.wrap(String.format("%s%n", MessageFrame.HandshakeToken).getBytes(MessageCharset));
+				introduction[1] = EncodeFrame(FrameType.Identity, (byte)0, MessageFrame.ServerSenderId, ServerDisplayName);
+				for (int i = 0; i < connectedClients.length; i++)
+				{
+					introduction[i + 2] = EncodeFrame(FrameType.Identity, (byte)0, connectedClients[i].Id, connectedClients[i].DisplayName);
+				}
+				QueueMessage(clientData, Concatenate(introduction));
+			}
+			
+			// Adding client to list
+			if (!ConnectedClients.Add(clientData))
+			{
+				return false;
+			}
+			
+			// Introducing the client to everyone using frames, including itself
+			ByteBuffer identity = EncodeFrame(FrameType.Identity, (byte)0, clientData.Id, clientData.DisplayName);
+			for (ClientData connectedClient : ConnectedClients.GetSnapshot())
+			{
+				if (connectedClient.UsesFrames())
+				{
+					QueueMessage(connectedClient, identity.duplicate());
+				}
+			}
+		}
+		
+		// Putting the client in its channel, routing commands to it once it can receive messages
+		Channel channel = JoinChannel(clientData, channelName);
+		
+		// Finalising everything
+		ConsoleIO.LogHighlight("New client %s connected from %s to #%s", clientData.DisplayName, clientData.DescribeAddress(), channel.Name);
+		clientData.SetConnectionStatus(ClientConnectionStatus.Connected);
+		Metrics.RecordConnectionOpened();
+		
+		// Watching for the client going silent, clients hosted in this process can't silently drop their connection
+		IdleReaper idleReaper = IdleReaper;
+		if (idleReaper != null && clientData.Hosted == null)
+		{
+			clientData.MarkReceived();
+			idleReaper.Add(clientData);
+		}
+		
+		// Alerting everyone in the channel of the new connection
+		String connectionAlert = String.format("%s has connected!", clientData.DisplayName);
+		SendMessageToChannel(channel, connectionAlert, MessageKind.Connected, null);
+		return true;
+	}
+	
+	/**
+	 * Relays a message received from a client to its intended recipients.
+	 * Some messages are tracked until they've been written to every recipient, measuring how long relaying takes.
+	 *
+	 * @param sender The client who sent the message.
+	 * @param message The message received.
+	 */
+	protected void RelayMessage(ClientData sender, String message)
+	{
+		// Counting the line separator too, it's part of what the client sent
+		Metrics.RecordReceived(sender.GetClientType(), message.length() + 1);
+		
+		RelaySample sample = Metrics.SampleRelay(sender.GetClientType(), sender.GetLastReceivedAt());
+		if (sample == null)
+		{
+			RouteMessage(sender, message);
+			return;
+		}
+		
+		// Every message queued while routing is part of the sample
+		CurrentRelaySample.set(sample);
+		try
+		{
+			RouteMessage(sender, message);
+		}
+		finally
+		{
+			CurrentRelaySample.remove();
+			sample.Release();
+		}
+	}
+	
+	/**
+	 * Sends a message received from a client to whoever it's meant for, e.g. its channel / the recipient of a private message.
+	 *
+	 * @param sender The client who sent the message.
+	 * @param message The message received.
+	 */
+	private void RouteMessage(ClientData sender, String message)
+	{
+		// Checking if this was meant to be a private message, these never touch the sender's channel
+		if (message.startsWith("@"))
+		{
+			SendPrivateMessageToClient(message, sender);
+		}
+		else if (message.startsWith("/") && TryHandleChannelCommand(sender, message))
+		{
+			return;
+		}
+		else
+		{
+			Channel channel = sender.GetChannel();
+			
+			// Showing the message first, so a bot hosted in this process can't answer a command before it's been shown
+			// Bots which registered a prefix are never sent chat messages, only commands routed to them
+			ClientData[] routedClients = channel.CommandRoutes.Route(message);
+			if (routedClients != null && HideRoutedCommands)
+			{
+				// Only echoing the command back to its sender
+				if (!sender.HasCommandPrefixes())
+				{
+					SendMessageToClient(sender, message, MessageKind.Chat, sender);
+				}
+			}
+			else
+			{
+				SendMessageToChannel(channel, message, MessageKind.Chat, sender);
+			}
+			
+			// Sending commands to the bots in the channel which registered their prefix
+			if (routedClients != null)
+			{
+				for (ClientData routedClient : routedClients)
+				{
+					if (routedClient != sender)
+					{
+						SendMessageToClient(routedClient, message, MessageKind.Chat, sender);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Handles the channel commands clients can send, '/join [channel]', '/leave' and '/list'.
+	 *
+	 * @param sender The client who sent the command.
+	 * @param message The message received.
+	 * @return Whether the message was a channel command, other messages should be relayed as usual.
+	 */
+	private boolean TryHandleChannelCommand(ClientData sender, String message)
+	{
+		String[] tokens = message.split("\\s+");
+		switch (tokens[0])
+		{
+			// Moving to a channel, creating it if it doesn't exist
+			case "/join":
+				String channelName = tokens.length > 1 ? Channel.NormaliseName(tokens[1]) : null;
+				if (channelName != null)
+				{
+					MoveToChannel(sender, channelName);
+				}
+				else
+				{
+					SendServerMessageToClient(sender.DisplayName, String.format("Provide a channel name of up to %d characters, e.g. '/join games'", Channel.MaxNameLength));
+				}
+				return true;
+				
+			// Going back to the default channel
+			case "/leave":
+				MoveToChannel(sender, Channel.DefaultName);
+				return true;
+				
+			// Listing every channel and how many clients are in each
+			case "/list":
+				SendServerMessageToClient(sender.DisplayName, String.format("Channels: %s", DescribeChannels()));
+				return true;
+				
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Moves a client from its current channel to another, alerting both channels.
+	 *
+	 * @param clientData The client to move.
+	 * @param channelName The normalised name of the channel to move to.
+	 */
+	private void MoveToChannel(ClientData clientData, String channelName)
+	{
+		Channel oldChannel = clientData.GetChannel();
+		if (oldChannel.Name.equals(channelName))
+		{
+			SendServerMessageToClient(clientData.DisplayName, String.format("You are already in #%s", channelName));
+			return;
+		}
+		
+		Channel newChannel = JoinChannel(clientData, channelName);
+		LeaveChannel(clientData, oldChannel);
+		
+		// The client started disconnecting meanwhile, it may have been removed from its old channel instead of the new one
+		ClientConnectionStatus status = clientData.GetConnectionStatus();
+		if (status == ClientConnectionStatus.Disconnecting || status == ClientConnectionStatus.Disconnected)
+		{
+			LeaveChannel(clientData, newChannel);
+			return;
+		}
+		
+		SendMessageToChannel(oldChannel, String.format("%s has left #%s.", clientData.DisplayName, oldChannel.Name), MessageKind.Left, null);
+		SendMessageToChannel(newChannel, String.format("%s has joined #%s.", clientData.DisplayName, newChannel.Name), MessageKind.Joined, null);
+	}
+	
+	/**
+	 * Adds a client to a channel, creating the channel if it doesn't exist.
+	 *
+	 * @param clientData The client joining the channel.
+	 * @param channelName The normalised name of the channel.
+	 * @return The channel joined.
+	 */
+	private Channel JoinChannel(ClientData clientData, String channelName)
+	{
+		// Adding the client atomically with creating the channel, so it can't be discarded as empty in between
+		Channel channel = ChannelsByName.compute(channelName, (name, existingChannel) ->
+		{
+			Channel joinedChannel = existingChannel != null ? existingChannel : new Channel(name);
+			joinedChannel.Add(clientData);
+			return joinedChannel;
+		});
+		
+		clientData.SetChannel(channel);
+		return channel;
+	}
+	
+	/**
+	 * Removes a client from a channel, discarding the channel if it's left empty.
+	 *
+	 * @param clientData The client leaving the channel.
+	 * @param channel The channel being left.
+	 */
+	private void LeaveChannel(ClientData clientData, Channel channel)
+	{
+		channel.Remove(clientData);
+		ChannelsByName.computeIfPresent(channel.Name, (name, existingChannel) -> existingChannel.CanBeDiscarded() ? null : existingChannel);
+	}
+	
+	/**
+	 * Describes every channel, e.g. '#general (3), #games (2)'.
+	 *
+	 * @return A description of every channel and how many clients are in each.
+	 */
+	private String DescribeChannels()
+	{
+		StringBuilder description = new StringBuilder();
+		for (Channel channel : ChannelsByName.values())
+		{
+			if (description.length() != 0)
+			{
+				description.append(", ");
+			}
+			description.append('#').append(channel.Name).append(" (").append(channel.Members.Size()).append(')');
+		}
+		
+		return description.toString();
+	}
+	
+	/**
+	 * Logs every channel and how many clients are in each.
+	 */
+	public void LogChannels()
+	{
+		ConsoleIO.Log("%d channels: %s", ChannelsByName.size(), DescribeChannels());
+	}
+	
+	/**
+	 * Starts a thread which writes messages queued for a given client to its socket.
+	 * Other threads only ever queue messages for the client, so they're never blocked by a client which is slow to read them.
+	 * Every message queued by the time the thread wakes up (or within the coalescing window) is written at once, rather than one write per message.
+	 *
+	 * @param clientData The client to write messages to.
+	 */
+	private void StartWritingMessages(ClientData clientData)
+	{
+		clientData.MessageWritingThread = ThreadMode.NewThread(() ->
+		{
+			OutputStream out = clientData.GetOutputStream();
+			ByteBuffer[] batch = new ByteBuffer[MaxMessagesPerWrite];
+			byte[] writeBuffer = new byte[WriteBufferSize];
+			try
+			{
+				while (!Thread.interrupted())
+				{
+					batch[0] = clientData.TakeQueuedMessage();
+					int messageCount = 1 + clientData.DrainQueuedMessages(batch, 1);
+					
+					// Waiting a little longer for more messages, if configured to
+					if (WriteCoalescingWindow > 0)
+					{
+						long deadline = System.nanoTime() + WriteCoalescingWindow;
+						while (messageCount < batch.length)
+						{
+							ByteBuffer message = clientData.PollQueuedMessage(deadline - System.nanoTime());
+							if (message == null)
+							{
+								break;
+							}
+							
+							batch[messageCount++] = message;
+							messageCount += clientData.DrainQueuedMessages(batch, messageCount);
+						}
+					}
+					
+					long byteCount = 0;
+					for (int i = 0; i < messageCount; i++)
+					{
+						byteCount += batch[i].remaining();
+					}
+					
+					RecordWrites(clientData, WriteBatch(out, batch, messageCount, writeBuffer), messageCount, byteCount);
+					Arrays.fill(batch, 0, messageCount, null);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				// Client is being disconnected
+			}
+			catch (IOException e)
+			{
+				// Socket / Stream was closed
+				RequestDisconnect(clientData);
+			}
+		}, clientData.DisplayName + " Writing Thread");
+		
+		clientData.MessageWritingThread.start();
+	}
+	
+	/**
+	 * Gathers a batch of messages into a buffer and writes them to a stream together.
+	 * Messages may be read-only views of a buffer shared with other clients, so they're copied rather than written from their arrays.
+	 *
+	 * @param out The stream to write to.
+	 * @param batch The messages to write.
+	 * @param messageCount The number of messages in the batch.
+	 * @param writeBuffer The buffer to gather the messages into.
+	 * @return The number of writes made to the stream.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static int WriteBatch(OutputStream out, ByteBuffer[] batch, int messageCount, byte[] writeBuffer) throws IOException
+	{
+		int writeCount = 0;
+		int length = 0;
+		for (int i = 0; i < messageCount; i++)
+		{
+			ByteBuffer message = batch[i];
+			while (message.hasRemaining())
+			{
+				// Buffer is full, writing it out before carrying on
+				if (length == writeBuffer.length)
+				{
+					out.write(writeBuffer, 0, length);
+					writeCount++;
+					length = 0;
+				}
+				
+				int copyLength = Math.min(message.remaining(), writeBuffer.length - length);
+				message.get(writeBuffer, length, copyLength);
+				length += copyLength;
+			}
+		}
+		
+		if (length > 0)
+		{
+			out.write(writeBuffer, 0, length);
+			writeCount++;
+		}
+		
+		return writeCount;
+	}
+	
+	/**
+	 * Sends a message to every client in a channel.
+	 *
+	 * @param channel The channel to send the message to.
+	 * @param message The message to send.
+	 * @param kind The kind of message being sent.
+	 * @param sender The client who sent the message, null if it's from the server.
+	 */
+	private void SendMessageToChannel(Channel channel, String message, MessageKind kind, ClientData sender)
+	{
+		// Formatting / encoding the message at most once per protocol, every client is given its own view of the same bytes
+		ByteBuffer line = null;
+		ByteBuffer frame = null;
+		
+		// Iterating a snapshot, so clients joining / leaving meanwhile don't affect this broadcast
+		for (ClientData clientData : channel.Members.GetSnapshot())
+		{
+			// Bots with command prefixes are only sent chat messages routed to them
+			if (kind == MessageKind.Chat && clientData.HasCommandPrefixes())
+			{
+				continue;
+			}
+			
+			if (clientData.UsesFrames())
+			{
+				if (frame == null)
+				{
+					frame = EncodeFrame(FrameType.Message, kind.Code, GetSenderId(sender), message);
+				}
+				QueueMessage(clientData, frame.duplicate());
+			}
+			else
+			{
+				if (line == null)
+				{
+					line = EncodeMessage(kind.FormatAsText(message), GetSenderName(sender));
+				}
+				QueueMessage(clientData, line.duplicate());
+			}
+		}
+	}
+	
+	/**
+	 * Sends a message to a specific client connected to the server.
+	 *
+	 * @param recipient The receiving client.
+	 * @param message The message to send.
+	 * @param kind The kind of message being sent.
+	 * @param sender The client who sent the message, null if it's from the server.
+	 * @return Whether the message was queued for the client, it isn't if the client is disconnecting / its queue is full.
+	 */
+	protected boolean SendMessageToClient(ClientData recipient, String message, MessageKind kind, ClientData sender)
+	{
+		if (recipient.UsesFrames())
+		{
+			return QueueMessage(recipient, EncodeFrame(FrameType.Message, kind.Code, GetSenderId(sender), message));
+		}
+		else
+		{
+			return QueueMessage(recipient, EncodeMessage(kind.FormatAsText(message), GetSenderName(sender)));
+		}
+	}
+	
+	/**
+	 * Gets the display name messages from a sender are shown with.
+	 *
+	 * @param sender The client who sent a message, null if it's from the server.
+	 * @return The sender's display name.
+	 */
+	private String GetSenderName(ClientData sender)
+	{
+		return sender != null ? sender.DisplayName : ServerDisplayName;
+	}
+	
+	/**
+	 * Gets the id identifying a sender in binary frames.
+	 *
+	 * @param sender The client who sent a message, null if it's from the server.
+	 * @return The sender's id.
+	 */
+	private int GetSenderId(ClientData sender)
+	{
+		return sender != null ? sender.Id : MessageFrame.ServerSenderId;
+	}
+	
+	/**
+	 * Formats and encodes a message the way it's sent to clients, '&lt;[senderName]&gt; [message]' followed by a line separator.
+	 *
+	 * @param message The message to encode.
+	 * @param senderName The name of the sender.
+	 * @return A read-only buffer containing the encoded line. Duplicate it before handing it to more than one client.
+	 */
+	protected ByteBuffer EncodeMessage(String message, String senderName)
+	{
+		return ByteBuffer.wrap(String.format("<%s> %s%n", senderName, message).getBytes(MessageCharset)).asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Encodes a binary frame, for clients which asked for frames instead of text lines.
+	 *
+	 * @param type What the frame contains.
+	 * @param flags Flags for the frame's header, the MessageKind's code for message frames.
+	 * @param senderId The id of the client the frame is about.
+	 * @param payload The frame's payload.
+	 * @return A read-only buffer containing the encoded frame. Duplicate it before handing it to more than one client.
+	 */
+	protected ByteBuffer EncodeFrame(FrameType type, byte flags, int senderId, String payload)
+	{
+		return MessageFrame.Encode(type, flags, senderId, payload);
+	}
+	
+	/**
+	 * Joins encoded messages together, so they can be queued as one.
+	 *
+	 * @param messages The encoded messages, in the order they should be written.
+	 * @return A read-only buffer containing every message.
+	 */
+	private static ByteBuffer Concatenate(ByteBuffer... messages)
+	{
+		int length = 0;
+		for (ByteBuffer message : messages)
+		{
+			length += message.remaining();
+		}
+		
+		ByteBuffer joined = ByteBuffer.allocate(length);
+		for (ByteBuffer message : messages)
+		{
+			joined.put(message.duplicate());
+		}
+		joined.flip();
+		return joined.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Queues an encoded message to be written to a client, applying the overflow policy if the client's queue is full.
+	 *
+	 * @param recipient The receiving client.
+	 * @param message The encoded message.
+	 * @return Whether the message was queued, it isn't if the client is disconnecting / the policy rejected it.
+	 */
+	protected boolean QueueMessage(ClientData recipient, ByteBuffer message)
+	{
+		// Client is already being disconnected
+		if (recipient.Socket.isClosed())
+		{
+			return false;
+		}
+		
+		switch (OutboundOverflowPolicy)
+		{
+			case DropOldest:
+				recipient.QueueMessageDroppingOldest(message);
+				break;
+				
+			case DropNewest:
+				if (!recipient.TryQueueMessage(message))
+				{
+					return false;
+				}
+				break;
+				
+			case Disconnect:
+				if (!recipient.TryQueueMessage(message))
+				{
+					ConsoleIO.LogError("%s is not reading its messages fast enough, disconnecting.", recipient.DisplayName);
+					RequestDisconnect(recipient);
+					return false;
+				}
+				break;
+		}
+		
+		// Tracking the message until it's written, if the message being relayed is sampled
+		RelaySample sample = CurrentRelaySample.get();
+		if (sample != null)
+		{
+			recipient.AddRelayMarker(sample);
+		}
+		
+		OnMessageQueued(recipient);
+		return true;
+	}
+	
+	/**
+	 * Called after a message has been queued for a client.
+	 * Each client's writing thread is already waiting on its queue, so there's nothing to do here.
+	 *
+	 * @param recipient The client a message was queued for.
+	 */
+	protected void OnMessageQueued(ClientData recipient)
+	{
+	}
+	
+	/**
+	 * Asks for a client to be disconnected, without waiting for it to happen.
+	 * Closing the socket makes the client's relaying thread fail its next read, which then disconnects the client.
+	 * Clients hosted in this process aren't read from, their delivery thread disconnects them instead.
+	 *
+	 * @param clientData The client to disconnect.
+	 */
+	protected void RequestDisconnect(ClientData clientData)
+	{
+		CloseSocket(clientData);
+		
+		HostedClient hostedClient = clientData.Hosted;
+		if (hostedClient != null)
+		{
+			hostedClient.RequestDisconnect();
+		}
+	}
+	
+	/**
+	 * Takes in a message in the format '@[recipientDisplayName] [response]', sends the response privately to the recipient.
+	 * The recipient is looked up by name (ignoring case) rather than searched for, so private messages cost the same however many clients are connected.
+	 * Clients which asked for receipts are then told whether the message was delivered.
+	 *
+	 * @param message A message in the format '@[recipientDisplayName] [response]'.
+	 * @param sender The client who sent the message.
+	 */
+	private void SendPrivateMessageToClient(String message, ClientData sender)
+	{
+		long messageNumber = sender.NumberPrivateMessage();
+		
+		// Finding the end of the name, which starts after the '@'
+		int nameEnd = 1;
+		while (nameEnd < message.length() && !Character.isWhitespace(message.charAt(nameEnd)))
+		{
+			nameEnd++;
+		}
+		
+		// Checking if they gave a name and a message
+		if (nameEnd == 1 || nameEnd == message.length())
+		{
+			SendServerMessageToClient(sender.DisplayName, "Provide a name and a message when trying to private message(message was not sent)");
+			SendReceipt(sender, messageNumber, null, false);
+			return;
+		}
+		
+		// Checking the given name is currently connected
+		String displayName = message.substring(1, nameEnd);
+		ClientData recipient = ConnectedClients.Get(displayName);
+		if (recipient == null)
+		{
+			SendServerMessageToClient(sender.DisplayName, String.format("%s is not connected(message was not sent)", displayName));
+			SendReceipt(sender, messageNumber, null, false);
+			return;
+		}
+		
+		boolean delivered = SendMessageToClient(recipient, message.substring(nameEnd + 1), MessageKind.Private, sender);
+		SendReceipt(sender, messageNumber, recipient, delivered);
+	}
+	
+	/**
+	 * Tells a client whether one of its private messages was delivered, if it asked for receipts when connecting.
+	 *
+	 * @param sender The client who sent the private message.
+	 * @param messageNumber The number of the private message.
+	 * @param recipient The client the message was sent to, null if there wasn't one.
+	 * @param delivered Whether the message was queued for the recipient.
+	 */
+	private void SendReceipt(ClientData sender, long messageNumber, ClientData recipient, boolean delivered)
+	{
+		if (sender.UsesFrames() && sender.WantsReceipts())
+		{
+			byte flags = delivered ? (byte)1 : (byte)0;
+			QueueMessage(sender, EncodeFrame(FrameType.Receipt, flags, GetSenderId(recipient), Long.toString(messageNumber)));
+		}
+	}
+	
+	/**
+	 * Sends a notice from the server to a client, if it's still connected.
+	 *
+	 * @param displayName The display name of the client.
+	 * @param message The notice to send.
+	 */
+	private void SendServerMessageToClient(String displayName, String message)
+	{
+		ClientData recipient = ConnectedClients.Get(displayName);
+		if (recipient != null)
+		{
+			SendMessageToClient(recipient, message, MessageKind.Notice, null);
+		}
+	}
+	
+	/**
+	 * Waits for a response from a client.
+	 *
+	 * @param sender The client to wait for a response from.
+	 * @return A string representation of the client's response.
+	 * @throws NullPointerException If the provided client data is null.
+	 */
+	private String WaitForResponse(ClientData sender) throws NullPointerException
+	{
+		String response = null;
+		
+		try
+		{
+			response = sender.GetInputStream().ReadLine();
+		}
+		catch (Exception e)
+		{
+			// Socket / Stream was closed
+			if (e.getClass() == SocketException.class || e.getClass() == IOException.class)
+			{
+				DisconnectClient(sender);
+			}
+			else
+			{
+				e.printStackTrace();
+			}
+		}
+		
+		return response;
+	}
+	
+	/**
+	 * Closes the socket of a given client.
+	 *
+	 * @param clientData The client who's socket needs ot be closed.
+	 */
+	protected void CloseSocket(ClientData clientData)
+	{
+		if (!clientData.Socket.isClosed())
+		{
+			try
+			{
+				clientData.Socket.close();
+			}
+			catch (IOException e)
+			{
+				ConsoleIO.LogError("Couldn't close socket for '%s'", clientData.DisplayName);
+			}
+		}
+	}
+	
+	/**
+	 * Disconnects a given client from the server, disposes of any resources used.
+	 * This will have no effect if the client does not exist / is no longer connected / is null.
+	 *
+	 * @param clientData The client to disconnect.
+	 */
+	public void DisconnectClient(ClientData clientData)
+	{
+		if (clientData == null || !clientData.TryBeginDisconnecting())
+		{
+			return;
+		}
+		
+		// Removing client from list
+		ConnectedClients.Remove(clientData);
+		Channel channel = clientData.GetChannel();
+		if (channel != null)
+		{
+			LeaveChannel(clientData, channel);
+		}
+		
+		// Close client socket
+		CloseSocket(clientData);
+		
+		// Close listening thread.
+		if (clientData.MessageRelayingThread != null && Thread.currentThread() != clientData.MessageRelayingThread)
+		{
+			clientData.MessageRelayingThread.interrupt();
+			try
+			{
+				clientData.MessageRelayingThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+			clientData.MessageRelayingThread = null;
+		}
+		
+		// Close writing thread, it may have been waiting for a message / blocked writing one before the socket was closed
+		if (clientData.MessageWritingThread != null && Thread.currentThread() != clientData.MessageWritingThread)
+		{
+			clientData.MessageWritingThread.interrupt();
+			clientData.MessageWritingThread = null;
+		}
+		
+		// Alerting everyone in the client's channel of hte disconnect
+		clientData.SetConnectionStatus(ClientConnectionStatus.Disconnected);
+		ConsoleIO.LogError("Disconnected from %s(%s)", clientData.DisplayName, clientData.DescribeAddress());
+		if (channel != null)
+		{
+			Metrics.RecordConnectionClosed();
+			String alert = String.format("%s has disconnected.", clientData.DisplayName);
+			SendMessageToChannel(channel, alert, MessageKind.Disconnected, null);
+		}
+		
+		// Letting a client hosted in this process know, since it has no socket to notice being closed
+		if (clientData.Hosted != null)
+		{
+			clientData.Hosted.OnDisconnected();
+		}
 	}
 	
 	/**
@@ -398,10 +1604,8 @@ public class Server
 	 */
 	public void DisconnectAllClients()
 	{
-		Iterator<Map.Entry<String, ClientData>> iterator = ConnectedClients.entrySet().iterator();
-		while (iterator.hasNext())
+		for (ClientData clientData : ConnectedClients.GetSnapshot())
 		{
-			ClientData clientData = iterator.next().getValue();
 			DisconnectClient(clientData);
 		}
 	}
@@ -0,0 +1,342 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks a message relayed to some clients, so the time from receiving it to it being written to the last of them can be recorded.
+ * Each recipient holds a reference until the message has been written to it, the relaying thread holds one until it's finished queueing.
+ */
+class RelaySample
+{
+	private final long ReceivedAt;
+	private final LatencyHistogram Histogram;
+	private final AtomicInteger References = new AtomicInteger(1);
+	private volatile boolean HasRecipients = false;
+	
+	public RelaySample(long receivedAt, LatencyHistogram histogram)
+	{
+		ReceivedAt = receivedAt;
+		Histogram = histogram;
+	}
+	
+	/**
+	 * Adds a recipient which the message has been queued for.
+	 */
+	public void AddRecipient()
+	{
+		HasRecipients = true;
+		References.incrementAndGet();
+	}
+	
+	/**
+	 * Lets go of a reference, recording the latency once the message has been written to every recipient and finished relaying.
+	 */
+	public void Release()
+	{
+		if (References.decrementAndGet() == 0 && HasRecipients)
+		{
+			Histogram.Record(System.nanoTime() - ReceivedAt);
+		}
+	}
+}
+
+/**
+ * Marks the point in a client's outbound queue after which a sampled message has been written.
+ */
+class RelayMarker
+{
+	/**
+	 * The number of messages which will have left the client's queue once the sampled message has.
+	 */
+	public final long Sequence;
+	public final RelaySample Sample;
+	
+	public RelayMarker(long sequence, RelaySample sample)
+	{
+		Sequence = sequence;
+		Sample = sample;
+	}
+}
+
+/**
+ * Counters and latency histograms describing what a server is doing, kept per type of client where that makes sense.
+ * Everything is recorded without locking, so recording can happen on any thread relaying / writing messages.
+ */
+class ServerMetrics
+{
+	/**
+	 * Roughly one in this many relayed messages has its latency recorded, tracking a message costs an allocation per recipient.
+	 */
+	private static final int RelaySampleInterval = 16;
+	
+	/**
+	 * Metrics kept for each type of client.
+	 */
+	private static class TypeMetrics
+	{
+		final LongAdder MessagesReceived = new LongAdder();
+		final LongAdder BytesReceived = new LongAdder();
+		final LatencyHistogram RelayLatency = new LatencyHistogram();
+	}
+	
+	private final EnumMap<ClientType, TypeMetrics> MetricsByType = new EnumMap<>(ClientType.class);
+	private final LongAdder ConnectionsOpened = new LongAdder();
+	private final LongAdder ConnectionsClosed = new LongAdder();
+	private final LongAdder WriteCount = new LongAdder();
+	private final LongAdder MessagesWritten = new LongAdder();
+	private final LongAdder BytesWritten = new LongAdder();
+	
+	/**
+	 * Totals when the metrics were last described, so rates can be worked out since then.
+	 */
+	private long LastDescribedAt = System.nanoTime();
+	private long LastMessagesReceived = 0;
+	private long LastBytesReceived = 0;
+	private long LastMessagesWritten = 0;
+	private long LastBytesWritten = 0;
+	
+	public ServerMetrics()
+	{
+		for (ClientType type : ClientType.values())
+		{
+			MetricsByType.put(type, new TypeMetrics());
+		}
+	}
+	
+	/**
+	 * Counts a client finishing connecting.
+	 */
+	public void RecordConnectionOpened()
+	{
+		ConnectionsOpened.increment();
+	}
+	
+	/**
+	 * Counts a connected client disconnecting.
+	 */
+	public void RecordConnectionClosed()
+	{
+		ConnectionsClosed.increment();
+	}
+	
+	/**
+	 * Counts a message received from a client.
+	 *
+	 * @param type The type of client who sent the message.
+	 * @param byteCount The size of the message.
+	 */
+	public void RecordReceived(ClientType type, int byteCount)
+	{
+		TypeMetrics typeMetrics = MetricsByType.get(type);
+		typeMetrics.MessagesReceived.increment();
+		typeMetrics.BytesReceived.add(byteCount);
+	}
+	
+	/**
+	 * Counts messages written to a client.
+	 *
+	 * @param writeCount The number of writes made to the socket.
+	 * @param messageCount The number of messages those writes completed.
+	 * @param byteCount The number of bytes written.
+	 */
+	public void RecordWrites(int writeCount, int messageCount, long byteCount)
+	{
+		WriteCount.add(writeCount);
+		MessagesWritten.add(messageCount);
+		BytesWritten.add(byteCount);
+	}
+	
+	/**
+	 * Gets the number of writes made to clients' sockets.
+	 *
+	 * @return The number of writes.
+	 */
+	public long GetWriteCount()
+	{
+		return WriteCount.sum();
+	}
+	
+	/**
+	 * Gets the number of messages written to clients.
+	 *
+	 * @return The number of messages.
+	 */
+	public long GetMessagesWritten()
+	{
+		return MessagesWritten.sum();
+	}
+	
+	/**
+	 * Decides whether to track how long a message takes to relay, for roughly one in RelaySampleInterval messages.
+	 *
+	 * @param type The type of client who sent the message.
+	 * @param receivedAt When the message was received, in System.nanoTime.
+	 * @return The sample to attach to each recipient, null if the message isn't being tracked.
+	 */
+	public RelaySample SampleRelay(ClientType type, long receivedAt)
+	{
+		if (ThreadLocalRandom.current().nextInt(RelaySampleInterval) != 0)
+		{
+			return null;
+		}
+		
+		return new RelaySample(receivedAt, MetricsByType.get(type).RelayLatency);
+	}
+	
+	/**
+	 * Describes the metrics for a person to read, including rates since they were last described.
+	 *
+	 * @param clients The clients currently connected.
+	 * @return The lines describing the metrics.
+	 */
+	public synchronized List<String> Describe(ClientData[] clients)
+	{
+		long now = System.nanoTime();
+		double seconds = Math.max(0.001, (now - LastDescribedAt) / 1e9);
+		long messagesReceived = 0;
+		long bytesReceived = 0;
+		for (TypeMetrics typeMetrics : MetricsByType.values())
+		{
+			messagesReceived += typeMetrics.MessagesReceived.sum();
+			bytesReceived += typeMetrics.BytesReceived.sum();
+		}
+		long messagesWritten = MessagesWritten.sum();
+		long bytesWritten = BytesWritten.sum();
+		
+		List<String> lines = new ArrayList<>();
+		lines.add(String.format("Clients: %d connected (%d connections opened, %d closed)", clients.length, ConnectionsOpened.sum(), ConnectionsClosed.sum()));
+		lines.add(String.format("Received: %d messages (%.1f/s), %d bytes (%.1f/s)", messagesReceived, (messagesReceived - LastMessagesReceived) / seconds, bytesReceived, (bytesReceived - LastBytesReceived) / seconds));
+		lines.add(String.format("Written: %d messages (%.1f/s), %d bytes (%.1f/s) in %d writes", messagesWritten, (messagesWritten - LastMessagesWritten) / seconds, bytesWritten, (bytesWritten - LastBytesWritten) / seconds, WriteCount.sum()));
+		lines.add(String.format("Outbound queues: %d messages queued in total, %d at most for one client", GetTotalQueued(clients), GetMaxQueued(clients)));
+		
+		for (ClientType type : ClientType.values())
+		{
+			TypeMetrics typeMetrics = MetricsByType.get(type);
+			LatencyHistogram latency = typeMetrics.RelayLatency;
+			lines.add(String.format("%s: %d connected, %d messages / %d bytes received, relay latency (us) p50 %d, p90 %d, p99 %d, p99.9 %d, max %d, mean %.1f over %d samples",
+				type, CountClients(clients, type), typeMetrics.MessagesReceived.sum(), typeMetrics.BytesReceived.sum(),
+				latency.GetPercentile(50), latency.GetPercentile(90), latency.GetPercentile(99), latency.GetPercentile(99.9), latency.GetMax(), latency.GetMean(), latency.GetCount()));
+		}
+		
+		LastDescribedAt = now;
+		LastMessagesReceived = messagesReceived;
+		LastBytesReceived = bytesReceived;
+		LastMessagesWritten = messagesWritten;
+		LastBytesWritten = bytesWritten;
+		return lines;
+	}
+	
+	/**
+	 * Writes the metrics in the Prometheus text format, so they can be scraped by monitoring tools.
+	 *
+	 * @param clients The clients currently connected.
+	 * @return The metrics, one per line.
+	 */
+	public String ToScrapeText(ClientData[] clients)
+	{
+		StringBuilder text = new StringBuilder();
+		AppendMetric(text, "chat_clients_connected", null, clients.length);
+		AppendMetric(text, "chat_connections_opened_total", null, ConnectionsOpened.sum());
+		AppendMetric(text, "chat_connections_closed_total", null, ConnectionsClosed.sum());
+		AppendMetric(text, "chat_writes_total", null, WriteCount.sum());
+		AppendMetric(text, "chat_messages_written_total", null, MessagesWritten.sum());
+		AppendMetric(text, "chat_bytes_written_total", null, BytesWritten.sum());
+		AppendMetric(text, "chat_outbound_queued_messages", null, GetTotalQueued(clients));
+		AppendMetric(text, "chat_outbound_queued_messages_max", null, GetMaxQueued(clients));
+		
+		for (ClientType type : ClientType.values())
+		{
+			TypeMetrics typeMetrics = MetricsByType.get(type);
+			String typeLabel = String.format("type=\"%s\"", type);
+			AppendMetric(text, "chat_clients_connected_by_type", typeLabel, CountClients(clients, type));
+			AppendMetric(text, "chat_messages_received_total", typeLabel, typeMetrics.MessagesReceived.sum());
+			AppendMetric(text, "chat_bytes_received_total", typeLabel, typeMetrics.BytesReceived.sum());
+			
+			LatencyHistogram latency = typeMetrics.RelayLatency;
+			for (double quantile : new double[] { 0.5, 0.9, 0.99, 0.999 })
+			{
+				AppendMetric(text, "chat_relay_latency_microseconds", String.format("%s,quantile=\"%s\"", typeLabel, quantile), latency.GetPercentile(quantile * 100));
+			}
+			AppendMetric(text, "chat_relay_latency_microseconds_count", typeLabel, latency.GetCount());
+			AppendMetric(text, "chat_relay_latency_microseconds_max", typeLabel, latency.GetMax());
+		}
+		
+		return text.toString();
+	}
+	
+	/**
+	 * Adds a metric to scrape text, '[name]{[labels]} [value]'.
+	 *
+	 * @param text The text to add to.
+	 * @param name The name of the metric.
+	 * @param labels The metric's labels, null if it has none.
+	 * @param value The metric's value.
+	 */
+	private static void AppendMetric(StringBuilder text, String name, String labels, long value)
+	{
+		text.append(name);
+		if (labels != null)
+		{
+			text.append('{').append(labels).append('}');
+		}
+		text.append(' ').append(value).append('\n');
+	}
+	
+	/**
+	 * Counts the connected clients of a given type.
+	 *
+	 * @param clients The clients currently connected.
+	 * @param type The type of client to count.
+	 * @return The number of clients of the type.
+	 */
+	private static int CountClients(ClientData[] clients, ClientType type)
+	{
+		int count = 0;
+		for (ClientData clientData : clients)
+		{
+			if (clientData.GetClientType() == type)
+			{
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Adds up the messages waiting to be written to every client.
+	 *
+	 * @param clients The clients currently connected.
+	 * @return The total number of queued messages.
+	 */
+	private static long GetTotalQueued(ClientData[] clients)
+	{
+		long total = 0;
+		for (ClientData clientData : clients)
+		{
+			total += clientData.GetQueuedMessageCount();
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Finds the most messages waiting to be written to a single client.
+	 *
+	 * @param clients The clients currently connected.
+	 * @return The deepest outbound queue.
+	 */
+	private static int GetMaxQueued(ClientData[] clients)
+	{
+		int max = 0;
+		for (ClientData clientData : clients)
+		{
+			max = Math.max(max, clientData.GetQueuedMessageCount());
+		}
+		
+		return max;
+	}
+}
@@ -0,0 +1,81 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a server's metrics as plain text over HTTP, so they can be scraped by monitoring tools.
+ * Only listens on the loopback address, and every request is answered by a single thread of its own.
+ */
+class StatsEndpoint
+{
+	public static final String Path = "/stats";
+	
+	private final Server Server;
+	private final HttpServer HttpServer;
+	
+	/**
+	 * Constructs a new StatsEndpoint, and starts serving requests.
+	 *
+	 * @param server The server whose metrics are served.
+	 * @param port The port to listen on.
+	 * @throws IOException If the port couldn't be listened on.
+	 */
+	public StatsEndpoint(Server server, int port) throws IOException
+	{
+		Server = server;
+		HttpServer = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		HttpServer.createContext(Path, this::HandleRequest);
+		HttpServer.setExecutor(Executors.newSingleThreadExecutor(task ->
+		{
+			Thread thread = new Thread(task, "Stats Endpoint Thread");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		HttpServer.start();
+		ConsoleIO.Log("Serving stats at http://localhost:%d%s", port, Path);
+	}
+	
+	/**
+	 * Answers a request for the metrics.
+	 *
+	 * @param exchange The request and its response.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private void HandleRequest(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			if (!exchange.getRequestMethod().equals("GET"))
+			{
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			
+			byte[] body = Server.GetStatsText().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody())
+			{
+				out.write(body);
+			}
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Stops serving requests.
+	 */
+	public void Stop()
+	{
+		HttpServer.stop(0);
+	}
+}
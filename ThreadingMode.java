@@ -0,0 +1,76 @@
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of thread a Server uses for accepting connections and relaying messages.
+ */
+public enum ThreadingMode
+{
+	/**
+	 * Regular threads, each backed by its own OS thread and stack.
+	 */
+	Platform,
+	
+	/**
+	 * Lightweight threads scheduled by the JVM, blocking on a socket only parks the virtual thread.
+	 * Requires Java 21 or later.
+	 */
+	Virtual;
+	
+	/**
+	 * Creates virtual threads, null if the running JVM doesn't support them.
+	 */
+	private static final ThreadFactory VirtualThreadFactory = CreateVirtualThreadFactory();
+	
+	/**
+	 * Determines whether threads of this kind can be created by the running JVM.
+	 *
+	 * @return Whether this mode is supported.
+	 */
+	public boolean IsSupported()
+	{
+		return this == Platform || VirtualThreadFactory != null;
+	}
+	
+	/**
+	 * Creates a new, unstarted thread of this kind.
+	 *
+	 * @param task The task the thread should run.
+	 * @param name The name of the thread.
+	 * @return The new thread.
+	 * @throws UnsupportedOperationException If this mode isn't supported by the running JVM.
+	 */
+	public Thread NewThread(Runnable task, String name) throws UnsupportedOperationException
+	{
+		if (this == Platform)
+		{
+			return new Thread(task, name);
+		}
+		
+		if (VirtualThreadFactory == null)
+		{
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later.");
+		}
+		
+		Thread thread = VirtualThreadFactory.newThread(task);
+		thread.setName(name);
+		return thread;
+	}
+	
+	/**
+	 * Looks up Thread.ofVirtual().factory() reflectively, so this still compiles and runs on Java 11.
+	 *
+	 * @return A factory for virtual threads, or null if they aren't supported.
+	 */
+	private static ThreadFactory CreateVirtualThreadFactory()
+	{
+		try
+		{
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			return null;
+		}
+	}
+}
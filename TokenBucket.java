@@ -0,0 +1,153 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how quickly something can be used, e.g. how many messages a client can send per second.
+ * Tokens are added at a steady rate up to a maximum, and each use takes some of them.
+ * Never locks, the whole bucket is a single time (when it will next be full) which is updated by compare-and-set.
+ */
+class TokenBucket
+{
+	/**
+	 * How long it takes for a single token to be added, in nanoseconds.
+	 */
+	private final double NanosPerToken;
+	
+	/**
+	 * How long it takes for the bucket to fill from empty, in nanoseconds.
+	 */
+	private final long FillTime;
+	
+	/**
+	 * The time (in System.nanoTime) at which the bucket will be full again, anything earlier means it's already full.
+	 */
+	private final AtomicLong FullAt = new AtomicLong(System.nanoTime());
+	
+	/**
+	 * Constructs a new TokenBucket, starting full.
+	 *
+	 * @param tokensPerSecond How many tokens are added each second, must be positive.
+	 * @param capacity The most tokens the bucket can hold, i.e. how many can be used in a burst.
+	 */
+	public TokenBucket(double tokensPerSecond, double capacity)
+	{
+		NanosPerToken = 1_000_000_000d / tokensPerSecond;
+		FillTime = (long)(NanosPerToken * Math.max(1, capacity));
+	}
+	
+	/**
+	 * Takes tokens from the bucket if it holds enough of them.
+	 *
+	 * @param tokens The number of tokens to take.
+	 * @return 0 if the tokens were taken, otherwise how long until the bucket will hold enough of them in nanoseconds (nothing is taken).
+	 */
+	public long TryTake(long tokens)
+	{
+		long cost = (long)(NanosPerToken * tokens);
+		while (true)
+		{
+			long now = System.nanoTime();
+			long fullAt = FullAt.get();
+			long wait = GetWait(now, fullAt, cost);
+			if (wait > 0)
+			{
+				return wait;
+			}
+			
+			if (FullAt.compareAndSet(fullAt, Math.max(fullAt, now) + cost))
+			{
+				return 0;
+			}
+		}
+	}
+	
+	/**
+	 * Takes tokens from the bucket whether or not it holds enough of them, borrowing any it doesn't have from the future.
+	 *
+	 * @param tokens The number of tokens to take.
+	 * @return How long the caller should wait before using the tokens in nanoseconds, 0 if the bucket held enough of them.
+	 */
+	public long Take(long tokens)
+	{
+		long cost = (long)(NanosPerToken * tokens);
+		while (true)
+		{
+			long now = System.nanoTime();
+			long fullAt = FullAt.get();
+			if (FullAt.compareAndSet(fullAt, Math.max(fullAt, now) + cost))
+			{
+				return GetWait(now, fullAt, cost);
+			}
+		}
+	}
+	
+	/**
+	 * Puts tokens back into the bucket, e.g. when they were taken for something which then didn't happen.
+	 *
+	 * @param tokens The number of tokens to put back.
+	 */
+	public void Return(long tokens)
+	{
+		long cost = (long)(NanosPerToken * tokens);
+		FullAt.addAndGet(-cost);
+	}
+	
+	/**
+	 * Works out how long until the bucket holds enough tokens.
+	 *
+	 * @param now The current time.
+	 * @param fullAt The time the bucket will be full again.
+	 * @param cost How long it takes to add the tokens needed, in nanoseconds.
+	 * @return How long to wait in nanoseconds, 0 if the bucket already holds enough tokens.
+	 */
+	private long GetWait(long now, long fullAt, long cost)
+	{
+		// Bucket is full, uses bigger than the whole bucket are still allowed rather than never being allowed
+		if (fullAt <= now)
+		{
+			return 0;
+		}
+		
+		return Math.max(0, fullAt + cost - FillTime - now);
+	}
+}
+
+/**
+ * How quickly a type of client is allowed to send messages, enforced with a pair of token buckets per client.
+ */
+class RateLimit
+{
+	public final double MessagesPerSecond;
+	public final double BytesPerSecond;
+	
+	/**
+	 * Constructs a new RateLimit.
+	 *
+	 * @param messagesPerSecond The most messages allowed per second, 0 for no limit.
+	 * @param bytesPerSecond The most bytes allowed per second (counted as the length of each message), 0 for no limit.
+	 */
+	public RateLimit(double messagesPerSecond, double bytesPerSecond)
+	{
+		MessagesPerSecond = Math.max(0, messagesPerSecond);
+		BytesPerSecond = Math.max(0, bytesPerSecond);
+	}
+	
+	/**
+	 * Creates a bucket limiting the number of messages, which allows a burst of up to a second's worth of messages.
+	 *
+	 * @return The bucket, null if messages aren't limited.
+	 */
+	public TokenBucket CreateMessageBucket()
+	{
+		return MessagesPerSecond > 0 ? new TokenBucket(MessagesPerSecond, MessagesPerSecond) : null;
+	}
+	
+	/**
+	 * Creates a bucket limiting the number of bytes, which allows a burst of up to a second's worth of bytes.
+	 *
+	 * @return The bucket, null if bytes aren't limited.
+	 */
+	public TokenBucket CreateByteBucket()
+	{
+		return BytesPerSecond > 0 ? new TokenBucket(BytesPerSecond, BytesPerSecond) : null;
+	}
+}
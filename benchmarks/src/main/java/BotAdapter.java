@@ -0,0 +1,117 @@
+import benchmarks.BotProbe;
+
+import java.net.InetAddress;
+
+/**
+ * Calls the message handling methods of a ChatBotClient which never connects, for benchmarks in the benchmarks package.
+ */
+public class BotAdapter implements BotProbe
+{
+	static
+	{
+		// Lines the bot handles are logged, which would flood the benchmarks' output
+		ConsoleIO.SetLogLevel(LogLevel.Error);
+	}
+	
+	private final ChatBotClient Bot = new ChatBotClient(InetAddress.getLoopbackAddress(), 0);
+	private final ParsedMessage ReceivedLine = new ParsedMessage("!cb");
+	
+	/**
+	 * The sender of the last message addressed to the bot, kept so copying it out can't be optimised away.
+	 */
+	public String LastSenderName;
+	
+	@Override
+	public String RemoveDisplayName(String line)
+	{
+		return Bot.RemoveDisplayName(line);
+	}
+	
+	@Override
+	public String RemoveANSIEscapeCodes(String line)
+	{
+		return Bot.RemoveANSIEscapeCodes(line);
+	}
+	
+	@Override
+	public String RemoveChatPrefix(String body)
+	{
+		return Bot.RemoveChatPrefix(body);
+	}
+	
+	@Override
+	public String PreprocessWithStrings(String line)
+	{
+		String senderName = Bot.GetDisplayName(line);
+		String body = Bot.RemoveDisplayName(line);
+		
+		MessageKind kind = MessageKind.Chat;
+		if (body.startsWith(MessageKind.Connected.TextColour))
+		{
+			kind = MessageKind.Connected;
+		}
+		else if (body.startsWith(MessageKind.Disconnected.TextColour))
+		{
+			kind = MessageKind.Disconnected;
+		}
+		else if (body.startsWith(MessageKind.Private.TextColour + "(DM) "))
+		{
+			kind = MessageKind.Private;
+		}
+		else if (body.startsWith(MessageKind.Notice.TextColour))
+		{
+			kind = MessageKind.Notice;
+		}
+		
+		body = Bot.RemoveANSIEscapeCodes(body);
+		if (kind == MessageKind.Private)
+		{
+			body = body.substring("(DM) ".length()).stripTrailing();
+		}
+		
+		if (kind != MessageKind.Chat || !Bot.IsAddressedToBot(body))
+		{
+			return null;
+		}
+		
+		LastSenderName = senderName;
+		return Bot.RemoveChatPrefix(body);
+	}
+	
+	@Override
+	public String Preprocess(String line)
+	{
+		ReceivedLine.Parse(line);
+		if (ReceivedLine.GetKind() != MessageKind.Chat || !ReceivedLine.IsAddressedToBot())
+		{
+			return null;
+		}
+		
+		LastSenderName = ReceivedLine.GetSenderName();
+		return ReceivedLine.GetCommand();
+	}
+	
+	@Override
+	public void Receive(String line)
+	{
+		Bot.OnMessageReceived(line);
+	}
+	
+	@Override
+	public String CreateResponse(String message)
+	{
+		return Bot.CreateResponse(message);
+	}
+	
+	@Override
+	public void SetCacheCapacity(int capacity)
+	{
+		Bot.SetCacheCapacity(capacity);
+	}
+	
+	@Override
+	public String GetCacheStatsText()
+	{
+		return Bot.GetCacheStatsText();
+	}
+}
@@ -2,9 +2,11 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 
+/**
+ * The reader the app waited on clients / the console with before LineReader, kept only so benchmarks can compare against it.
+ */
 public class BufferedReaderEx extends BufferedReader
 {
-	
 	/**
 	 * Creates a buffering character-input stream that uses a default-sized
 	 * input buffer.
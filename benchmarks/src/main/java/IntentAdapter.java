@@ -0,0 +1,27 @@
+import benchmarks.IntentProbe;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Loads IntentTables and answers messages from them, for benchmarks in the benchmarks package.
+ */
+public class IntentAdapter implements IntentProbe
+{
+	private final Random RNG = new Random();
+	private IntentTable Intents = IntentTable.Empty;
+	
+	@Override
+	public int Load(String path) throws IOException
+	{
+		Intents = IntentTable.Load(Paths.get(path));
+		return Intents.GetIntentCount();
+	}
+	
+	@Override
+	public String CreateResponse(String message)
+	{
+		return Intents.CreateResponse(message, RNG);
+	}
+}
@@ -0,0 +1,60 @@
+import benchmarks.PipelineProbe;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds messages to a ChatBotClient which never connects, for benchmarks in the benchmarks package.
+ */
+public class PipelineAdapter implements PipelineProbe
+{
+	private final AtomicLong ResponseCount = new AtomicLong();
+	private ChatBotClient Bot;
+	
+	@Override
+	public void Start(int workerCount, long extraWork)
+	{
+		Bot = new ChatBotClient(InetAddress.getLoopbackAddress(), 0)
+		{
+			@Override
+			String CreateResponse(String message)
+			{
+				Blackhole.consumeCPU(extraWork);
+				return super.CreateResponse(message);
+			}
+			
+			@Override
+			public synchronized void SendMessage(String message)
+			{
+				ResponseCount.incrementAndGet();
+			}
+			
+			@Override
+			public synchronized void SendMessages(List<String> messages)
+			{
+				ResponseCount.addAndGet(messages.size());
+			}
+		};
+		Bot.SetWorkerCount(workerCount);
+	}
+	
+	@Override
+	public void Receive(String senderName, String message)
+	{
+		Bot.OnMessageReceived(senderName, MessageKind.Chat, message);
+	}
+	
+	@Override
+	public long GetResponseCount()
+	{
+		return ResponseCount.get();
+	}
+	
+	@Override
+	public void Stop()
+	{
+		Bot.Disconnect();
+	}
+}
@@ -0,0 +1,48 @@
+import benchmarks.ReaderProbe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+
+/**
+ * Reads lines with LineReader or BufferedReaderEx, for benchmarks in the benchmarks package.
+ */
+public class ReaderAdapter implements ReaderProbe
+{
+	private LineReader LineReader;
+	private BufferedReaderEx PollingReader;
+	
+	@Override
+	public void Open(InputStream inputStream, String reader)
+	{
+		if (reader.equals("Polling"))
+		{
+			PollingReader = new BufferedReaderEx(new InputStreamReader(inputStream, Charset.defaultCharset()));
+		}
+		else
+		{
+			LineReader = new LineReader(inputStream, Charset.defaultCharset());
+		}
+	}
+	
+	@Override
+	public String ReadLine() throws IOException
+	{
+		if (PollingReader == null)
+		{
+			return LineReader.ReadLine();
+		}
+		
+		try
+		{
+			return PollingReader.ReadLineWhenReady();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while polling for a line.");
+		}
+	}
+}
@@ -0,0 +1,132 @@
+import benchmarks.RelayProbe;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A socket which is never connected, reading nothing and discarding everything written to it.
+ */
+class StubSocket extends Socket
+{
+	@Override
+	public InputStream getInputStream()
+	{
+		return InputStream.nullInputStream();
+	}
+	
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return OutputStream.nullOutputStream();
+	}
+}
+
+/**
+ * Relays messages through a Server whose clients have stubbed sockets, for benchmarks in the benchmarks package.
+ */
+public class RelayAdapter implements RelayProbe
+{
+	private static final int OutboundQueueCapacity = 1024;
+	
+	private Server Server;
+	private ClientData[] Clients;
+	
+	/**
+	 * The members of each client's channel, including the client itself.
+	 */
+	private ClientData[][] ChannelMembers;
+	
+	@Override
+	public void Setup(int clientCount, int channelCount, double frameShare)
+	{
+		ConsoleIO.SetLogLevel(LogLevel.Off);
+		Server = new Server(0);
+		
+		// Dropping rather than disconnecting while registering, connection alerts pile up until the queues are drained
+		Server.SetOutboundQueue(OutboundQueueCapacity, OverflowPolicy.DropOldest);
+		
+		Clients = new ClientData[clientCount];
+		ArrayList<ArrayList<ClientData>> channels = new ArrayList<>();
+		for (int i = 0; i < channelCount; i++)
+		{
+			channels.add(new ArrayList<>());
+		}
+		
+		int frameClientCount = (int)Math.round(clientCount * frameShare);
+		for (int i = 0; i < clientCount; i++)
+		{
+			// Spreading the clients which use frames evenly amongst the rest
+			boolean usesFrames = frameClientCount > 0 && (long)i * frameClientCount / clientCount != (long)(i + 1) * frameClientCount / clientCount;
+			StringBuilder response = new StringBuilder("ChatClient");
+			if (usesFrames)
+			{
+				response.append(' ').append(MessageFrame.HandshakeToken);
+			}
+			if (channelCount > 1)
+			{
+				response.append(' ').append(Channel.HandshakeToken).append("room").append(i % channelCount);
+			}
+			
+			Clients[i] = new ClientData(new StubSocket(), null, String.format("C#%d", i), OutboundQueueCapacity);
+			Server.RegisterClient(Clients[i], response.toString());
+			channels.get(i % channelCount).add(Clients[i]);
+		}
+		
+		ChannelMembers = new ClientData[clientCount][];
+		for (int i = 0; i < clientCount; i++)
+		{
+			ChannelMembers[i] = channels.get(i % channelCount).toArray(new ClientData[0]);
+		}
+		
+		// Throwing away everything queued while registering
+		for (ClientData clientData : Clients)
+		{
+			Drain(clientData);
+		}
+		Server.SetOutboundQueue(OutboundQueueCapacity, OverflowPolicy.Disconnect);
+	}
+	
+	@Override
+	public long Relay(int senderIndex, String message)
+	{
+		Server.RelayMessage(Clients[senderIndex], message);
+		
+		long byteCount = 0;
+		for (ClientData member : ChannelMembers[senderIndex])
+		{
+			byteCount += Drain(member);
+		}
+		
+		return byteCount;
+	}
+	
+	@Override
+	public int GetClientCount()
+	{
+		return Clients.length;
+	}
+	
+	/**
+	 * Empties a client's queue, counting the messages as written.
+	 *
+	 * @param clientData The client whose queue to empty.
+	 * @return The number of bytes which were queued.
+	 */
+	private static long Drain(ClientData clientData)
+	{
+		long byteCount = 0;
+		int messageCount = 0;
+		ByteBuffer message;
+		while ((message = clientData.PollQueuedMessage()) != null)
+		{
+			byteCount += message.remaining();
+			messageCount++;
+		}
+		clientData.OnMessagesWritten(messageCount);
+		
+		return byteCount;
+	}
+}
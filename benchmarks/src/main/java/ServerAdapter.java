@@ -0,0 +1,42 @@
+import benchmarks.ServerProbe;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * Runs a real Server on a free local port, for benchmarks in the benchmarks package.
+ */
+public class ServerAdapter implements ServerProbe
+{
+	private Server Server;
+	
+	@Override
+	public int Start(String engine)
+	{
+		ConsoleIO.SetLogLevel(LogLevel.Off);
+		int port;
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Cannot find a free port.", e);
+		}
+		
+		Server = engine.equals("nio") ? new NioServer(port, 1) : new Server(port);
+		if (!Server.TryStartListeningForConnections())
+		{
+			throw new IllegalStateException(String.format("Cannot listen on port %d.", port));
+		}
+		
+		return port;
+	}
+	
+	@Override
+	public void Stop()
+	{
+		Server.StopListeningForConnections();
+		Server.DisconnectAllClients();
+	}
+}
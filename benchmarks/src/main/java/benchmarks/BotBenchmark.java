@@ -0,0 +1,80 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bots' handling of a received message, separating it from its sender / colours and working out a response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BotBenchmark
+{
+	/**
+	 * A private message as it arrives as a text line, with its display name and colours.
+	 */
+	private static final String Line = "<C#12> \u001B[33m(DM) !cb what is the time where you are right now? \u001B[0m";
+	private static final String Body = "!cb what is the time where you are right now?";
+	
+	/**
+	 * Messages covering each kind of response, greetings, personal / general questions and statements.
+	 */
+	private static final String[] Messages =
+	{
+		"hello there",
+		"who are you?",
+		"what is your favourite colour?",
+		"where is the nearest train station from here?",
+		"why is the sky blue",
+		"i am sitting on a chair, reading a rather long book about networking"
+	};
+	
+	private BotProbe Bot;
+	private int NextMessage = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Bot = Probes.Load("BotAdapter", BotProbe.class);
+	}
+	
+	@Benchmark
+	public String RemoveDisplayName()
+	{
+		return Bot.RemoveDisplayName(Line);
+	}
+	
+	@Benchmark
+	public String RemoveANSIEscapeCodes()
+	{
+		return Bot.RemoveANSIEscapeCodes(Line);
+	}
+	
+	@Benchmark
+	public String RemoveChatPrefix()
+	{
+		return Bot.RemoveChatPrefix(Body);
+	}
+	
+	@Benchmark
+	public String CreateResponse()
+	{
+		NextMessage = (NextMessage + 1) % Messages.length;
+		return Bot.CreateResponse(Messages[NextMessage]);
+	}
+}
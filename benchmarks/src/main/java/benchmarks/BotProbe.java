@@ -0,0 +1,58 @@
+package benchmarks;
+
+/**
+ * Calls the message handling methods of a ChatBotClient which never connects.
+ */
+public interface BotProbe
+{
+	/**
+	 * @see BotBase#RemoveDisplayName(String)
+	 */
+	String RemoveDisplayName(String line);
+	
+	/**
+	 * @see BotBase#RemoveANSIEscapeCodes(String)
+	 */
+	String RemoveANSIEscapeCodes(String line);
+	
+	/**
+	 * @see BotBase#RemoveChatPrefix(String)
+	 */
+	String RemoveChatPrefix(String body);
+	
+	/**
+	 * Separates a text line the way bots did before ParsedMessage, a regex / copy per step.
+	 *
+	 * @param line The line received from the server.
+	 * @return The body without the prefix if it's a chat message addressed to the bot, otherwise null.
+	 */
+	String PreprocessWithStrings(String line);
+	
+	/**
+	 * Separates a text line with a reused ParsedMessage, copying out the sender / command only if it's addressed to the bot.
+	 *
+	 * @param line The line received from the server.
+	 * @return The body without the prefix if it's a chat message addressed to the bot, otherwise null.
+	 */
+	String Preprocess(String line);
+	
+	/**
+	 * @see BotBase#OnMessageReceived(String)
+	 */
+	void Receive(String line);
+	
+	/**
+	 * @see ChatBotClient#CreateResponse(String)
+	 */
+	String CreateResponse(String message);
+	
+	/**
+	 * @see ChatBotClient#SetCacheCapacity(int)
+	 */
+	void SetCacheCapacity(int capacity);
+	
+	/**
+	 * @see ChatBotClient#GetCacheStatsText()
+	 */
+	String GetCacheStatsText();
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ChatBotClient.CreateResponse with its response cache off / small / at its default size, on a skewed mix of messages.
+ * A few questions are asked over and over (spam / bot loops), with a long tail of questions asked rarely and some greetings / statements which are never cached.
+ * The cache's hit rate is printed at the end of each trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark
+{
+	private static final int QuestionCount = 4096;
+	private static final int MessageCount = 1 << 16;
+	private static final String[] Questions = { "what is the weather like in %s", "who are you, %s", "how is it going %s", "where are you from %s" };
+	private static final String[] Others = { "hello %s", "i'm sitting on a chair in %s" };
+	
+	@Param({ "0", "64", "1024" })
+	public int CacheCapacity;
+	
+	private BotProbe Bot;
+	private final String[] Messages = new String[MessageCount];
+	private int NextMessage = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Bot = Probes.Load("BotAdapter", BotProbe.class);
+		Bot.SetCacheCapacity(CacheCapacity);
+		
+		// Question n is asked roughly in proportion to 1 / n, 1 in 5 messages is a greeting / statement
+		Random random = new Random(42);
+		for (int i = 0; i < MessageCount; i++)
+		{
+			int rank = (int)Math.pow(QuestionCount, random.nextDouble());
+			String[] templates = random.nextInt(5) == 0 ? Others : Questions;
+			Messages[i] = String.format(templates[rank % templates.length], "place" + rank);
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown()
+	{
+		System.out.println(Bot.GetCacheStatsText());
+	}
+	
+	@Benchmark
+	public String CreateResponse()
+	{
+		NextMessage = (NextMessage + 1) & (MessageCount - 1);
+		return Bot.CreateResponse(Messages[NextMessage]);
+	}
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures relaying messages from every client in turn with 10k clients connected, either all in one room or spread over 500 channels.
+ * Fan-out only covers the sender's channel, so spreading clients out should multiply throughput by roughly the number of channels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class ChannelBenchmark
+{
+	private static final String Message = "hello channel";
+	
+	@Param({ "10000" })
+	public int ClientCount;
+	
+	@Param({ "1", "500" })
+	public int ChannelCount;
+	
+	private RelayProbe Relay;
+	private int NextSender = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Relay = Probes.Load("RelayAdapter", RelayProbe.class);
+		Relay.Setup(ClientCount, ChannelCount, 0);
+	}
+	
+	@Benchmark
+	public long Relay()
+	{
+		NextSender = (NextSender + 1) % ClientCount;
+		return Relay.Relay(NextSender, Message);
+	}
+}
@@ -0,0 +1,98 @@
+package benchmarks;
+
+import DoDGame.CharacterBase;
+import DoDGame.GameController;
+import DoDGame.Globals;
+import DoDGame.Map;
+import DoDGame.Player;
+import DoDGame.Vector2;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the DoD game's hot paths on the large example map, which has to be in the directory the benchmarks are run from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark
+{
+	private static final String MapFileName = "large_example_map.txt";
+	private static final String[] Directions = { "n", "e", "s", "w" };
+	
+	private GameController GameController;
+	private Map Map;
+	private Player Player;
+	private Vector2 Centre;
+	private List<CharacterBase> Characters;
+	private int NextDirection = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		// Discarding everything the game writes to its players
+		Globals.UserIO.SetInOutStreams(new BufferedReader(Reader.nullReader()), new PrintWriter(Writer.nullWriter()));
+		
+		Map = Globals.ObjectController.CreateMap(System.getProperty("user.dir") + File.separator + MapFileName);
+		if (Map == null)
+		{
+			throw new IllegalStateException(String.format("Cannot load %s, run the benchmarks from the root directory.", MapFileName));
+		}
+		Globals.GameSettings.SetCurrentMap(Map);
+		
+		// A player and a bot, so they're drawn into the area around the player
+		GameController = new GameController();
+		Player = GameController.AddPlayer("Player");
+		Globals.ObjectController.CreateBot(Map.GetRandomSpawnPos());
+		Characters = new ArrayList<>();
+		Characters.addAll(Globals.ObjectController.LoadedPlayers);
+		Characters.addAll(Globals.ObjectController.LoadedBots);
+		Centre = Map.GetRandomSpawnPos();
+	}
+	
+	@Benchmark
+	public char[][] GetImmediateArea()
+	{
+		return Map.GetImmediateArea(Centre, Globals.GameSettings.GetCharacterViewDistance(), Characters);
+	}
+	
+	@Benchmark
+	public Object GetRandomSpawnPos()
+	{
+		return Map.GetRandomSpawnPos();
+	}
+	
+	@Benchmark
+	public String TakeTurnLook()
+	{
+		return GameController.TakeTurn(Player, "look", null);
+	}
+	
+	@Benchmark
+	public String TakeTurnMove()
+	{
+		NextDirection = (NextDirection + 1) % Directions.length;
+		return GameController.TakeTurn(Player, "move", Directions[NextDirection]);
+	}
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading a ChatBotClient's intents from a file, and answering a question from them, for tables of up to 100k intents.
+ * Tables have 100 question words, each with an even share of the intents, and every keyword belongs to 10 questions.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentBenchmark
+{
+	private static final int QuestionCount = 100;
+	
+	@Param({ "1000", "100000" })
+	public int IntentCount;
+	
+	private IntentProbe Intents;
+	private Path File;
+	private String Question;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException
+	{
+		Intents = Probes.Load("IntentAdapter", IntentProbe.class);
+		
+		// Each question's keywords are a run of the vocabulary, wrapping around, so each keyword is shared by several questions
+		int keywordsPerQuestion = IntentCount / QuestionCount;
+		int vocabularySize = IntentCount / 10;
+		File = Files.createTempFile("intents", ".txt");
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(File, StandardCharsets.UTF_8)))
+		{
+			out.println("[statements]");
+			out.println("ok");
+			for (int question = 0; question < QuestionCount; question++)
+			{
+				out.printf("[ask%d]%n", question);
+				for (int i = 0; i < keywordsPerQuestion; i++)
+				{
+					int keyword = (question * keywordsPerQuestion + i) % vocabularySize;
+					out.printf("topic%d = answer %d about topic %d%n", keyword, question, keyword);
+				}
+				out.printf("* = no idea about %d%n", question);
+			}
+		}
+		
+		if (Intents.Load(File.toString()) != IntentCount)
+		{
+			throw new IllegalStateException("The table didn't load every intent.");
+		}
+		
+		// Asking the last question about its last keyword, the other keyword belongs to other questions only
+		int question = QuestionCount - 1;
+		int keyword = (question * keywordsPerQuestion + keywordsPerQuestion - 1) % vocabularySize;
+		int otherKeyword = (keyword + keywordsPerQuestion) % vocabularySize;
+		Question = String.format("so, ask%d me about Topic%d and topic%d when you get a chance", question, keyword, otherKeyword);
+		String expected = String.format("answer %d about topic %d", question, keyword);
+		if (!Intents.CreateResponse(Question).equals(expected))
+		{
+			throw new IllegalStateException(String.format("Expected '%s' but got '%s'.", expected, Intents.CreateResponse(Question)));
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() throws IOException
+	{
+		Files.deleteIfExists(File);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int Load() throws IOException
+	{
+		return Intents.Load(File.toString());
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String Lookup()
+	{
+		return Intents.CreateResponse(Question);
+	}
+}
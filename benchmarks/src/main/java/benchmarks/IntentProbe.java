@@ -0,0 +1,24 @@
+package benchmarks;
+
+import java.io.IOException;
+
+/**
+ * Loads a ChatBotClient's intent table from a file and answers messages from it, without a bot.
+ */
+public interface IntentProbe
+{
+	/**
+	 * Loads a table, replacing the one messages are answered from.
+	 *
+	 * @param path The path of the data file.
+	 * @return The number of intents loaded.
+	 * @throws IOException If the file couldn't be read / isn't a valid table.
+	 * @see IntentTable#Load(java.nio.file.Path)
+	 */
+	int Load(String path) throws IOException;
+	
+	/**
+	 * @see IntentTable#CreateResponse(String, java.util.Random)
+	 */
+	String CreateResponse(String message);
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares ChatBotClient.CreateResponse, which looks up each word of the message once in its IntentTable, against scanning the message once per key word.
+ * Messages are mostly filler with the question at the end, so both have to read the whole message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordBenchmark
+{
+	/**
+	 * Contains none of the bot's tokens / key words.
+	 */
+	private static final String Filler = "the quick brown fox jumps past a sleepy cat ";
+	private static final String Question = "what will the weather be like today";
+	
+	@Param({ "64", "1024", "16384" })
+	public int MessageLength;
+	
+	private BotProbe Bot;
+	private ScanningResponder Scanning;
+	private String Message;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Bot = Probes.Load("BotAdapter", BotProbe.class);
+		Scanning = new ScanningResponder();
+		
+		StringBuilder message = new StringBuilder();
+		while (message.length() + Question.length() < MessageLength)
+		{
+			message.append(Filler);
+		}
+		message.setLength(Math.max(0, MessageLength - Question.length() - 1));
+		Message = message.append(' ').append(Question).toString();
+		
+		// Both should pick the same response, this question only has one key word
+		if (!Bot.CreateResponse(Message).equals(Scanning.CreateResponse(Message)))
+		{
+			throw new IllegalStateException("The intent table and scanning gave different responses.");
+		}
+	}
+	
+	@Benchmark
+	public String Intents()
+	{
+		return Bot.CreateResponse(Message);
+	}
+	
+	@Benchmark
+	public String Scanning()
+	{
+		return Scanning.CreateResponse(Message);
+	}
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many "!cb" messages per second ChatBotClient answers, working out responses on the receiving thread (0 workers) vs on its response pipeline.
+ * Queues are bounded, so once they fill the receiving thread only gets through messages as quickly as they're answered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark
+{
+	private static final int SenderCount = 64;
+	private static final String Message = "!cb what is the weather like where you are?";
+	
+	@Param({ "0", "1", "4" })
+	public int WorkerCount;
+	
+	/**
+	 * Extra CPU work per response, 10000 tokens is roughly 20-30 microseconds.
+	 */
+	@Param({ "0", "10000" })
+	public long ExtraWork;
+	
+	private final String[] SenderNames = new String[SenderCount];
+	private PipelineProbe Bot;
+	private int NextSender = 0;
+	private long ReceivedCount = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		for (int i = 0; i < SenderCount; i++)
+		{
+			SenderNames[i] = "C#" + i;
+		}
+		
+		Bot = Probes.Load("PipelineAdapter", PipelineProbe.class);
+		Bot.Start(WorkerCount, ExtraWork);
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() throws InterruptedException
+	{
+		// Every message should be answered, at most a full set of queues can still be waiting
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (Bot.GetResponseCount() < ReceivedCount && System.nanoTime() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		Bot.Stop();
+		
+		if (Bot.GetResponseCount() != ReceivedCount)
+		{
+			throw new IllegalStateException(String.format("%d messages were received but %d were answered.", ReceivedCount, Bot.GetResponseCount()));
+		}
+	}
+	
+	@Benchmark
+	public void Answer()
+	{
+		NextSender = (NextSender + 1) % SenderCount;
+		Bot.Receive(SenderNames[NextSender], Message);
+		ReceivedCount++;
+	}
+}
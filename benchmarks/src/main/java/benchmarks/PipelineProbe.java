@@ -0,0 +1,35 @@
+package benchmarks;
+
+/**
+ * Feeds messages to a ChatBotClient which never connects, counting its responses instead of sending them.
+ */
+public interface PipelineProbe
+{
+	/**
+	 * Creates the bot.
+	 *
+	 * @param workerCount The number of threads it works out responses on, see ChatBotClient#SetWorkerCount(int).
+	 * @param extraWork How much extra CPU work (in Blackhole.consumeCPU tokens) each response takes, standing in for heavier language processing.
+	 */
+	void Start(int workerCount, long extraWork);
+	
+	/**
+	 * Hands the bot a chat message, as its listening thread would.
+	 *
+	 * @param senderName The display name of the sender.
+	 * @param message The body of the message, including the bot's prefix.
+	 */
+	void Receive(String senderName, String message);
+	
+	/**
+	 * Gets the number of responses the bot has sent.
+	 *
+	 * @return The number of responses.
+	 */
+	long GetResponseCount();
+	
+	/**
+	 * Stops the bot's threads.
+	 */
+	void Stop();
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures separating a text line into its sender / kind / command, a regex / copy per step vs a single pass with a reused ParsedMessage.
+ * Run with '-prof gc' to compare allocation per message (gc.alloc.rate.norm).
+ * Receive goes through ChatBotClient.OnMessageReceived(String) itself, so includes everything a bot does with a line, other than logging it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreprocessBenchmark
+{
+	/**
+	 * Chat addressed to the bot, chat which isn't (most of what a bot receives from servers without frames), a private message and a connection alert.
+	 */
+	@Param({ "Addressed", "Ignored", "Private", "Connected" })
+	public String LineKind;
+	
+	private BotProbe Bot;
+	private String Line;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Bot = Probes.Load("BotAdapter", BotProbe.class);
+		switch (LineKind)
+		{
+			case "Addressed":
+				Line = "<C#12> !cb what is the time where you are right now?";
+				break;
+				
+			case "Ignored":
+				Line = "<C#12> has anyone seen the match last night? it was great";
+				break;
+				
+			case "Private":
+				Line = "<C#12> \u001B[33m(DM) !cb what is the time where you are right now? \u001B[0m";
+				break;
+				
+			default:
+				Line = "<SERVER> \u001B[32mC#12 has connected!\u001B[0m";
+				break;
+		}
+		
+		// Both must separate the line the same way
+		String expected = Bot.PreprocessWithStrings(Line);
+		String actual = Bot.Preprocess(Line);
+		if (expected == null ? actual != null : !expected.equals(actual))
+		{
+			throw new IllegalStateException(String.format("Expected '%s' but got '%s'", expected, actual));
+		}
+	}
+	
+	@Benchmark
+	public String Strings()
+	{
+		return Bot.PreprocessWithStrings(Line);
+	}
+	
+	@Benchmark
+	public String Scanner()
+	{
+		return Bot.Preprocess(Line);
+	}
+	
+	/**
+	 * The whole of what a bot does with a received line, including working out the response if it's addressed to the bot (never sent, the bot isn't connected).
+	 */
+	@Benchmark
+	public void Receive()
+	{
+		Bot.Receive(Line);
+	}
+}
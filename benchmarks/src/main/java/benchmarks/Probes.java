@@ -0,0 +1,33 @@
+package benchmarks;
+
+/**
+ * Loads the adapters benchmarks use to reach the chat app.
+ * The app's classes live in the unnamed package, which classes in a named package (as JMH requires benchmarks to be) can't refer to.
+ * Adapters live in the unnamed package alongside them, implementing interfaces from this package, so they're loaded by name then called directly.
+ */
+public final class Probes
+{
+	private Probes()
+	{
+	}
+	
+	/**
+	 * Creates an adapter by its class name.
+	 *
+	 * @param className The name of the adapter's class, in the unnamed package.
+	 * @param type The interface the adapter implements.
+	 * @param <T> The interface the adapter implements.
+	 * @return A new instance of the adapter.
+	 */
+	public static <T> T Load(String className, Class<T> type)
+	{
+		try
+		{
+			return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(String.format("Cannot load adapter %s.", className), e);
+		}
+	}
+}
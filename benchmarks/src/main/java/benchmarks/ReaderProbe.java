@@ -0,0 +1,26 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads lines from a stream the way the app does now (LineReader, blocking), or the way it did before (BufferedReaderEx, polling every 5ms).
+ */
+public interface ReaderProbe
+{
+	/**
+	 * Starts reading lines from a stream.
+	 *
+	 * @param inputStream The stream to read from.
+	 * @param reader 'LineReader' or 'Polling'.
+	 */
+	void Open(InputStream inputStream, String reader);
+	
+	/**
+	 * Reads the next line, waiting for it the way the chosen reader does.
+	 *
+	 * @return The line, null at the end of the stream.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	String ReadLine() throws IOException;
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures broadcasting a chat message to everyone in a channel, from routing it to every recipient's writer picking it up.
+ * Run with '-prof gc' to see allocation per broadcast, which stays the same however many clients the message is sent to since it's only encoded once per protocol.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RelayBenchmark
+{
+	private static final String Message = "hello everyone, this is a message of a fairly typical length";
+	
+	@Param({ "10", "100", "1000" })
+	public int ClientCount;
+	
+	/**
+	 * The fraction of clients which receive binary frames rather than text lines.
+	 */
+	@Param({ "0", "0.5" })
+	public double FrameShare;
+	
+	private RelayProbe Relay;
+	private int NextSender = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup()
+	{
+		Relay = Probes.Load("RelayAdapter", RelayProbe.class);
+		Relay.Setup(ClientCount, 1, FrameShare);
+	}
+	
+	@Benchmark
+	public long Broadcast()
+	{
+		NextSender = (NextSender + 1) % ClientCount;
+		return Relay.Relay(NextSender, Message);
+	}
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+/**
+ * Relays messages through a Server whose clients have stubbed sockets, so only the server's own work is measured.
+ */
+public interface RelayProbe
+{
+	/**
+	 * Creates a server and registers clients with it, spreading them over channels.
+	 *
+	 * @param clientCount The number of clients to register.
+	 * @param channelCount The number of channels to spread them over, 1 keeps them all in the default channel.
+	 * @param frameShare The fraction of clients which ask for binary frames, the rest receive text lines.
+	 */
+	void Setup(int clientCount, int channelCount, double frameShare);
+	
+	/**
+	 * Relays a chat message from a client to its channel, then drains every recipient's queue the way a writing thread would.
+	 *
+	 * @param senderIndex The index of the client sending the message.
+	 * @param message The message to relay.
+	 * @return The number of bytes which would have been written.
+	 */
+	long Relay(int senderIndex, String message);
+	
+	/**
+	 * Gets the number of clients registered.
+	 *
+	 * @return The number of clients.
+	 */
+	int GetClientCount();
+}
@@ -0,0 +1,95 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the round trip of a chat message over loopback, from a client sending it to the server relaying it back to the same client.
+ * Includes every read / write the server makes for the message, so it shows any latency added by how the server waits on its clients.
+ * The relayed message is read back with LineReader, or with the polling BufferedReaderEx it replaced, showing the latency polling added to each hop it was used on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoundTripBenchmark
+{
+	@Param({ "threaded", "nio" })
+	public String Engine;
+	
+	@Param({ "LineReader", "Polling" })
+	public String Reader;
+	
+	private ServerProbe Server;
+	private Socket Socket;
+	private OutputStream Out;
+	private ReaderProbe In;
+	private long MessageNumber = 0;
+	
+	@Setup(Level.Trial)
+	public void Setup() throws IOException
+	{
+		Server = Probes.Load("ServerAdapter", ServerProbe.class);
+		int port = Server.Start(Engine);
+		
+		Socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		Socket.setTcpNoDelay(true);
+		Out = Socket.getOutputStream();
+		In = Probes.Load("ReaderAdapter", ReaderProbe.class);
+		In.Open(Socket.getInputStream(), Reader);
+		Out.write("ChatClient\n".getBytes(Charset.defaultCharset()));
+		Out.flush();
+		
+		// Waiting to be told we've connected, so the benchmark only sees relayed messages
+		String line;
+		while ((line = In.ReadLine()) != null && !line.contains("has connected"))
+		{
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void TearDown() throws IOException
+	{
+		Socket.close();
+		Server.Stop();
+	}
+	
+	@Benchmark
+	public String RoundTrip() throws IOException
+	{
+		String message = "ping " + ++MessageNumber;
+		Out.write((message + "\n").getBytes(Charset.defaultCharset()));
+		Out.flush();
+		
+		String line;
+		while ((line = In.ReadLine()) != null)
+		{
+			if (line.endsWith(message))
+			{
+				return line;
+			}
+		}
+		
+		throw new IOException("Server closed the connection.");
+	}
+}
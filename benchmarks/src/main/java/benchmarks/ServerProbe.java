@@ -0,0 +1,20 @@
+package benchmarks;
+
+/**
+ * Runs a real Server listening on a local port, for benchmarks which connect to it over TCP.
+ */
+public interface ServerProbe
+{
+	/**
+	 * Starts a server on a free port.
+	 *
+	 * @param engine The server's engine, 'threaded' or 'nio'.
+	 * @return The port the server is listening on.
+	 */
+	int Start(String engine);
+	
+	/**
+	 * Disconnects every client and stops the server.
+	 */
+	void Stop();
+}